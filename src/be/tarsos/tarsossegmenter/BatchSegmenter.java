@@ -0,0 +1,253 @@
+package be.tarsos.tarsossegmenter;
+
+import be.tarsos.tarsossegmenter.model.AASModel;
+import be.tarsos.tarsossegmenter.model.AnalysisSession;
+import be.tarsos.tarsossegmenter.model.AudioFile;
+import be.tarsos.tarsossegmenter.model.segmentation.SegmentationDifference;
+import be.tarsos.tarsossegmenter.util.TimeUnit;
+import be.tarsos.tarsossegmenter.util.io.FileUtils;
+import be.tarsos.tarsossegmenter.util.io.SegmentationFileParser;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * <p>
+ * Segments a corpus of audio files without a graphical user interface. The
+ * files are processed on a bounded pool of worker threads, every file in an
+ * analysis session of its own, and the resulting segmentation is written as a
+ * TextGrid or CSV file.
+ * </p>
+ * <p>
+ * <code>--threads</code> is the amount of files in flight, not the amount of
+ * analysis threads: the analysis of every file already runs on the shared
+ * worker pool (see <code>analysis_threads</code>). Every file in flight holds
+ * its features and similarity matrices, so one file at a time is the default;
+ * more files only pay off when there is memory to spare.
+ * </p>
+ * <p>
+ * Usage: <code>TarsosSegmenter [--threads n] [--format textgrid|csv]
+ * [--output dir] [--list file] [--validate] [--boundaries-only]
+ * folder|file ...</code>
+ * </p>
+ * <p>
+ * With <code>--boundaries-only</code> only the segment boundaries are detected,
+ * from a streaming novelty score without a similarity matrix: the segments
+ * get no labels, but long files need little memory.
+ * </p>
+ * <p>
+ * With <code>--validate</code> and a quantised similarity matrix (see
+ * <code>matrix_bits</code>), every file is analysed a second time with a float
+ * matrix and the differences in boundaries and labels are reported. With
+ * <code>--boundaries-only</code> the boundaries are compared with those of a
+ * full analysis.
+ * </p>
+ */
+public class BatchSegmenter {
+
+	public static final String FORMAT_TEXTGRID = "textgrid";
+	public static final String FORMAT_CSV = "csv";
+	/**
+	 * The default amount of files in flight.
+	 */
+	private static final int DEFAULT_FILES_IN_FLIGHT = 1;
+	private static final String[] LEVEL_NAMES = { "macro", "meso", "micro" };
+
+	private int filesInFlight;
+	private String format;
+	private String outputDirectory;
+	private boolean validate;
+	private boolean boundariesOnly;
+	private final List<String> files;
+
+	private final AtomicInteger processed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private double audioSeconds;
+
+	public BatchSegmenter() {
+		filesInFlight = DEFAULT_FILES_IN_FLIGHT;
+		format = FORMAT_TEXTGRID;
+		outputDirectory = null;
+		files = new ArrayList<String>();
+	}
+
+	/**
+	 * Parses the command line arguments. Folders are searched recursively for
+	 * files matching the configured audio file name pattern, a list file
+	 * contains one audio file per line.
+	 *
+	 * @param args
+	 *            the command line arguments.
+	 * @throws IllegalArgumentException
+	 *             if an option has an invalid value.
+	 */
+	public void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--threads") && i + 1 < args.length) {
+				String value = args[++i];
+				try {
+					filesInFlight = Math.max(1, Integer.parseInt(value));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Not a number of files: " + value);
+				}
+			} else if (args[i].equals("--format") && i + 1 < args.length) {
+				format = args[++i].toLowerCase();
+				if (!format.equals(FORMAT_TEXTGRID) && !format.equals(FORMAT_CSV)) {
+					throw new IllegalArgumentException("Unknown output format: " + format);
+				}
+			} else if (args[i].equals("--output") && i + 1 < args.length) {
+				outputDirectory = args[++i];
+				FileUtils.mkdirs(outputDirectory);
+			} else if (args[i].equals("--validate")) {
+				validate = true;
+			} else if (args[i].equals("--boundaries-only")) {
+				boundariesOnly = true;
+			} else if (args[i].equals("--list") && i + 1 < args.length) {
+				files.addAll(readFileList(args[++i]));
+			} else if (FileUtils.isDirectory(args[i])) {
+				files.addAll(AudioFile.audioFilePaths(args[i]));
+			} else if (FileUtils.exists(args[i])) {
+				files.add(args[i]);
+			} else {
+				System.err.println("Skipped " + args[i] + ": no such file or directory");
+			}
+		}
+	}
+
+	private static List<String> readFileList(String listFile) {
+		List<String> list = new ArrayList<String>();
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(listFile));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						list.add(line);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read file list " + listFile);
+		}
+		return list;
+	}
+
+	/**
+	 * Processes all files, at most the given amount at a time, and prints a
+	 * throughput summary when every file is done.
+	 */
+	public void run() {
+		long start = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(filesInFlight);
+		for (final String file : files) {
+			pool.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					process(file);
+				}
+			});
+		}
+		pool.shutdown();
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, java.util.concurrent.TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		double wallSeconds = (System.currentTimeMillis() - start) / 1000.0;
+
+		System.out.println(String.format(
+				"Segmented %d of %d files (%d failed) in %.1f s, %d in flight",
+				processed.get(), files.size(), failed.get(), wallSeconds, filesInFlight));
+		if (wallSeconds > 0) {
+			System.out.println(String.format(
+					"Throughput: %.2f files/min, %.2f audio-hours/hour",
+					processed.get() / wallSeconds * 60, audioSeconds / wallSeconds));
+		}
+	}
+
+	private void process(String file) {
+		long start = System.currentTimeMillis();
+		try {
+			AudioFile audioFile = new AudioFile(file);
+			AnalysisSession session = new AnalysisSession();
+			session.setBoundariesOnly(boundariesOnly);
+			session.setAudioFile(audioFile);
+			session.analyse();
+			write(session, audioFile);
+			if (validate && (boundariesOnly || session.getMatrixBits() != 32)) {
+				validate(session, audioFile, file);
+			}
+			session.cleanMemory();
+			double length = audioFile.getLengthIn(TimeUnit.SECONDS);
+			synchronized (this) {
+				audioSeconds += length;
+			}
+			processed.incrementAndGet();
+			long pairs = session.getStructurePairs();
+			System.out.println(String.format("%s\t%.1f s audio\t%.2f s wall\t%.0f%% of %d pairs pruned",
+					file, length, (System.currentTimeMillis() - start) / 1000.0,
+					pairs == 0 ? 0.0 : 100.0 * session.getPrunedStructurePairs() / pairs, pairs));
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			System.err.println(String.format("%s\tfailed: %s", file, e));
+		}
+	}
+
+	/**
+	 * Analyses the file again with a float similarity matrix and prints the
+	 * differences with the segmentation of the session per enabled level.
+	 * Boundaries within one frame of each other are the same. The labels of
+	 * a boundaries-only session all differ.
+	 */
+	private void validate(AnalysisSession session, AudioFile audioFile,
+			String file) throws IOException, UnsupportedAudioFileException {
+		AnalysisSession reference = new AnalysisSession();
+		reference.setMatrixBits(32);
+		reference.setAudioFile(audioFile);
+		reference.analyse();
+		reference.cleanMemory();
+		float tolerance = (session.getSamplesPerFrame() - session
+				.getOverlapping()) / session.getSampleRate();
+		boolean[] enabled = { session.isMacroEnabled(),
+				session.isMesoEnabled(), session.isMicroEnabled() };
+		StringBuilder report = new StringBuilder();
+		for (int level = AASModel.MACRO_LEVEL; level <= AASModel.MICRO_LEVEL; level++) {
+			if (enabled[level]) {
+				SegmentationDifference difference = new SegmentationDifference(
+						reference.getSegmentation(), session.getSegmentation(),
+						level, tolerance);
+				report.append(String.format("\t%s: %s", LEVEL_NAMES[level],
+						difference));
+			}
+		}
+		String analysis = session.isBoundariesOnly() ? "boundaries only"
+				: session.getMatrixBits() + " bits";
+		System.out.println(String.format("%s\t%s against 32 bits%s", file,
+				analysis, report));
+	}
+
+	private void write(AnalysisSession session, AudioFile audioFile) {
+		String directory = outputDirectory == null ? audioFile.transcodedDirectory() : outputDirectory;
+		if (format.equals(FORMAT_CSV)) {
+			SegmentationFileParser.writeToCSVFile(
+					FileUtils.combine(directory, audioFile.originalBasename() + ".csv"),
+					session.getSegmentation());
+		} else {
+			SegmentationFileParser.writeToFile(
+					FileUtils.combine(directory, audioFile.originalBasename() + ".TextGrid"),
+					session.getSegmentation());
+		}
+	}
+}
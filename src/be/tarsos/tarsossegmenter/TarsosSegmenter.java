@@ -7,6 +7,18 @@ public class TarsosSegmenter {
 	public static void main(String[] args){
 		Configuration.checkForConfigurationAndWriteDefaults();
         Configuration.configureDirectories();
-		TarsosSegmenterGui.getInstance();
+		if (args.length > 0) {
+			// files or folders given: segment them without the gui
+			BatchSegmenter batchSegmenter = new BatchSegmenter();
+			try {
+				batchSegmenter.parseArguments(args);
+			} catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+			batchSegmenter.run();
+		} else {
+			TarsosSegmenterGui.getInstance();
+		}
 	}
 }
@@ -8,6 +8,7 @@ import be.tarsos.tarsossegmenter.controller.listeners.AASModelListener;
 import be.tarsos.tarsossegmenter.model.AASModel;
 import be.tarsos.tarsossegmenter.model.player.Player;
 import be.tarsos.tarsossegmenter.model.player.PlayerState;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrix;
 import be.tarsos.tarsossegmenter.util.TimeUnit;
 
 import java.awt.*;
@@ -29,6 +30,11 @@ import javax.swing.JPanel;
 public class MatrixGUI extends JPanel implements MouseListener, AASModelListener {
 
     private final int MAX_PIXEL_VALUE = 255;
+    /**
+     * Larger matrices are sampled down, an image of the full matrix of a long
+     * recording would not fit in memory.
+     */
+    private final int MAX_IMAGE_SIZE = 4096;
     private int size;
     private BufferedImage matrixImage;
     private BufferedImage initialMatrixImage;
@@ -47,39 +53,45 @@ public class MatrixGUI extends JPanel implements MouseListener, AASModelListener
         AASModel.getInstance().addModelListener(this);
     }
 
-    public void constructInitialMatrix(float[][] matrix) {
+    public void constructInitialMatrix(SimilarityMatrix matrix) {
         if (matrix != null) {
-            size = matrix.length;
+            size = matrix.size();
             if (initialMatrixImage != null) {
                 initialMatrixImage.flush();
             }
-            initialMatrixImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            int imageSize = Math.min(size, MAX_IMAGE_SIZE);
+            initialMatrixImage = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
             constructMatrix(initialMatrixImage, matrix);
         }
     }
 
-    public void constructMatrix(float[][] matrix) {
+    public void constructMatrix(SimilarityMatrix matrix) {
         if (matrix != null) {
-            size = matrix.length;
+            size = matrix.size();
             if (matrixImage != null) {
                 matrixImage.flush();
             }
-            matrixImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            int imageSize = Math.min(size, MAX_IMAGE_SIZE);
+            matrixImage = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
             constructMatrix(matrixImage, matrix);
         }
     }
 
-    private void constructMatrix(BufferedImage image, float[][] matrix) {
+    private void constructMatrix(BufferedImage image, SimilarityMatrix matrix) {
         constructingImage = true;
 
         if (scaledMatrixImage != null) {
             scaledMatrixImage.flush();
         }
 
-        float max = determineMax(matrix);
-        for (int i = 0; i < size; i++) {
+        float max = matrix.max();
+        int imageSize = image.getWidth();
+        float[] row = new float[size];
+        for (int i = 0; i < imageSize; i++) {
+            int frame = (int) ((long) i * size / imageSize);
+            matrix.getRow(frame, 0, frame + 1, row, 0);
             for (int j = 0; j <= i; j++) {
-                int brightness = (int) ((matrix[i][j] / max) * MAX_PIXEL_VALUE);
+                int brightness = (int) ((row[(int) ((long) j * size / imageSize)] / max) * MAX_PIXEL_VALUE);
                 Color color = new Color(brightness, brightness, brightness);
                 image.setRGB(i, j, color.getRGB());
                 image.setRGB(j, i, color.getRGB());
@@ -131,18 +143,6 @@ public class MatrixGUI extends JPanel implements MouseListener, AASModelListener
         g.dispose();
     }
 
-    private float determineMax(float[][] matrix) {
-        float max = 0;
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j <= i; j++) {
-                if (matrix[i][j] > max) {
-                    max = matrix[i][j];
-                }
-            }
-        }
-        return max;
-    }
-
     private void scaleImage() {
         if (!constructingImage && (scaledMatrixImage == null || scaledMatrixImage.getHeight() != getHeight()
                 || scaledMatrixImage.getWidth() != getWidth() || needsUpdate)) {
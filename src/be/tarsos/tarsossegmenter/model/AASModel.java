@@ -1,12 +1,6 @@
 package be.tarsos.tarsossegmenter.model;
 
 import be.tarsos.transcoder.ffmpeg.EncoderException;
-import be.tarsos.dsp.AudioDispatcher;
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.AudioProcessor;
-import be.tarsos.dsp.AutoCorrelation;
-import be.tarsos.dsp.ConstantQ;
-import be.tarsos.dsp.mfcc.MFCC;
 import be.tarsos.tarsossegmenter.controller.listeners.AASModelListener;
 import be.tarsos.tarsossegmenter.controller.listeners.AudioFileListener;
 import be.tarsos.tarsossegmenter.gui.BackgroundTask;
@@ -14,8 +8,7 @@ import be.tarsos.tarsossegmenter.gui.ProgressDialog;
 import be.tarsos.tarsossegmenter.gui.TarsosSegmenterGui;
 import be.tarsos.tarsossegmenter.model.player.Player;
 import be.tarsos.tarsossegmenter.model.segmentation.Segmentation;
-import be.tarsos.tarsossegmenter.model.structure.StructureDetection;
-import be.tarsos.tarsossegmenter.util.NoveltyScore;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrix;
 import be.tarsos.tarsossegmenter.util.TimeUnit;
 import be.tarsos.tarsossegmenter.util.configuration.ConfKey;
 import be.tarsos.tarsossegmenter.util.configuration.Configuration;
@@ -24,7 +17,6 @@ import be.tarsos.tarsossegmenter.util.io.FileUtils;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,7 +26,10 @@ import javax.swing.event.EventListenerList;
 
 /**
  * <p>
- * The main graphical user interface. This contains all other GUI's.
+ * The model of the graphical user interface: it holds the
+ * {@link AnalysisSession} of the file that is shown and adds the dialogs and
+ * the listeners around it. The analysis itself is done by the session, without
+ * the gui any amount of sessions can be analysed next to each other.
  * </p>
  * 
  * @author Thomas Stubbe
@@ -52,37 +47,12 @@ public class AASModel {
 	public static final int MACRO_LEVEL = 0;
 	public static final int MESO_LEVEL = 1;
 	public static final int MICRO_LEVEL = 2;
-	private boolean useMFCC;
-	private boolean useAutoCorrelation;
-	private boolean useCQT;
-	private AudioFile audioFile;
-	private int amountOfFrames;
-	private int frameSize; // frameSize
-	private int overlapping;
-	private float sampleRate;
-	private float lowerFilterFreq;
-	private float upperFilterFreq;
 	static int samplesPerPixel;
-	private int mfccCoef;
-	private int melfilters;
-	private int cqtBins;
-	private AudioDispatcher ad;
-	private float[][] mfccs;
-	private float[][] cqtcs;
-	private float[][] autoCorrelationcs;
-	private float[][] similarityMatrix;
-	private float[][] resultMatrix;
-	private float[][] noveltyScores;
 	private EventListenerList modelListenerList = new EventListenerList();
 	private EventListenerList audioFileListenerList = new EventListenerList();
-	private boolean macroEnabled;
-	private boolean mesoEnabled;
-	private boolean microEnabled;
 	private static AASModel instance;
 	private boolean guiEnabled;
-	private boolean onlyStructureDetection;
-	private Segmentation segmentation;
-	private boolean done;
+	private final AnalysisSession session;
 
 	public static AASModel getInstance() {
 		if (instance == null) {
@@ -95,13 +65,11 @@ public class AASModel {
 		Configuration.checkForConfigurationAndWriteDefaults();
         Configuration.configureDirectories();
 		guiEnabled = false;
-		onlyStructureDetection = false;
-		segmentation = new Segmentation();
-		loadConfiguration();
+		session = new AnalysisSession();
 	}
 
 	public boolean isCalculated() {
-		return !this.segmentation.isEmpty();
+		return session.isCalculated();
 	}
 
 	public void setGuiEnabled(boolean value) {
@@ -109,169 +77,46 @@ public class AASModel {
 	}
 
 	public final void loadConfiguration() {
-		boolean oldUseMFCC = useMFCC;
-		boolean oldUseAutoCorrelation = useAutoCorrelation;
-		boolean oldUseCQT = useCQT;
-		int oldFrameSize = frameSize;
-		int oldOverlapping = overlapping;
-		int oldCqtBins = cqtBins;
-		int oldMfccCoef = mfccCoef;
-		int oldMelfilters = melfilters;
-		float oldLowerFilterFreq = lowerFilterFreq;
-		float oldUpperFilterFreq = upperFilterFreq;
-
-		useMFCC = Configuration.getBoolean(ConfKey.enable_mfcc);
-		useAutoCorrelation = Configuration
-				.getBoolean(ConfKey.enable_autocorrelation);
-		useCQT = Configuration.getBoolean(ConfKey.enable_cqt);
-		frameSize = Configuration.getInt(ConfKey.framesize);
-		overlapping = Configuration.getInt(ConfKey.overlapping);
-		cqtBins = Configuration.getInt(ConfKey.cqt_bins);
-		mfccCoef = Configuration.getInt(ConfKey.mfcc_coef);
-		macroEnabled = Configuration.getBoolean(ConfKey.enable_macro);
-		mesoEnabled = Configuration.getBoolean(ConfKey.enable_meso);
-		microEnabled = Configuration.getBoolean(ConfKey.enable_micro);
-		melfilters = Configuration.getInt(ConfKey.mfcc_melfilters);
-		lowerFilterFreq = Configuration.getInt(ConfKey.lowfilterfreq);
-		upperFilterFreq = Configuration.getInt(ConfKey.upperfilterfreq);
-
-		if (onlyStructureDetection == true && oldUseMFCC == useMFCC
-				&& oldUseAutoCorrelation == useAutoCorrelation
-				&& oldUseCQT == useCQT && oldFrameSize == frameSize
-				&& oldOverlapping == overlapping && oldCqtBins == cqtBins
-				&& oldMfccCoef == mfccCoef && oldMelfilters == melfilters
-				&& oldLowerFilterFreq == lowerFilterFreq
-				&& oldUpperFilterFreq == upperFilterFreq) {
-			this.onlyStructureDetection = true;
-		} else {
-			this.onlyStructureDetection = false;
-		}
-
-		if (audioFile != null) {
-			amountOfFrames = audioFile.fileFormat().getFrameLength()
-					/ (frameSize - overlapping);
-			samplesPerPixel = (int) Math.pow(
-					2,
-					(int) Math.floor(Math.log(audioFile.fileFormat()
-							.getFrameLength() / 800) / Math.log(2)));
-		}
+		session.loadConfiguration();
 	}
 
 	public void calculateWithDefaults(AudioFile file, int lowerFilterFreq,
 			int upperFilterFreq) {
-		done = false;
 		this.onCalculationStarted();
-		if (audioFile == null
-				|| !this.audioFile.transcodedPath().equals(
+		if (getAudioFile() == null
+				|| !getAudioFile().transcodedPath().equals(
 						file.transcodedPath().toString())) {
-			this.segmentation.clearAll();
-			this.audioFile = file;
+			session.setAudioFile(file);
 			onAudioFileChange();
 		}
 		if (!isCalculated()) {
-			this.useMFCC = true;
-			this.useAutoCorrelation = false;
-			this.useCQT = false;
-			this.frameSize = 4096;
-			this.overlapping = 1024;
-			this.cqtBins = 0;
-			this.mfccCoef = 40;
-			this.macroEnabled = true;
-			this.mesoEnabled = true;
-			this.microEnabled = true;
-			this.melfilters = 40;
-			this.lowerFilterFreq = lowerFilterFreq;
-			this.upperFilterFreq = upperFilterFreq;
-
-			Configuration.set(ConfKey.enable_mfcc, useMFCC);
-			Configuration.set(ConfKey.enable_autocorrelation,
-					useAutoCorrelation);
-			Configuration.set(ConfKey.enable_cqt, useCQT);
-			Configuration.set(ConfKey.framesize, frameSize);
-			Configuration.set(ConfKey.overlapping, overlapping);
-			Configuration.set(ConfKey.cqt_bins, cqtBins);
-			Configuration.set(ConfKey.mfcc_coef, mfccCoef);
-			Configuration.set(ConfKey.enable_macro, macroEnabled);
-			Configuration.set(ConfKey.enable_meso, mesoEnabled);
-			Configuration.set(ConfKey.enable_micro, microEnabled);
-			Configuration.set(ConfKey.mfcc_melfilters, melfilters);
+			Configuration.set(ConfKey.enable_mfcc, true);
+			Configuration.set(ConfKey.enable_autocorrelation, false);
+			Configuration.set(ConfKey.enable_cqt, false);
+			Configuration.set(ConfKey.framesize, 4096);
+			Configuration.set(ConfKey.overlapping, 1024);
+			Configuration.set(ConfKey.cqt_bins, 0);
+			Configuration.set(ConfKey.mfcc_coef, 40);
+			Configuration.set(ConfKey.enable_macro, true);
+			Configuration.set(ConfKey.enable_meso, true);
+			Configuration.set(ConfKey.enable_micro, true);
+			Configuration.set(ConfKey.mfcc_melfilters, 40);
 			Configuration.set(ConfKey.lowfilterfreq, lowerFilterFreq);
 			Configuration.set(ConfKey.upperfilterfreq, upperFilterFreq);
+			loadConfiguration();
 
-			try {
-				File f = new File(audioFile.transcodedPath());
-				ad = AudioDispatcher.fromFile(f, audioFile.fileFormat()
-						.getFrameLength(), 0);
-				ad.setStepSizeAndOverlap(frameSize, overlapping);
-			} catch (Exception e) {
-				JOptionPane
-						.showMessageDialog(
-								null,
-								"Could not transcode audiofile: make sure it is an audiofile and that you have access/rights to the file",
-								"Error", JOptionPane.ERROR_MESSAGE);
-			}
-			// double amountOfSamples =
-			// audioFile.fileFormat().getFormat().getSampleRate()*ad.durationInSeconds();
-			float durationInFrames = ((float) (ad.durationInFrames() - frameSize) / (float) (frameSize
-					- overlapping + 1)) + 1;
-			this.amountOfFrames = (int) Math.ceil(durationInFrames);
-			final MFCC mfccAD;
-
-			mfccAD = new MFCC(this.frameSize, audioFile.fileFormat()
-					.getFormat().getSampleRate(), this.melfilters,
-					this.mfccCoef, this.lowerFilterFreq, this.upperFilterFreq);
-			ad.addAudioProcessor(mfccAD);
-			this.mfccs = new float[this.amountOfFrames][];
-
-			ad.addAudioProcessor(new AudioProcessor() {
-				private int count = 0;
-
-				@Override
-				public boolean process(AudioEvent audioEvent) {
-					AASModel.getInstance().addFeaturesToFrame(count,
-							AASModel.FEATURE_ORIGIN_MFCC, mfccAD.getMFCC());
-					count++;
-					return true;
-				}
-
-				@Override
-				public void processingFinished() {
-					done = true;
-				}
-			});
-			ad.run();
-			while (!done) {
-				try {
-					Thread.sleep(2000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-			ad.removeAudioProcessor(mfccAD);
-			constructSelfSimilarityMatrix();
-			resultMatrix = new float[similarityMatrix.length][];
-			for (int i = 0; i < similarityMatrix.length; i++) {
-				resultMatrix[i] = new float[similarityMatrix[i].length];
-				System.arraycopy(similarityMatrix[i], 0,
-						resultMatrix[i], 0, similarityMatrix[i].length);
-			}
-			segmentation.clearAll();
-			noveltyScores = NoveltyScore.calculateScore(
-					similarityMatrix,
-					audioFile.getLengthInMilliSeconds());
-			StructureDetection sd = new StructureDetection(audioFile
-					.getLengthInMilliSeconds() / 1000f, resultMatrix,
-					MAX_SCALE_VALUE);
-			sd.preProcessing();
-			sd.run();
-			sd = null;
-			// System.gc();
+			analyse();
 		}
 		this.onCalculationEnd();
 	}
 
 	public void calculate() throws java.lang.OutOfMemoryError {
-		if (frameSize <= 8192 && audioFile.getLengthIn(TimeUnit.MINUTES) > 16) {
+		// without a gui there is no one to ask: use the configured framesize,
+		// a mapped matrix does not need the memory the warnings are about
+		boolean warn = guiEnabled && !session.isMappedMatrix();
+		int frameSize = session.getSamplesPerFrame();
+		AudioFile audioFile = session.getAudioFile();
+		if (warn && frameSize <= 8192 && audioFile.getLengthIn(TimeUnit.MINUTES) > 16) {
 			int result = JOptionPane
 					.showConfirmDialog(
 							TarsosSegmenterGui.getInstance(),
@@ -286,7 +131,7 @@ public class AASModel {
 			} else {
 				return;
 			}
-		} else if (frameSize <= 4096
+		} else if (warn && frameSize <= 4096
 				&& audioFile.getLengthIn(TimeUnit.MINUTES) > 12) {
 			int result = JOptionPane
 					.showConfirmDialog(
@@ -302,7 +147,7 @@ public class AASModel {
 			} else {
 				return;
 			}
-		} else if (frameSize <= 2048
+		} else if (warn && frameSize <= 2048
 				&& audioFile.getLengthIn(TimeUnit.SECONDS) > 360) {
 			int result = JOptionPane
 					.showConfirmDialog(
@@ -320,153 +165,54 @@ public class AASModel {
 			}
 		}
 
-		if (!onlyStructureDetection) {
-			try {
-				File file = new File(audioFile.transcodedPath());
-				ad = AudioDispatcher.fromFile(file, audioFile.fileFormat()
-						.getFrameLength(), 0);
-				ad.setStepSizeAndOverlap(frameSize, overlapping);
-			} catch (Exception e) {
+		analyse();
+	}
+
+	/**
+	 * Analyses the file of the session, with a message to the user if the file
+	 * can not be read.
+	 */
+	private void analyse() {
+		try {
+			session.analyse();
+		} catch (Exception e) {
+			if (e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			}
+			if (guiEnabled) {
 				JOptionPane
 						.showMessageDialog(
 								TarsosSegmenterGui.getInstance(),
 								"Could not transcode audiofile: make sure it is an audiofile and that you have access/rights to the file",
 								"Error", JOptionPane.ERROR_MESSAGE);
 			}
-			float durationInFrames = ((float) ad.durationInFrames() / (float) (frameSize
-					- overlapping + 1));
-			this.amountOfFrames = (int) Math.ceil(durationInFrames);
-			final MFCC mfccAD;
-			final ConstantQ cqtAD;
-			final AutoCorrelation acAD;
-
-			if (useMFCC) {
-				mfccAD = new MFCC(this.frameSize, this.sampleRate,
-						this.melfilters, this.mfccCoef, this.lowerFilterFreq,
-						this.upperFilterFreq);
-				ad.addAudioProcessor(mfccAD);
-				this.mfccs = new float[this.amountOfFrames][];
-			} else {
-				mfccAD = null;
-			}
-			if (useAutoCorrelation) {
-				acAD = new AutoCorrelation();
-				ad.addAudioProcessor(acAD);
-				this.autoCorrelationcs = new float[this.amountOfFrames][];
-			} else {
-				acAD = null;
-			}
-			if (useCQT) {
-				cqtAD = new ConstantQ(sampleRate, lowerFilterFreq,
-						upperFilterFreq, cqtBins);
-				ad.addAudioProcessor(cqtAD);
-				this.cqtcs = new float[this.amountOfFrames][];
-			} else {
-				cqtAD = null;
-			}
-
-			ad.addAudioProcessor(new AudioProcessor() {
-				private int count = 0;
-
-				@Override
-				public boolean process(AudioEvent audioEvent) {
-
-					if (useMFCC) {
-						AASModel.getInstance().addFeaturesToFrame(count,
-								AASModel.FEATURE_ORIGIN_MFCC, mfccAD.getMFCC());
-					}
-					if (useAutoCorrelation) {
-						AASModel.getInstance().addFeaturesToFrame(count,
-								AASModel.FEATURE_ORIGIN_AUTOCORRELATIE,
-								acAD.getValues());
-					}
-					if (useCQT) {
-						AASModel.getInstance().addFeaturesToFrame(count,
-								AASModel.FEATURE_ORIGIN_CQT,
-								cqtAD.getMagnitudes());
-					}
-					count++;
-					return true;
-				}
-
-				@Override
-				public void processingFinished() {
-				}
-			});
-			ad.run();
-
-			if (useMFCC) {
-				// mfccs = mfccAD.getMFCC();
-				ad.removeAudioProcessor(mfccAD);
-			}
-			if (useAutoCorrelation) {
-				// autoCorrelationcs = acAD.getValues();
-				ad.removeAudioProcessor(acAD);
-			}
-			if (useCQT) {
-				// cqtcs = cqtAD.getValues();
-				ad.removeAudioProcessor(cqtAD);
-			}
-			if (guiEnabled) {
-				constructSelfSimilarityMatrix();
-			}
-
-			// mfccs = null;
-			// autoCorrelationcs = null;
-			// cqtcs = null;
-
-			System.gc();
-
-		}
-		resultMatrix = new float[similarityMatrix.length][];
-		for (int i = 0; i < similarityMatrix.length; i++) {
-			resultMatrix[i] = new float[similarityMatrix[i].length];
-			System.arraycopy(similarityMatrix[i], 0, resultMatrix[i], 0,
-					similarityMatrix[i].length);
-		}
-		if (this.macroEnabled) {
-			segmentation.clearAll();
-		} else if (this.mesoEnabled) {
-			segmentation.clearMesoAndMicro();
-		} else if (this.microEnabled) {
-			segmentation.clearMicro();
-		}
-		noveltyScores = NoveltyScore.calculateScore(similarityMatrix,
-				audioFile.getLengthInMilliSeconds());
-		StructureDetection sd = new StructureDetection(
-				audioFile.getLengthInMilliSeconds() / 1000f, resultMatrix,
-				MAX_SCALE_VALUE);
-		sd.preProcessing();
-
-		if (macroEnabled || mesoEnabled || microEnabled) {
-			sd.run();
+			throw new RuntimeException("Could not read the transcoded audiofile "
+					+ getAudioFile().transcodedPath(), e);
 		}
-		sd = null;
-		System.gc();
 	}
 
 	public AudioFile getAudioFile() {
-		return audioFile;
+		return session.getAudioFile();
 	}
 
-	public float[][] getSimilarityMatrix() {
-		return resultMatrix;
+	public SimilarityMatrix getSimilarityMatrix() {
+		return session.getSimilarityMatrix();
 	}
 
-	public float[][] getInitialSimilarityMatrix() {
-		return similarityMatrix;
+	public SimilarityMatrix getInitialSimilarityMatrix() {
+		return session.getInitialSimilarityMatrix();
 	}
 
 	public int getOverlapping() {
-		return overlapping / 1000;
+		return session.getOverlapping() / 1000;
 	}
 
 	public float getSampleRate() {
-		return sampleRate;
+		return session.getSampleRate();
 	}
 
 	public int getSamplesPerFrame() {
-		return frameSize;
+		return session.getSamplesPerFrame();
 	}
 
 	public void addModelListener(AASModelListener listener) {
@@ -479,7 +225,7 @@ public class AASModel {
 	}
 
 	private void onCalculationStarted() {
-		segmentation.clearAll();
+		session.getSegmentation().clearAll();
 		Object[] listeners = modelListenerList.getListenerList();
 		// Each listener occupies two elements - the first is the listener class
 		// and the second is the listener instance
@@ -491,7 +237,6 @@ public class AASModel {
 	}
 
 	private void onCalculationEnd() {
-		onlyStructureDetection = true;
 		// System.out.print("END");
 		Object[] listeners = modelListenerList.getListenerList();
 		// Each listener occupies two elements - the first is the listener class
@@ -504,136 +249,11 @@ public class AASModel {
 	}
 
 	public void constructSelfSimilarityMatrix() {
-		float maxMFCC = Float.MIN_VALUE;
-		float minMFCC = Float.MAX_VALUE;
-		float maxAC = Float.MIN_VALUE;
-		float minAC = Float.MAX_VALUE;
-		float maxCQT = Float.MIN_VALUE;
-		float minCQT = Float.MAX_VALUE;
-
-		int size = amountOfFrames;
-
-		float[][] mfcSimilarityMatrix = null;
-		float[][] acSimilarityMatrix = null;
-		float[][] cqtSimilarityMatrix = null;
-		similarityMatrix = null;
-
-		if (useMFCC) {
-			mfcSimilarityMatrix = new float[size][];
-			for (int i = 0; i < size; i++) {
-				mfcSimilarityMatrix[i] = new float[i + 1];
-			}
-		}
-		if (useAutoCorrelation) {
-			acSimilarityMatrix = new float[size][];
-			for (int i = 0; i < size; i++) {
-				acSimilarityMatrix[i] = new float[i + 1];
-			}
-		}
-		if (useCQT) {
-			cqtSimilarityMatrix = new float[size][];
-			for (int i = 0; i < size; i++) {
-				cqtSimilarityMatrix[i] = new float[i + 1];
-			}
-		}
-
-		similarityMatrix = new float[size][];
-		for (int i = 0; i < size; i++) {
-			similarityMatrix[i] = new float[i + 1];
-		}
-
-		// Average bij meerdere COEF bepalen
-		// Min en Max voor de range bepalen
-		// @TODO
-		// 3 dubbele for kan korter hier of volgende keer?
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j <= i; j++) {
-				if (useMFCC) {
-					float average = 0;
-					for (int k = 1; k < mfccCoef; k++) { // @TODO: beginnen van
-															// 0, 1 of 2 ?
-						// euclidean distance
-						average += (mfccs[i][k] - mfccs[j][k])
-								* (mfccs[i][k] - mfccs[j][k]);
-						// average += Math.abs(mfccs[i][k] - mfccs[j][k]);// *
-						// (mfccs[i][k] - mfccs[j][k]);
-					}
-					average = (float) Math.sqrt(average);
-					mfcSimilarityMatrix[i][j] = average;
-					if (average > maxMFCC) {
-						maxMFCC = average;
-					}
-					if (average < minMFCC) {
-						minMFCC = average;
-					}
-				}
-				if (useCQT) {
-					float average = 0;
-					for (int b = 1; b < cqtcs[i].length; b++) {
-						// euclidean distance
-						average += (cqtcs[i][b] - cqtcs[j][b])
-								* (cqtcs[i][b] - cqtcs[j][b]);
-					}
-					average = (float) Math.sqrt(average);
-					cqtSimilarityMatrix[i][j] = average;
-					if (average > maxCQT) {
-						maxCQT = average;
-					}
-					if (average < minCQT) {
-						minCQT = average;
-					}
-
-				}
-				if (useAutoCorrelation) {
-					float temp = (float) Math.sqrt(Math
-							.abs(autoCorrelationcs[i][0]
-									- autoCorrelationcs[j][0]));
-					// float temp = Math.abs(autoCorrelationcs[i] -
-					// autoCorrelationcs[j]);
-					acSimilarityMatrix[i][j] = temp;
-					if (temp > maxAC) {
-						maxAC = temp;
-					}
-					if (minAC > temp) {
-						minAC = temp;
-					}
-				}
-			}
-		}
-
-		// De verhouding van de coeficienten bepalen
-		float factor = 0;
-		if (useMFCC) {
-			factor++;
-		}
-		if (useAutoCorrelation) {
-			factor++;
-		}
-		if (useCQT) {
-			factor++;
-		}
-
-		float coeficient = (float) MAX_SCALE_VALUE / factor;
-
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j <= i; j++) {
-				similarityMatrix[i][j] = MAX_SCALE_VALUE;
-				if (useMFCC) {
-					similarityMatrix[i][j] -= (float) (((mfcSimilarityMatrix[i][j] - minMFCC) / (maxMFCC - minMFCC)) * coeficient);
-				}
-				if (useAutoCorrelation) {
-					similarityMatrix[i][j] -= (float) (((acSimilarityMatrix[i][j] - minAC) / (maxAC - minAC)) * coeficient);
-				}
-				if (useCQT) {
-					similarityMatrix[i][j] -= (float) (((cqtSimilarityMatrix[i][j] - minCQT) / (maxCQT - minCQT)) * coeficient);
-				}
-
-			}
-		}
+		session.constructSelfSimilarityMatrix();
 	}
 
 	public float[][] getNoveltyScore() {
-		return noveltyScores;
+		return session.getNoveltyScore();
 	}
 
 	public void setNewAudioFile(final File newFile) {
@@ -678,7 +298,7 @@ public class AASModel {
 			dialog.setVisible(true);
 		} else {
 			try {
-				this.audioFile = new AudioFile(newFile.getAbsolutePath());
+				session.setAudioFile(new AudioFile(newFile.getAbsolutePath()));
 				onAudioFileChange();
 			} catch (EncoderException e) {
 				e.printStackTrace();
@@ -687,7 +307,7 @@ public class AASModel {
 	}
 
 	public Segmentation getSegmentation() {
-		return segmentation;
+		return session.getSegmentation();
 	}
 
 	private class SegmentationTask extends BackgroundTask {
@@ -768,27 +388,23 @@ public class AASModel {
 	}
 
 	private void setAudioFile(final AudioFile newAudioFile) {
-		this.audioFile = newAudioFile;
+		session.setAudioFile(newAudioFile);
 	}
 
 	public boolean isMacroEnabled() {
-		return macroEnabled;
+		return session.isMacroEnabled();
 	}
 
 	public boolean isMesoEnabled() {
-		return mesoEnabled;
+		return session.isMesoEnabled();
 	}
 
 	public boolean isMicroEnabled() {
-		return microEnabled;
+		return session.isMicroEnabled();
 	}
 
 	public void cleanMemory() {
-		this.autoCorrelationcs = null;
-		this.cqtcs = null;
-		this.mfccs = null;
-		this.noveltyScores = null;
-		this.similarityMatrix = null;
+		session.cleanMemory();
 
 		System.gc();
 	}
@@ -813,16 +429,11 @@ public class AASModel {
 
 	private void onAudioFileChange() {
 		// audioFileChanged();
-		this.onlyStructureDetection = false;
-		this.similarityMatrix = null;
-		amountOfFrames = audioFile.fileFormat().getFrameLength()
-				/ (frameSize - overlapping);
+		AudioFile audioFile = session.getAudioFile();
 		samplesPerPixel = (int) Math.pow(
 				2,
 				(int) Math.floor(Math.log(audioFile.fileFormat()
 						.getFrameLength() / 800) / Math.log(2)));
-		sampleRate = audioFile.fileFormat().getFormat().getSampleRate();
-		segmentation.clearAll();
 
 		File file = new File(audioFile.transcodedPath());
 		if (guiEnabled) {
@@ -851,52 +462,7 @@ public class AASModel {
 		return guiEnabled;
 	}
 
-	private void addFeaturesToFrame(int frameNr, int featureOrigin,
-			float[] features) {
-		if (frameNr < 0 || frameNr >= this.amountOfFrames) {
-			throw new RuntimeException(
-					"Framenumber must be >= 0 and < the amount of frames");
-		}
-		switch (featureOrigin) {
-		case FEATURE_ORIGIN_MFCC:
-			this.mfccs[frameNr] = features;
-			break;
-		case FEATURE_ORIGIN_CQT:
-			this.cqtcs[frameNr] = features;
-			break;
-		case FEATURE_ORIGIN_AUTOCORRELATIE:
-			this.autoCorrelationcs[frameNr] = features;
-			break;
-		default:
-			throw new RuntimeException(
-					"Please choose a feature origin! (constant in the AASModel class)");
-		}
-	}
-
 	public float[][] getFeatures(int featureOrigin) {
-		switch (featureOrigin) {
-		case FEATURE_ORIGIN_MFCC:
-			if (mfccs != null && mfccs.length > 0)
-				return this.mfccs;
-			else
-				throw new RuntimeException(
-						"No feautures of that origin available! Are you sure they were calculated?");
-		case FEATURE_ORIGIN_CQT:
-			if (cqtcs != null && cqtcs.length > 0)
-				return this.cqtcs;
-			else
-				throw new RuntimeException(
-						"No feautures of that origin available! Are you sure they were calculated?");
-		case FEATURE_ORIGIN_AUTOCORRELATIE:
-			if (autoCorrelationcs != null && autoCorrelationcs.length > 0)
-				return this.autoCorrelationcs;
-			else
-				throw new RuntimeException(
-						"No feautures of that origin available! Are you sure they were calculated?");
-		default:
-			throw new RuntimeException(
-					"Please choose a feature origin! (constants in the AASModel class)");
-		}
-
+		return session.getFeatures(featureOrigin);
 	}
 }
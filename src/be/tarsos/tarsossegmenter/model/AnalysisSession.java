@@ -0,0 +1,582 @@
+package be.tarsos.tarsossegmenter.model;
+
+import be.tarsos.tarsossegmenter.model.features.FeatureExtractor;
+import be.tarsos.tarsossegmenter.model.features.SpectralFrontEnd;
+import be.tarsos.tarsossegmenter.model.segmentation.Segmentation;
+import be.tarsos.tarsossegmenter.model.similarity.LagSimilarityMatrix;
+import be.tarsos.tarsossegmenter.model.similarity.QuantisedSimilarityMatrix;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrix;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrixBuilder;
+import be.tarsos.tarsossegmenter.model.structure.StructureDetection;
+import be.tarsos.tarsossegmenter.util.NoveltyScore;
+import be.tarsos.tarsossegmenter.util.StreamingNovelty;
+import be.tarsos.tarsossegmenter.util.configuration.ConfKey;
+import be.tarsos.tarsossegmenter.util.configuration.Configuration;
+import be.tarsos.tarsossegmenter.util.io.FeatureCache;
+import be.tarsos.tarsossegmenter.util.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * <p>
+ * The analysis of one audio file: the extraction parameters, the features, the
+ * similarity matrices, the novelty scores and the segmentation. Sessions share
+ * no state, every step of the analysis gets what it needs from its session, so
+ * several files can be analysed at the same time, each in a session of its
+ * own.
+ * </p>
+ * <p>
+ * The parameters are a snapshot of the configuration, taken when the session
+ * is created and by {@link #loadConfiguration()}. A session shows no dialogs:
+ * the graphical user interface works through the {@link AASModel}, which holds
+ * the session of the file that is shown.
+ * </p>
+ */
+public class AnalysisSession {
+
+	private static final String[] FEATURE_NAMES = { "mfcc", "cqt",
+			"autocorrelation" };
+
+	private boolean useMFCC;
+	private boolean useAutoCorrelation;
+	private boolean useCQT;
+	private boolean useMappedMatrix;
+	private boolean useLagLayout;
+	private int matrixBits;
+	private boolean useFeatureCache;
+	private boolean useFusedFrontEnd;
+	private AudioFile audioFile;
+	private int amountOfFrames;
+	private int frameSize;
+	private int overlapping;
+	private float sampleRate;
+	private float lowerFilterFreq;
+	private float upperFilterFreq;
+	private int mfccCoef;
+	private int melfilters;
+	private int cqtBins;
+	private float[][] mfccs;
+	private float[][] cqtcs;
+	private float[][] autoCorrelationcs;
+	private SimilarityMatrix similarityMatrix;
+	private SimilarityMatrix resultMatrix;
+	private float[][] noveltyScores;
+	private long structurePairs;
+	private long prunedStructurePairs;
+	private boolean macroEnabled;
+	private boolean mesoEnabled;
+	private boolean microEnabled;
+	private boolean onlyStructureDetection;
+	private boolean boundariesOnly;
+	private final Segmentation segmentation;
+
+	public AnalysisSession() {
+		this(new Segmentation());
+	}
+
+	/**
+	 * @param segmentation
+	 *            the segmentation the results are written to.
+	 */
+	public AnalysisSession(Segmentation segmentation) {
+		this.segmentation = segmentation;
+		onlyStructureDetection = false;
+		loadConfiguration();
+	}
+
+	/**
+	 * Takes a new snapshot of the configuration. When no parameter of the
+	 * features changed, the next analysis reuses the features and the
+	 * similarity matrix and only detects the structure again.
+	 */
+	public final void loadConfiguration() {
+		boolean oldUseMFCC = useMFCC;
+		boolean oldUseAutoCorrelation = useAutoCorrelation;
+		boolean oldUseCQT = useCQT;
+		int oldFrameSize = frameSize;
+		int oldOverlapping = overlapping;
+		int oldCqtBins = cqtBins;
+		int oldMfccCoef = mfccCoef;
+		int oldMelfilters = melfilters;
+		float oldLowerFilterFreq = lowerFilterFreq;
+		float oldUpperFilterFreq = upperFilterFreq;
+		int oldMatrixBits = matrixBits;
+
+		useMFCC = Configuration.getBoolean(ConfKey.enable_mfcc);
+		useAutoCorrelation = Configuration
+				.getBoolean(ConfKey.enable_autocorrelation);
+		useCQT = Configuration.getBoolean(ConfKey.enable_cqt);
+		useMappedMatrix = Configuration.getBoolean(ConfKey.enable_mapped_matrix);
+		useLagLayout = Configuration.getBoolean(ConfKey.enable_lag_layout);
+		matrixBits = Configuration.getInt(ConfKey.matrix_bits);
+		useFeatureCache = Configuration.getBoolean(ConfKey.enable_feature_cache);
+		useFusedFrontEnd = Configuration
+				.getBoolean(ConfKey.enable_fused_frontend);
+		frameSize = Configuration.getInt(ConfKey.framesize);
+		overlapping = Configuration.getInt(ConfKey.overlapping);
+		cqtBins = Configuration.getInt(ConfKey.cqt_bins);
+		mfccCoef = Configuration.getInt(ConfKey.mfcc_coef);
+		macroEnabled = Configuration.getBoolean(ConfKey.enable_macro);
+		mesoEnabled = Configuration.getBoolean(ConfKey.enable_meso);
+		microEnabled = Configuration.getBoolean(ConfKey.enable_micro);
+		melfilters = Configuration.getInt(ConfKey.mfcc_melfilters);
+		lowerFilterFreq = Configuration.getInt(ConfKey.lowfilterfreq);
+		upperFilterFreq = Configuration.getInt(ConfKey.upperfilterfreq);
+
+		if (onlyStructureDetection == true && oldUseMFCC == useMFCC
+				&& oldUseAutoCorrelation == useAutoCorrelation
+				&& oldUseCQT == useCQT && oldFrameSize == frameSize
+				&& oldOverlapping == overlapping && oldCqtBins == cqtBins
+				&& oldMfccCoef == mfccCoef && oldMelfilters == melfilters
+				&& oldLowerFilterFreq == lowerFilterFreq
+				&& oldUpperFilterFreq == upperFilterFreq
+				&& oldMatrixBits == matrixBits) {
+			this.onlyStructureDetection = true;
+		} else {
+			this.onlyStructureDetection = false;
+		}
+
+		if (audioFile != null) {
+			amountOfFrames = audioFile.fileFormat().getFrameLength()
+					/ (frameSize - overlapping);
+		}
+	}
+
+	/**
+	 * Starts over with another audio file: the features, the matrices and the
+	 * segmentation of the previous file are dropped.
+	 *
+	 * @param newAudioFile
+	 *            the transcoded audio file to analyse.
+	 */
+	public void setAudioFile(AudioFile newAudioFile) {
+		this.audioFile = newAudioFile;
+		this.onlyStructureDetection = false;
+		this.similarityMatrix = null;
+		this.resultMatrix = null;
+		this.noveltyScores = null;
+		this.mfccs = null;
+		this.cqtcs = null;
+		this.autoCorrelationcs = null;
+		if (audioFile != null) {
+			amountOfFrames = audioFile.fileFormat().getFrameLength()
+					/ (frameSize - overlapping);
+			sampleRate = audioFile.fileFormat().getFormat().getSampleRate();
+		}
+		segmentation.clearAll();
+	}
+
+	/**
+	 * Analyses the audio file: extracts the features (or loads them from the
+	 * cache), constructs the self-similarity matrix, calculates the novelty
+	 * scores and detects the structure on the enabled levels.
+	 *
+	 * @throws IOException
+	 *             if the transcoded audio file can not be read.
+	 * @throws UnsupportedAudioFileException
+	 *             if the transcoded file is not an audio file.
+	 */
+	public void analyse() throws IOException, UnsupportedAudioFileException {
+		if (boundariesOnly) {
+			detectBoundaries();
+			return;
+		}
+		if (!onlyStructureDetection || similarityMatrix == null) {
+			if (!loadCachedFeatures()) {
+				extractFeatures();
+				storeCachedFeatures();
+			}
+			constructSelfSimilarityMatrix();
+			System.gc();
+		}
+		// the preprocessing and the structure detection follow the diagonals,
+		// the novelty score reads the original matrix
+		if (useLagLayout && !useMappedMatrix) {
+			resultMatrix = LagSimilarityMatrix.copyOf(similarityMatrix);
+		} else if (similarityMatrix instanceof QuantisedSimilarityMatrix) {
+			// the preprocessing leaves the range of the quantised matrix
+			resultMatrix = ((QuantisedSimilarityMatrix) similarityMatrix)
+					.toPacked();
+		} else {
+			resultMatrix = similarityMatrix.copy();
+		}
+		clearSegmentation();
+		NoveltyScore noveltyScore = new NoveltyScore(segmentation, frameSize,
+				macroEnabled, mesoEnabled, microEnabled);
+		noveltyScores = noveltyScore.calculateScore(similarityMatrix,
+				audioFile.getLengthInMilliSeconds());
+		StructureDetection sd = new StructureDetection(segmentation,
+				audioFile.getLengthInMilliSeconds() / 1000f, resultMatrix,
+				AASModel.MAX_SCALE_VALUE, frameSize, sampleRate);
+		sd.preProcessing();
+		// a binary matrix replaces the preprocessed copy
+		resultMatrix = sd.getSimilarityMatrix();
+
+		if (macroEnabled || mesoEnabled || microEnabled) {
+			sd.run();
+		}
+		structurePairs = sd.getAmountOfPairs();
+		prunedStructurePairs = sd.getAmountOfPrunedPairs();
+		sd = null;
+		onlyStructureDetection = true;
+		System.gc();
+	}
+
+	/**
+	 * Detects the segment boundaries from a streaming novelty score: the
+	 * frames are fed one after the other, no similarity matrix is built and
+	 * the structure is not detected, so the segments get no labels.
+	 */
+	private void detectBoundaries() throws IOException,
+			UnsupportedAudioFileException {
+		if (!onlyStructureDetection || !hasFeatures()) {
+			// a matrix of other parameters no longer belongs to the features
+			similarityMatrix = null;
+			resultMatrix = null;
+			if (!loadCachedFeatures()) {
+				extractFeatures();
+				storeCachedFeatures();
+			}
+		}
+		clearSegmentation();
+		StreamingNovelty novelty = new StreamingNovelty(frameSize,
+				macroEnabled, mesoEnabled, microEnabled,
+				AASModel.MAX_SCALE_VALUE);
+		if (useMFCC) {
+			novelty.enableMFCC(mfccCoef);
+		}
+		if (useCQT) {
+			novelty.enableCQT();
+		}
+		if (useAutoCorrelation) {
+			novelty.enableAutoCorrelation();
+		}
+		for (int frameNr = 0; frameNr < amountOfFrames; frameNr++) {
+			novelty.addFrame(useMFCC ? mfccs[frameNr] : null,
+					useCQT ? cqtcs[frameNr] : null,
+					useAutoCorrelation ? autoCorrelationcs[frameNr] : null);
+		}
+		novelty.finish();
+		NoveltyScore noveltyScore = new NoveltyScore(segmentation, frameSize,
+				macroEnabled, mesoEnabled, microEnabled);
+		noveltyScores = noveltyScore.calculateScore(novelty,
+				audioFile.getLengthInMilliSeconds());
+		segmentation.addSegmentsBetweenPoints();
+		structurePairs = 0;
+		prunedStructurePairs = 0;
+		onlyStructureDetection = true;
+	}
+
+	/**
+	 * @return true if every enabled feature is in memory.
+	 */
+	private boolean hasFeatures() {
+		return (!useMFCC || mfccs != null) && (!useCQT || cqtcs != null)
+				&& (!useAutoCorrelation || autoCorrelationcs != null);
+	}
+
+	/**
+	 * Clears the segmentation of the enabled levels.
+	 */
+	private void clearSegmentation() {
+		if (this.macroEnabled) {
+			segmentation.clearAll();
+		} else if (this.mesoEnabled) {
+			segmentation.clearMesoAndMicro();
+		} else if (this.microEnabled) {
+			segmentation.clearMicro();
+		}
+	}
+
+	private void extractFeatures() throws IOException,
+			UnsupportedAudioFileException {
+		float durationInFrames = ((float) audioFile.fileFormat()
+				.getFrameLength() / (float) (frameSize - overlapping + 1));
+		this.amountOfFrames = (int) Math.ceil(durationInFrames);
+
+		FeatureExtractor extractor = new FeatureExtractor(new File(
+				audioFile.transcodedPath()), frameSize, overlapping);
+		if (useMFCC) {
+			extractor.enableMFCC(sampleRate, melfilters, mfccCoef,
+					lowerFilterFreq, upperFilterFreq);
+		}
+		if (useAutoCorrelation) {
+			extractor.enableAutoCorrelation();
+		}
+		if (useCQT) {
+			extractor.enableCQT(sampleRate, cqtBins, lowerFilterFreq,
+					upperFilterFreq);
+		}
+		extractor.setFusedFrontEnd(isFusedFrontEnd());
+		extractor.extract(amountOfFrames);
+		this.mfccs = extractor.getMFCCs();
+		this.autoCorrelationcs = extractor.getAutoCorrelations();
+		this.cqtcs = extractor.getCQTs();
+	}
+
+	/**
+	 * @return true if the features are computed from one shared spectrum: the
+	 *         fused front-end pays off when more than one feature is enabled.
+	 */
+	private boolean isFusedFrontEnd() {
+		int features = (useMFCC ? 1 : 0) + (useCQT ? 1 : 0)
+				+ (useAutoCorrelation ? 1 : 0);
+		return useFusedFrontEnd && features > 1
+				&& SpectralFrontEnd.supports(frameSize);
+	}
+
+	private String featureCacheFile(int featureOrigin) {
+		return FileUtils.combine(audioFile.transcodedDirectory(),
+				FEATURE_NAMES[featureOrigin] + ".features");
+	}
+
+	/**
+	 * @return a description of every parameter the features of the given
+	 *         origin depend on.
+	 */
+	private String featureCacheKey(int featureOrigin) {
+		String key = "framesize=" + frameSize + ";overlapping=" + overlapping
+				+ ";samplerate=" + sampleRate + ";frontend="
+				+ (isFusedFrontEnd() ? "fused" : "tarsosdsp");
+		if (featureOrigin == AASModel.FEATURE_ORIGIN_MFCC) {
+			key += ";mfcc_coef=" + mfccCoef + ";mfcc_melfilters=" + melfilters
+					+ ";lowfilterfreq=" + lowerFilterFreq + ";upperfilterfreq="
+					+ upperFilterFreq;
+		} else if (featureOrigin == AASModel.FEATURE_ORIGIN_CQT) {
+			key += ";cqt_bins=" + cqtBins + ";lowfilterfreq=" + lowerFilterFreq
+					+ ";upperfilterfreq=" + upperFilterFreq;
+		}
+		return key;
+	}
+
+	/**
+	 * Loads the enabled features from the cache next to the transcoded audio.
+	 *
+	 * @return true if every enabled feature was cached with the current
+	 *         parameters.
+	 */
+	private boolean loadCachedFeatures() {
+		if (!useFeatureCache) {
+			return false;
+		}
+		float[][] cachedMfccs = null;
+		float[][] cachedCqtcs = null;
+		float[][] cachedAutoCorrelationcs = null;
+		int frames = -1;
+		if (useMFCC) {
+			cachedMfccs = FeatureCache.read(
+					featureCacheFile(AASModel.FEATURE_ORIGIN_MFCC),
+					featureCacheKey(AASModel.FEATURE_ORIGIN_MFCC));
+			if (cachedMfccs == null) {
+				return false;
+			}
+			frames = cachedMfccs.length;
+		}
+		if (useCQT) {
+			cachedCqtcs = FeatureCache.read(
+					featureCacheFile(AASModel.FEATURE_ORIGIN_CQT),
+					featureCacheKey(AASModel.FEATURE_ORIGIN_CQT));
+			if (cachedCqtcs == null
+					|| (frames >= 0 && cachedCqtcs.length != frames)) {
+				return false;
+			}
+			frames = cachedCqtcs.length;
+		}
+		if (useAutoCorrelation) {
+			cachedAutoCorrelationcs = FeatureCache.read(
+					featureCacheFile(AASModel.FEATURE_ORIGIN_AUTOCORRELATIE),
+					featureCacheKey(AASModel.FEATURE_ORIGIN_AUTOCORRELATIE));
+			if (cachedAutoCorrelationcs == null
+					|| (frames >= 0 && cachedAutoCorrelationcs.length != frames)) {
+				return false;
+			}
+			frames = cachedAutoCorrelationcs.length;
+		}
+		if (frames < 0) {
+			return false;
+		}
+		this.amountOfFrames = frames;
+		this.mfccs = cachedMfccs;
+		this.cqtcs = cachedCqtcs;
+		this.autoCorrelationcs = cachedAutoCorrelationcs;
+		return true;
+	}
+
+	private void storeCachedFeatures() {
+		if (!useFeatureCache) {
+			return;
+		}
+		if (useMFCC) {
+			FeatureCache.write(featureCacheFile(AASModel.FEATURE_ORIGIN_MFCC),
+					featureCacheKey(AASModel.FEATURE_ORIGIN_MFCC), mfccs);
+		}
+		if (useCQT) {
+			FeatureCache.write(featureCacheFile(AASModel.FEATURE_ORIGIN_CQT),
+					featureCacheKey(AASModel.FEATURE_ORIGIN_CQT), cqtcs);
+		}
+		if (useAutoCorrelation) {
+			FeatureCache.write(
+					featureCacheFile(AASModel.FEATURE_ORIGIN_AUTOCORRELATIE),
+					featureCacheKey(AASModel.FEATURE_ORIGIN_AUTOCORRELATIE),
+					autoCorrelationcs);
+		}
+	}
+
+	public void constructSelfSimilarityMatrix() {
+		similarityMatrix = null;
+		SimilarityMatrixBuilder builder = new SimilarityMatrixBuilder(
+				amountOfFrames, useMFCC ? mfccs : null, mfccCoef,
+				useCQT ? cqtcs : null, useAutoCorrelation ? autoCorrelationcs
+						: null, useMappedMatrix ? audioFile.transcodedDirectory()
+						: null, matrixBits);
+		similarityMatrix = builder.build(AASModel.MAX_SCALE_VALUE);
+	}
+
+	public boolean isCalculated() {
+		return !this.segmentation.isEmpty();
+	}
+
+	public AudioFile getAudioFile() {
+		return audioFile;
+	}
+
+	public Segmentation getSegmentation() {
+		return segmentation;
+	}
+
+	public SimilarityMatrix getSimilarityMatrix() {
+		return resultMatrix;
+	}
+
+	public SimilarityMatrix getInitialSimilarityMatrix() {
+		return similarityMatrix;
+	}
+
+	public float[][] getNoveltyScore() {
+		return noveltyScores;
+	}
+
+	/**
+	 * @return the amount of pairs of segments the last structure detection
+	 *         compared.
+	 */
+	public long getStructurePairs() {
+		return structurePairs;
+	}
+
+	/**
+	 * @return the amount of compared pairs of which the last structure
+	 *         detection skipped the match, because it could not be high
+	 *         enough.
+	 */
+	public long getPrunedStructurePairs() {
+		return prunedStructurePairs;
+	}
+
+	public int getOverlapping() {
+		return overlapping;
+	}
+
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getSamplesPerFrame() {
+		return frameSize;
+	}
+
+	public boolean isMappedMatrix() {
+		return useMappedMatrix;
+	}
+
+	/**
+	 * @return the bits per cell of the similarity matrix: 32, 16 or 8.
+	 */
+	public int getMatrixBits() {
+		return matrixBits;
+	}
+
+	/**
+	 * Overrides the configured bits per cell of the similarity matrix for
+	 * this session, until the configuration is loaded again.
+	 *
+	 * @param bits
+	 *            32, 16 or 8.
+	 */
+	public void setMatrixBits(int bits) {
+		if (bits != 32 && bits != 16 && bits != 8) {
+			throw new IllegalArgumentException(
+					"The similarity matrix keeps 32, 16 or 8 bits per cell, not "
+							+ bits);
+		}
+		if (bits != matrixBits) {
+			matrixBits = bits;
+			onlyStructureDetection = false;
+		}
+	}
+
+	public boolean isBoundariesOnly() {
+		return boundariesOnly;
+	}
+
+	/**
+	 * Makes the next analyses of this session detect only the segment
+	 * boundaries, without a similarity matrix and without labels (see
+	 * {@link StreamingNovelty}).
+	 *
+	 * @param boundariesOnly
+	 *            true to detect only the boundaries.
+	 */
+	public void setBoundariesOnly(boolean boundariesOnly) {
+		this.boundariesOnly = boundariesOnly;
+	}
+
+	public boolean isMacroEnabled() {
+		return macroEnabled;
+	}
+
+	public boolean isMesoEnabled() {
+		return mesoEnabled;
+	}
+
+	public boolean isMicroEnabled() {
+		return microEnabled;
+	}
+
+	public void cleanMemory() {
+		this.autoCorrelationcs = null;
+		this.cqtcs = null;
+		this.mfccs = null;
+		this.noveltyScores = null;
+		this.similarityMatrix = null;
+	}
+
+	public float[][] getFeatures(int featureOrigin) {
+		switch (featureOrigin) {
+		case AASModel.FEATURE_ORIGIN_MFCC:
+			if (mfccs != null && mfccs.length > 0)
+				return this.mfccs;
+			else
+				throw new RuntimeException(
+						"No feautures of that origin available! Are you sure they were calculated?");
+		case AASModel.FEATURE_ORIGIN_CQT:
+			if (cqtcs != null && cqtcs.length > 0)
+				return this.cqtcs;
+			else
+				throw new RuntimeException(
+						"No feautures of that origin available! Are you sure they were calculated?");
+		case AASModel.FEATURE_ORIGIN_AUTOCORRELATIE:
+			if (autoCorrelationcs != null && autoCorrelationcs.length > 0)
+				return this.autoCorrelationcs;
+			else
+				throw new RuntimeException(
+						"No feautures of that origin available! Are you sure they were calculated?");
+		default:
+			throw new RuntimeException(
+					"Please choose a feature origin! (constants in the AASModel class)");
+		}
+	}
+}
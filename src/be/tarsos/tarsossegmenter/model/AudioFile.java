@@ -66,7 +66,7 @@ public final class AudioFile {
          */
         private final Map<String, String> currentFiles;
 
-        public static AudioFileList getInstance() {
+        public static synchronized AudioFileList getInstance() {
             if (instance == null) {
                 instance = new AudioFileList();
             }
@@ -78,7 +78,7 @@ public final class AudioFile {
             initializeCurrentFiles();
         }
 
-        private void initializeCurrentFiles() {
+        private synchronized void initializeCurrentFiles() {
             String path = Configuration.get(ConfKey.data_directory);
             File[] children = new File(path).listFiles(new FileFilter() {
 
@@ -104,15 +104,15 @@ public final class AudioFile {
             }
         }
 
-        public boolean containsFile(String md5) {
+        public synchronized boolean containsFile(String md5) {
             return currentFiles.containsKey(md5);
         }
 
-        public void addFile(String md5, AudioFile file) {
+        public synchronized void addFile(String md5, AudioFile file) {
             currentFiles.put(md5, FileUtils.basename(file.transcodedPath()));
         }
 
-        public String getBaseName(String md5) {
+        public synchronized String getBaseName(String md5) {
             return currentFiles.get(md5);
         }
     }
@@ -234,20 +234,33 @@ public final class AudioFile {
      */
     public static List<AudioFile> audioFiles(final String... folders) {
         final List<AudioFile> files = new ArrayList<AudioFile>();
-        String pattern = Configuration.get(ConfKey.audio_file_name_pattern);
-        for (final String folder : folders) {
-            List<String> audioFiles = FileUtils.glob(folder, pattern, true);
-            for (final String originalFile : audioFiles) {
-                try {
-                    files.add(new AudioFile(originalFile));
-                } catch (EncoderException e) {
-                    //LOG.severe(String.format("Transcoding failed: %s is not supported.", originalFile));
-                }
+        for (final String originalFile : audioFilePaths(folders)) {
+            try {
+                files.add(new AudioFile(originalFile));
+            } catch (EncoderException e) {
+                //LOG.severe(String.format("Transcoding failed: %s is not supported.", originalFile));
             }
         }
         return files;
     }
 
+    /**
+     * Returns the paths of the audio files included in one or more folders,
+     * without transcoding them. Searches recursively.
+     *
+     * @param folders The folders to search.
+     *
+     * @return a list of paths matching the configured audio file name pattern.
+     */
+    public static List<String> audioFilePaths(final String... folders) {
+        final List<String> paths = new ArrayList<String>();
+        String pattern = Configuration.get(ConfKey.audio_file_name_pattern);
+        for (final String folder : folders) {
+            paths.addAll(FileUtils.glob(folder, pattern, true));
+        }
+        return paths;
+    }
+
     /**
      * Determines the length of the transcoded file (only audio data) in
      * microseconds.
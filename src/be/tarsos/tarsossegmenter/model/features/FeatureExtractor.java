@@ -0,0 +1,356 @@
+package be.tarsos.tarsossegmenter.model.features;
+
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.AutoCorrelation;
+import be.tarsos.dsp.ConstantQ;
+import be.tarsos.dsp.mfcc.MFCC;
+import be.tarsos.tarsossegmenter.util.concurrent.WorkerPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * <p>
+ * Extracts the MFCC, CQT and autocorrelation features of a transcoded audio
+ * file, frame by frame.
+ * </p>
+ * <p>
+ * The file is split into consecutive ranges of frames that are extracted in
+ * parallel on the shared fork/join pool, every range with its own dispatcher
+ * and processors. A range starts reading at the first sample of its first
+ * frame and stops after the last sample of its last frame, so the frames at
+ * the borders of a range get exactly the samples they get when the whole file
+ * is read in one go. The features are written straight into the frame arrays
+ * at the frame numbers of the range.
+ * </p>
+ */
+public class FeatureExtractor {
+
+    /**
+     * Ranges are not made shorter than this amount of frames: every range
+     * opens the file and sets up its processors.
+     */
+    private static final int MIN_RANGE_FRAMES = 256;
+
+    private final File file;
+    private final int frameSize;
+    private final int overlapping;
+    private float sampleRate;
+    private float lowerFilterFreq;
+    private float upperFilterFreq;
+    private boolean useMFCC;
+    private int melfilters;
+    private int mfccCoef;
+    private boolean useCQT;
+    private int cqtBins;
+    private boolean useAutoCorrelation;
+    private boolean useFrontEnd;
+    private float[][] mfccs;
+    private float[][] cqtcs;
+    private float[][] autoCorrelationcs;
+
+    /**
+     * @param file the transcoded audio file.
+     * @param frameSize the amount of samples in a frame.
+     * @param overlapping the amount of samples consecutive frames share.
+     */
+    public FeatureExtractor(File file, int frameSize, int overlapping) {
+        this.file = file;
+        this.frameSize = frameSize;
+        this.overlapping = overlapping;
+    }
+
+    public void enableMFCC(float sampleRate, int melfilters, int mfccCoef, float lowerFilterFreq, float upperFilterFreq) {
+        this.useMFCC = true;
+        this.sampleRate = sampleRate;
+        this.melfilters = melfilters;
+        this.mfccCoef = mfccCoef;
+        this.lowerFilterFreq = lowerFilterFreq;
+        this.upperFilterFreq = upperFilterFreq;
+    }
+
+    public void enableCQT(float sampleRate, int cqtBins, float lowerFilterFreq, float upperFilterFreq) {
+        this.useCQT = true;
+        this.sampleRate = sampleRate;
+        this.cqtBins = cqtBins;
+        this.lowerFilterFreq = lowerFilterFreq;
+        this.upperFilterFreq = upperFilterFreq;
+    }
+
+    public void enableAutoCorrelation() {
+        this.useAutoCorrelation = true;
+    }
+
+    /**
+     * Computes all features from one shared spectrum per frame with a
+     * {@link SpectralFrontEnd} instead of a TarsosDSP processor per feature.
+     * Ignored for frame sizes the front-end does not support.
+     */
+    public void setFusedFrontEnd(boolean value) {
+        this.useFrontEnd = value && SpectralFrontEnd.supports(frameSize);
+    }
+
+    public boolean isFusedFrontEnd() {
+        return useFrontEnd;
+    }
+
+    /**
+     * Extracts the enabled features. Frames the file does not have stay null,
+     * frames beyond the given amount are dropped.
+     *
+     * @param amountOfFrames the amount of frames to extract.
+     * @throws IOException if the file can not be read.
+     * @throws UnsupportedAudioFileException if the file is not an audio file.
+     */
+    public void extract(int amountOfFrames) throws IOException, UnsupportedAudioFileException {
+        // fail here, in the calling thread, if the file can not be opened
+        AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+        stream.close();
+
+        mfccs = useMFCC ? new float[amountOfFrames][] : null;
+        cqtcs = useCQT ? new float[amountOfFrames][] : null;
+        autoCorrelationcs = useAutoCorrelation ? new float[amountOfFrames][] : null;
+
+        int ranges = Math.max(1, Math.min(WorkerPool.getPool().getParallelism(), amountOfFrames / MIN_RANGE_FRAMES));
+        int[] bounds = rangeBounds(amountOfFrames, ranges);
+        final List<RangeTask> tasks = new ArrayList<RangeTask>();
+        for (int r = 0; r < ranges; r++) {
+            // the last range reads on to the end of the file, like a single
+            // dispatcher would
+            tasks.add(new RangeTask(bounds[r], bounds[r + 1], r == ranges - 1));
+        }
+        try {
+            WorkerPool.invoke(new RecursiveAction() {
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (RangeException e) {
+            Throwable cause = e;
+            while (cause instanceof RangeException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof UnsupportedAudioFileException) {
+                throw (UnsupportedAudioFileException) cause;
+            }
+            throw (IOException) cause;
+        }
+    }
+
+    public float[][] getMFCCs() {
+        return mfccs;
+    }
+
+    public float[][] getCQTs() {
+        return cqtcs;
+    }
+
+    public float[][] getAutoCorrelations() {
+        return autoCorrelationcs;
+    }
+
+    /**
+     * Carries a checked exception of a range out of the fork/join pool.
+     */
+    private static class RangeException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        RangeException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Extracts the frames from ... to - 1 with a dispatcher of its own.
+     */
+    private class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final boolean last;
+
+        RangeTask(int from, int to, boolean last) {
+            this.from = from;
+            this.to = to;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                extractRange();
+            } catch (IOException e) {
+                throw new RangeException(e);
+            } catch (UnsupportedAudioFileException e) {
+                throw new RangeException(e);
+            }
+        }
+
+        private void extractRange() throws IOException, UnsupportedAudioFileException {
+            if (from >= to) {
+                return;
+            }
+            AudioInputStream stream = range(AudioSystem.getAudioInputStream(file), frameSize, overlapping, from, to, last);
+
+            AudioDispatcher dispatcher = new AudioDispatcher(stream, frameSize, overlapping);
+            if (useFrontEnd) {
+                addFrontEnd(dispatcher);
+            } else {
+                addProcessors(dispatcher);
+            }
+            try {
+                dispatcher.run();
+            } finally {
+                stream.close();
+            }
+        }
+
+        private void addProcessors(AudioDispatcher dispatcher) {
+            final MFCC mfccAD = useMFCC ? new MFCC(frameSize, sampleRate, melfilters, mfccCoef, lowerFilterFreq, upperFilterFreq) : null;
+            final AutoCorrelation acAD = useAutoCorrelation ? new AutoCorrelation() : null;
+            final ConstantQ cqtAD = useCQT ? new ConstantQ(sampleRate, lowerFilterFreq, upperFilterFreq, cqtBins) : null;
+            if (useMFCC) {
+                dispatcher.addAudioProcessor(mfccAD);
+            }
+            if (useAutoCorrelation) {
+                dispatcher.addAudioProcessor(acAD);
+            }
+            if (useCQT) {
+                dispatcher.addAudioProcessor(cqtAD);
+            }
+            dispatcher.addAudioProcessor(new AudioProcessor() {
+                private int frame = from;
+
+                @Override
+                public boolean process(AudioEvent audioEvent) {
+                    if (frame < to) {
+                        // the processors reuse their output buffers
+                        if (useMFCC) {
+                            mfccs[frame] = mfccAD.getMFCC().clone();
+                        }
+                        if (useAutoCorrelation) {
+                            autoCorrelationcs[frame] = acAD.getValues().clone();
+                        }
+                        if (useCQT) {
+                            cqtcs[frame] = cqtAD.getMagnitudes().clone();
+                        }
+                    }
+                    frame++;
+                    return true;
+                }
+
+                @Override
+                public void processingFinished() {
+                }
+            });
+        }
+
+        private void addFrontEnd(AudioDispatcher dispatcher) {
+            final SpectralFrontEnd frontEnd = new SpectralFrontEnd(frameSize, sampleRate);
+            if (useMFCC) {
+                // mirrors the MFCC processor of addProcessors: TarsosDSP
+                // takes the amount of cepstrum coefficients before the amount
+                // of mel filters, so mfcc_coef is the amount of filters
+                frontEnd.enableMFCC(mfccCoef, melfilters, lowerFilterFreq, upperFilterFreq);
+            }
+            if (useAutoCorrelation) {
+                frontEnd.enableAutoCorrelation();
+            }
+            if (useCQT) {
+                frontEnd.enableCQT(cqtBins, lowerFilterFreq, upperFilterFreq);
+            }
+            dispatcher.addAudioProcessor(frontEnd);
+            dispatcher.addAudioProcessor(new AudioProcessor() {
+                private int frame = from;
+
+                @Override
+                public boolean process(AudioEvent audioEvent) {
+                    if (frame < to) {
+                        if (useMFCC) {
+                            mfccs[frame] = frontEnd.getMFCC().clone();
+                        }
+                        if (useAutoCorrelation) {
+                            autoCorrelationcs[frame] = frontEnd.getAutoCorrelation().clone();
+                        }
+                        if (useCQT) {
+                            cqtcs[frame] = frontEnd.getMagnitudes().clone();
+                        }
+                    }
+                    frame++;
+                    return true;
+                }
+
+                @Override
+                public void processingFinished() {
+                }
+            });
+        }
+    }
+
+    /**
+     * Splits the frames in consecutive ranges of about the same size.
+     *
+     * @return the first frame of every range, followed by the amount of
+     * frames.
+     */
+    static int[] rangeBounds(int amountOfFrames, int ranges) {
+        int[] bounds = new int[ranges + 1];
+        for (int r = 0; r <= ranges; r++) {
+            bounds[r] = (int) ((long) amountOfFrames * r / ranges);
+        }
+        return bounds;
+    }
+
+    /**
+     * Positions a stream at the first sample of frame from and, unless it is
+     * the last range, cuts it after the last sample of frame to - 1.
+     *
+     * @param stream the stream of the whole file.
+     * @return the stream of the range.
+     * @throws IOException if the samples before the range can not be skipped.
+     */
+    static AudioInputStream range(AudioInputStream stream, int frameSize, int overlapping, int from, int to, boolean last) throws IOException {
+        int step = frameSize - overlapping;
+        AudioFormat format = stream.getFormat();
+        skipFully(stream, (long) from * step * format.getFrameSize());
+        if (last) {
+            return stream;
+        }
+        long samples = (long) (to - from - 1) * step + frameSize;
+        return new AudioInputStream(stream, format, samples);
+    }
+
+    private static void skipFully(InputStream stream, long bytes) throws IOException {
+        byte[] buffer = null;
+        while (bytes > 0) {
+            long skipped = stream.skip(bytes);
+            if (skipped <= 0) {
+                // some streams do not skip, read instead
+                if (buffer == null) {
+                    buffer = new byte[8192];
+                }
+                skipped = stream.read(buffer, 0, (int) Math.min(buffer.length, bytes));
+                if (skipped < 0) {
+                    return;
+                }
+            }
+            bytes -= skipped;
+        }
+    }
+}
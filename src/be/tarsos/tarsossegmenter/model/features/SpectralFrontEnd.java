@@ -0,0 +1,236 @@
+package be.tarsos.tarsossegmenter.model.features;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.tarsossegmenter.model.preprocessing.PreProcesses;
+import be.tarsos.tarsossegmenter.util.math.FFT;
+
+/**
+ * <p>
+ * Computes the MFCC, CQT and autocorrelation features of a frame from one
+ * shared spectrum: the frame is windowed and transformed once, instead of once
+ * per feature processor.
+ * </p>
+ * <ul>
+ * <li>MFCC: an approximation. Triangular mel filters over the magnitude
+ * spectrum, the natural logarithm (floored at -50) and a DCT like the TarsosDSP
+ * MFCC processor, but its window, the placement of its filter centers and its
+ * filter weights differ, so the coefficients are not those of the
+ * processor.</li>
+ * <li>CQT: an approximation. Every constant-Q band is the weighted RMS of the
+ * magnitudes within its bandwidth, with triangular weights around the center
+ * frequency. The bands are those of the TarsosDSP constant-Q transform, but
+ * the resolution is that of the frame.</li>
+ * <li>Autocorrelation: only the first value is computed, the mean absolute
+ * sample like that of the TarsosDSP autocorrelation processor. That is the
+ * only value the similarity matrix uses.</li>
+ * </ul>
+ * <p>
+ * All filters and tables are computed in the constructor and the results are
+ * written into buffers that are reused for every frame.
+ * </p>
+ */
+public class SpectralFrontEnd implements AudioProcessor {
+
+    private final int frameSize;
+    private final float sampleRate;
+    private final FFT fft;
+    private final float[] window;
+    private final float[] re;
+    private final float[] im;
+    private final float[] magnitudes;
+    private boolean useMFCC;
+    private int[] melFrom;
+    private float[][] melWeights;
+    private float[] melEnergies;
+    private float[][] dct;
+    private float[] mfcc;
+    private boolean useCQT;
+    private int[] cqtFrom;
+    private float[][] cqtWeights;
+    private float[] cqt;
+    private boolean useAutoCorrelation;
+    private final float[] autoCorrelation;
+
+    /**
+     * @param frameSize the amount of samples in a frame, a power of two.
+     * @param sampleRate the sample rate of the audio.
+     */
+    public SpectralFrontEnd(int frameSize, float sampleRate) {
+        this.frameSize = frameSize;
+        this.sampleRate = sampleRate;
+        fft = new FFT(frameSize);
+        window = PreProcesses.hammingCoefficients(frameSize);
+        re = new float[frameSize];
+        im = new float[frameSize];
+        magnitudes = new float[frameSize / 2];
+        autoCorrelation = new float[1];
+    }
+
+    /**
+     * @return true if frames of the given size can be transformed.
+     */
+    public static boolean supports(int frameSize) {
+        return FFT.isPowerOfTwo(frameSize);
+    }
+
+    public void enableMFCC(int melFilters, int coefficients, float lowerFilterFreq, float upperFilterFreq) {
+        useMFCC = true;
+        double melLow = mel(lowerFilterFreq);
+        double melHigh = mel(upperFilterFreq);
+        int[] centers = new int[melFilters + 2];
+        for (int i = 0; i < centers.length; i++) {
+            double frequency = inverseMel(melLow + (melHigh - melLow) / (melFilters + 1) * i);
+            centers[i] = Math.min(magnitudes.length - 1, (int) Math.round(frequency / sampleRate * frameSize));
+        }
+        melFrom = new int[melFilters];
+        melWeights = new float[melFilters][];
+        for (int k = 1; k <= melFilters; k++) {
+            int from = centers[k - 1];
+            int center = centers[k];
+            int to = centers[k + 1];
+            float[] weights = new float[Math.max(0, to - from + 1)];
+            for (int i = from; i <= center; i++) {
+                weights[i - from] = (i - from + 1) / (float) (center - from + 1);
+            }
+            for (int i = center + 1; i <= to; i++) {
+                weights[i - from] = 1 - (i - center) / (float) (to - center + 1);
+            }
+            melFrom[k - 1] = from;
+            melWeights[k - 1] = weights;
+        }
+        melEnergies = new float[melFilters];
+        dct = new float[coefficients][melFilters];
+        for (int i = 0; i < coefficients; i++) {
+            for (int j = 0; j < melFilters; j++) {
+                dct[i][j] = (float) Math.cos(Math.PI * i / melFilters * (j + 0.5));
+            }
+        }
+        mfcc = new float[coefficients];
+    }
+
+    public void enableCQT(int binsPerOctave, float lowerFilterFreq, float upperFilterFreq) {
+        useCQT = true;
+        int bands = (int) Math.ceil(binsPerOctave * Math.log(upperFilterFreq / lowerFilterFreq) / Math.log(2));
+        double q = 1 / (Math.pow(2, 1.0 / binsPerOctave) - 1);
+        double binWidth = sampleRate / frameSize;
+        cqtFrom = new int[bands];
+        cqtWeights = new float[bands][];
+        for (int b = 0; b < bands; b++) {
+            double center = lowerFilterFreq * Math.pow(2, (double) b / binsPerOctave);
+            // never narrower than one bin of the spectrum
+            double bandwidth = Math.max(center / q, binWidth);
+            int from = Math.max(0, (int) Math.ceil((center - bandwidth) / binWidth));
+            int to = Math.min(magnitudes.length - 1, (int) Math.floor((center + bandwidth) / binWidth));
+            float[] weights = new float[Math.max(0, to - from + 1)];
+            float sum = 0;
+            for (int i = from; i <= to; i++) {
+                weights[i - from] = (float) Math.max(0, 1 - Math.abs(i * binWidth - center) / bandwidth);
+                sum += weights[i - from];
+            }
+            for (int i = 0; i < weights.length && sum > 0; i++) {
+                weights[i] /= sum;
+            }
+            cqtFrom[b] = from;
+            cqtWeights[b] = weights;
+        }
+        cqt = new float[bands];
+    }
+
+    public void enableAutoCorrelation() {
+        useAutoCorrelation = true;
+    }
+
+    @Override
+    public boolean process(AudioEvent audioEvent) {
+        float[] buffer = audioEvent.getFloatBuffer();
+        int length = Math.min(buffer.length, frameSize);
+        if (useAutoCorrelation) {
+            float sum = 0;
+            for (int n = 0; n < buffer.length; n++) {
+                sum += Math.abs(buffer[n]) / buffer.length;
+            }
+            autoCorrelation[0] = sum;
+        }
+        if (useMFCC || useCQT) {
+            for (int n = 0; n < length; n++) {
+                re[n] = buffer[n] * window[n];
+                im[n] = 0;
+            }
+            for (int n = length; n < frameSize; n++) {
+                re[n] = 0;
+                im[n] = 0;
+            }
+            fft.forward(re, im);
+            for (int k = 0; k < magnitudes.length; k++) {
+                magnitudes[k] = (float) Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+            }
+        }
+        if (useMFCC) {
+            for (int k = 0; k < melEnergies.length; k++) {
+                float[] weights = melWeights[k];
+                int from = melFrom[k];
+                float energy = 0;
+                for (int i = 0; i < weights.length; i++) {
+                    energy += weights[i] * magnitudes[from + i];
+                }
+                melEnergies[k] = Math.max((float) Math.log(energy), -50);
+            }
+            for (int i = 0; i < mfcc.length; i++) {
+                float[] cos = dct[i];
+                float coefficient = 0;
+                for (int j = 0; j < melEnergies.length; j++) {
+                    coefficient += melEnergies[j] * cos[j];
+                }
+                mfcc[i] = coefficient;
+            }
+        }
+        if (useCQT) {
+            for (int b = 0; b < cqt.length; b++) {
+                float[] weights = cqtWeights[b];
+                int from = cqtFrom[b];
+                float power = 0;
+                for (int i = 0; i < weights.length; i++) {
+                    power += weights[i] * magnitudes[from + i] * magnitudes[from + i];
+                }
+                cqt[b] = (float) Math.sqrt(power);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void processingFinished() {
+    }
+
+    /**
+     * @return the MFCC of the last frame, the buffer is reused.
+     */
+    public float[] getMFCC() {
+        return mfcc;
+    }
+
+    /**
+     * @return the constant-Q magnitudes of the last frame, the buffer is
+     * reused.
+     */
+    public float[] getMagnitudes() {
+        return cqt;
+    }
+
+    /**
+     * @return the first autocorrelation value of the last frame, the buffer
+     * is reused.
+     */
+    public float[] getAutoCorrelation() {
+        return autoCorrelation;
+    }
+
+    private static double mel(double frequency) {
+        return 2595 * Math.log10(1 + frequency / 700);
+    }
+
+    private static double inverseMel(double mel) {
+        return 700 * (Math.pow(10, mel / 2595) - 1);
+    }
+}
@@ -4,10 +4,16 @@
  */
 package be.tarsos.tarsossegmenter.model.preprocessing;
 
-import be.tarsos.tarsossegmenter.model.AASModel;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrix;
+import be.tarsos.tarsossegmenter.util.concurrent.WorkerPool;
 import be.tarsos.tarsossegmenter.util.configuration.ConfKey;
 import be.tarsos.tarsossegmenter.util.configuration.Configuration;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
 /**
  *
  * @author Thomas
@@ -15,7 +21,22 @@ import be.tarsos.tarsossegmenter.util.configuration.Configuration;
 public class PreProcesses {
 
     private final static float PREEMPHASISALPHA = 0.95f;
-    private static float[] hammingCoef;
+    private static volatile float[] hammingCoef;
+    private final static int[] DIAGONAL_KERNEL = {4, 5, 7, 5, 4};
+    private final static int[][] SHARPEN_KERNEL = {{6, 1, -4, -4, -4}, {1, 10, 1, -4, -4}, {-4, 1, 10, 1, -4}, {-4, -4, 1, 10, 1}, {-4, -4, -4, 1, 6}};
+    /**
+     * The amount of rows and columns the diagonal and sharpen kernels reach
+     * around a cell.
+     */
+    private final static int KERNEL_REACH = 2;
+    /**
+     * Sharpened cells this close to the diagonal read the enhanced diagonal.
+     */
+    private final static int NEAR_DIAGONAL = 2 * KERNEL_REACH;
+    /**
+     * Bands of rows are not made smaller than this.
+     */
+    private final static int MIN_BAND_ROWS = 64;
 
     public static float[][] framing(float[] in, int samplesPerFrame, int overlap) {
 
@@ -110,13 +131,24 @@ public class PreProcesses {
         return EmphasedSamples;
     }
 
-    public static void hammingWindow(float[][] frames, int samplesPerFrame) {
-        if (hammingCoef == null || hammingCoef.length != samplesPerFrame) {
-            hammingCoef = new float[samplesPerFrame];
+    /**
+     * @return the Hamming window for frames of the given size, computed once
+     * and shared: do not modify.
+     */
+    public static float[] hammingCoefficients(int samplesPerFrame) {
+        float[] coef = hammingCoef;
+        if (coef == null || coef.length != samplesPerFrame) {
+            coef = new float[samplesPerFrame];
             for (int n = 0; n < samplesPerFrame; n++) {
-                hammingCoef[n] = (float) (0.54 - 0.46 * Math.cos((2 * Math.PI * n) / (samplesPerFrame)));
+                coef[n] = (float) (0.54 - 0.46 * Math.cos((2 * Math.PI * n) / (samplesPerFrame)));
             }
+            hammingCoef = coef;
         }
+        return coef;
+    }
+
+    public static void hammingWindow(float[][] frames, int samplesPerFrame) {
+        float[] hammingCoef = hammingCoefficients(samplesPerFrame);
 
         for (int m = 0; m < frames.length; m++) {
             for (int n = 0; n < samplesPerFrame; n++) {
@@ -125,50 +157,11 @@ public class PreProcesses {
         }
     }
 
-    public static float diagonalEdgeDetection(float[][] matrix, float maxValue) {
-        //diagonalen versterken:
-        //kernel over elke pixel laten lopen, waarbij de pixel wordt vervangen door zichzelf + de waarde van de overeenkomste pixels in de (matrix-MAX_VALUE/2) * de factor in de matrix
-        int amountOfFrames = matrix.length;
-        int[] kernel = {4, 5, 7, 5, 4};
-
-        float[][] temp = new float[amountOfFrames][];
-        for (int i = 0; i < amountOfFrames; i++) {
-            temp[i] = new float[i + 1];
-        }
-        float newMax = 0;
-        for (int i = 2; i < amountOfFrames - 2; i++) {
-            for (int j = 2; j <= i; j++) {
-                if (i != j) {
-                    float temp2 = matrix[i][j];
-                    for (int k = -2; k < kernel.length - 2; k++) {
-                        temp2 += (matrix[i + k][j + k] - maxValue / 2) * kernel[k + 2];
-                    }
-                    temp[i][j] = Math.max(temp2, 0);
-                    //Range updaten 
-                    if (temp[i][j] > newMax) {
-                        newMax = temp[i][j];
-                    }
-                }
-            }
-        }
-        maxValue = newMax;
-
-        for (int i = 2; i < amountOfFrames - 2; i++) {
-            System.arraycopy(temp[i], 2, matrix[i], 2, temp[i].length - 2);
-        }
-
-        for (int i = 0; i < amountOfFrames; i++) {
-            matrix[i][i] = maxValue;
-        }
-
-        return maxValue;
-    }
-   
-    public static void whiteAreasToDiagonals(float[][] matrix, float range) {
-        int amountOfFrames = matrix.length;
+    public static void whiteAreasToDiagonals(SimilarityMatrix matrix, float range, int samplesPerFrame, float sampleRate) {
+        int amountOfFrames = matrix.size();
 
         boolean first = Configuration.getBoolean(ConfKey.ignore_first_segment);
-        float lengthFrameInSec = AASModel.getInstance().getSamplesPerFrame() / AASModel.getInstance().getSampleRate(); //vb 0.18 voor 4048
+        float lengthFrameInSec = samplesPerFrame / sampleRate; //vb 0.18 voor 4048
         final int MIN_SIZE = (int) Math.round(2 / lengthFrameInSec);
         float initialThreshold = range / 1.5f;
         //één zijde van de matrix overlopen
@@ -193,7 +186,7 @@ public class PreProcesses {
                     //initiëel vierkant zwart maken
                     for (int m = i; m < i + xLineLength[index]; m++) {
                         for (int n = i; n < m; n++) {
-                            matrix[m][n] /= 2;
+                            matrix.setLower(m, n, matrix.getLower(m, n) / 2);
                         }
                     }
                     int x = i + xLineLength[index];
@@ -221,7 +214,7 @@ public class PreProcesses {
                                 for (int k = x; k < x + tempXLineLength[index2]; k++) {
                                     for (int l = i; l < i + tempXLineLength[index2]; l++) {
                                         if (k > l && Math.abs((l - i) - (k - x)) > 2) { //alles zwart maken behalve de diagonaal + een speling van 2
-                                            matrix[k][l] /= 2;
+                                            matrix.setLower(k, l, matrix.getLower(k, l) / 2);
                                         }
                                     }
                                 }
@@ -304,26 +297,22 @@ public class PreProcesses {
 //        return 0f;
 //    }
     //Hier wordt gekeken of het wel een viekant is en geen lijn
-    private static float checkAvgColorSquare(float[][] matrix, int startX, int startY, int length) {
+    private static float checkAvgColorSquare(SimilarityMatrix matrix, int startX, int startY, int length) {
         float avg = 0;//matrix[i+1][i];
         for (int x = startX; x < startX + length; x++) {
             for (int y = startY; y < startY + length; y++) {
-                if (x >= y) {
-                    avg += matrix[x][y] / (length * length);
-                } else {
-                    avg += matrix[y][x] / (length * length);
-                }
+                avg += matrix.get(x, y) / (length * length);
             }
         }
         return avg;
     }
 
     //Zoekt een witte lijn
-    private static int[] detectWhiteLine(float[][] matrix, int startFrameX, int startFrameY, float threshold, boolean horizontal, int minlength) {
+    private static int[] detectWhiteLine(SimilarityMatrix matrix, int startFrameX, int startFrameY, float threshold, boolean horizontal, int minlength) {
         final int MAX_CONTINUOUS_MISTAKES = 2;
         final int MAX_MISTAKES = 3;
         int lineLength = 1;
-        int amountOfFrames = matrix.length;
+        int amountOfFrames = matrix.size();
         boolean continueSearch = true;
         int amountOfContinuousMistakes = 0;
         int amountOfMistakes = 0;
@@ -333,12 +322,12 @@ public class PreProcesses {
         }
         if (!horizontal) {
             while (continueSearch) {
-                while (startFrameX + lineLength < amountOfFrames && matrix[startFrameX + lineLength][startFrameY] > threshold) {
+                while (startFrameX + lineLength < amountOfFrames && matrix.getLower(startFrameX + lineLength, startFrameY) > threshold) {
                     lineLength++;
                 }
                 if (amountOfMistakes < Math.max(lineLength-MAX_MISTAKES,0) && startFrameX + lineLength < amountOfFrames - MAX_MISTAKES) {
                     lineLength++;
-                    if (matrix[startFrameX + lineLength][startFrameY] > threshold) {
+                    if (matrix.getLower(startFrameX + lineLength, startFrameY) > threshold) {
                         continueSearch = true;
                         amountOfContinuousMistakes = 0;
                     } else if (amountOfContinuousMistakes >= MAX_CONTINUOUS_MISTAKES) {
@@ -373,14 +362,14 @@ public class PreProcesses {
                 }
             }
         } else {
-            amountOfFrames = matrix[startFrameX].length;
+            amountOfFrames = startFrameX + 1;
             while (continueSearch) {
-                while (startFrameY + lineLength < amountOfFrames && matrix[startFrameX][startFrameY + lineLength] > threshold) {
+                while (startFrameY + lineLength < amountOfFrames && matrix.getLower(startFrameX, startFrameY + lineLength) > threshold) {
                     lineLength++;
                 }
                 if (amountOfMistakes < Math.max(lineLength-MAX_MISTAKES,0) && startFrameY + lineLength < amountOfFrames - MAX_MISTAKES) {
                     lineLength++;
-                    if (matrix[startFrameX][startFrameY + lineLength] > threshold) {
+                    if (matrix.getLower(startFrameX, startFrameY + lineLength) > threshold) {
                         continueSearch = true;
                         amountOfContinuousMistakes = 0;
                     } else if (amountOfContinuousMistakes >= MAX_CONTINUOUS_MISTAKES) {
@@ -477,131 +466,498 @@ public class PreProcesses {
         }
     }
 
-    public static float sharpen(float[][] matrix) {
-
-        int amountOfFrames = matrix.length;
-
-        //Witte gebieden behouden:
-        //int sharpenKernel[][] = {{6, 1, -2, -2, -2}, {1, 10, 1, -2, -2}, {-2, 1, 10, 1, -2}, {-2, -2, 1, 10, 1}, {-2, -2, -2, 1, 6}};
-        //Witte gebieden wegsmijten:
-        int sharpenKernel[][] = {{6, 1, -4, -4, -4}, {1, 10, 1, -4, -4}, {-4, 1, 10, 1, -4}, {-4, -4, 1, 10, 1}, {-4, -4, -4, 1, 6}};
-
-        int half = sharpenKernel.length / 2;
-
-        float[][] temp = new float[amountOfFrames][];
-        for (int i = 0; i < amountOfFrames; i++) {
-            temp[i] = new float[i + 1];
-        }
-
-
+    /**
+     * <p>
+     * Enhances the diagonals of the lower half and then sharpens it, in one
+     * pass. A cell below the diagonal is enhanced by adding the cells along
+     * its diagonal, minus half the maximum value, weighted by
+     * {@link #DIAGONAL_KERNEL}. The enhanced cells are then convolved with
+     * {@link #SHARPEN_KERNEL}. Both steps clamp at 0 and set the diagonal to
+     * their largest value.
+     * </p>
+     * <p>
+     * The rows are split in bands that are processed in parallel on the
+     * shared worker pool. A band streams its rows through a few row buffers:
+     * the diagonals of a row are enhanced as soon as the rows around it are
+     * read, and a row is sharpened and written back as soon as the enhanced
+     * rows around it are known. The rows a band reads from its neighbours
+     * are copied before any band writes, so no copy of the matrix is made.
+     * </p>
+     * <p>
+     * Only the cells within 4 of the diagonal are sharpened afterwards: the
+     * enhanced diagonal is set to the largest enhanced value, which is only
+     * known when all bands are done. The bands keep the enhanced cells near
+     * the diagonal for that.
+     * </p>
+     *
+     * <p>
+     * A matrix that stores its diagonals contiguously is processed diagonal
+     * by diagonal instead, see {@link #enhanceLags}.
+     * </p>
+     *
+     * @return the largest sharpened value, the new range of the matrix.
+     */
+    public static float enhanceDiagonals(SimilarityMatrix matrix, float maxValue) {
+        if (matrix.isDiagonalMajor()) {
+            return enhanceLags(matrix, maxValue);
+        }
+        int size = matrix.size();
+        float[][] nearDiagonal = new float[2 * NEAR_DIAGONAL + 1][size];
+        int[] bounds = bands(size);
+        List<EnhancementBand> bands = new ArrayList<EnhancementBand>();
+        for (int b = 0; b + 1 < bounds.length; b++) {
+            bands.add(new EnhancementBand(matrix, maxValue, nearDiagonal, bounds[b], bounds[b + 1]));
+        }
+        runAll(bands);
+        float enhancedMax = 0;
         float newMax = 0;
-        for (int i = half; i < amountOfFrames - half; i++) {
-            for (int j = half; j < i; j++) {
+        for (EnhancementBand band : bands) {
+            enhancedMax = Math.max(enhancedMax, band.enhancedMax);
+            newMax = Math.max(newMax, band.newMax);
+        }
+
+        //Cellen bij de diagonaal verscherpen, met de nieuwe waarde van de diagonaal
+        int[][] sharpenKernel = SHARPEN_KERNEL;
+        int half = KERNEL_REACH;
+        float[] row = new float[NEAR_DIAGONAL];
+        for (int i = half; i < size - half; i++) {
+            int from = Math.max(half, i - NEAR_DIAGONAL);
+            for (int j = from; j < i; j++) {
                 float temp2 = 0;
                 for (int k = -half; k <= half; k++) {
                     for (int l = -half; l <= half; l++) {
-                        if (i + k < j + l) {
-                            temp2 += matrix[j + l][i + k] * sharpenKernel[half + k][half + l];
+                        int lag = Math.abs(i + k - j - l);
+                        float value = lag == 0 ? enhancedMax : nearDiagonal[lag][Math.min(i + k, j + l)];
+                        temp2 += value * sharpenKernel[half + k][half + l];
+                    }
+                }
+                temp2 = Math.max(temp2, 0);
+                row[j - from] = temp2;
+                if (temp2 > newMax) {
+                    newMax = temp2;
+                }
+            }
+            matrix.setRow(i, from, i - from, row, 0);
+        }
+
+        //Diagonaal herstellen
+        for (int i = 0; i < size; i++) {
+            matrix.setLower(i, i, newMax);
+        }
+        return newMax;
+    }
+
+    /**
+     * Enhances and sharpens the cells of rows from ... to - 1 that are more
+     * than {@link #NEAR_DIAGONAL} away from the diagonal, and keeps the
+     * enhanced cells of its rows near the diagonal.
+     */
+    private static class EnhancementBand extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityMatrix matrix;
+        private final float maxValue;
+        private final float[][] nearDiagonal;
+        private final int from;
+        private final int to;
+        /**
+         * Copies of the rows before and after the band, made before any band
+         * writes.
+         */
+        private final float[][] before;
+        private final float[][] after;
+        private float enhancedMax;
+        private float newMax;
+
+        EnhancementBand(SimilarityMatrix matrix, float maxValue, float[][] nearDiagonal, int from, int to) {
+            this.matrix = matrix;
+            this.maxValue = maxValue;
+            this.nearDiagonal = nearDiagonal;
+            this.from = from;
+            this.to = to;
+            before = copyRows(matrix, from - 2 * KERNEL_REACH, from);
+            after = copyRows(matrix, to, to + 2 * KERNEL_REACH);
+        }
+
+        @Override
+        protected void compute() {
+            int size = matrix.size();
+            int[] kernel = DIAGONAL_KERNEL;
+            int[][] sharpenKernel = SHARPEN_KERNEL;
+            int half = KERNEL_REACH;
+            float halfMax = maxValue / 2;
+            //Ringbuffers: originele rijen, versterkte rijen en de verscherpte rij
+            float[][] original = new float[2 * KERNEL_REACH + 1][size];
+            int[] originalRow = new int[original.length];
+            float[][] enhanced = new float[2 * half + 1][size];
+            float[] sharpened = new float[size];
+            Arrays.fill(originalRow, -1);
+
+            int first = Math.max(0, from - half);
+            int last = Math.min(size, to + half);
+            for (int m = first; m < last; m++) {
+                for (int r = Math.max(0, m - KERNEL_REACH); r <= Math.min(size - 1, m + KERNEL_REACH); r++) {
+                    int slot = r % original.length;
+                    if (originalRow[slot] != r) {
+                        if (r < from) {
+                            System.arraycopy(before[r - (from - 2 * KERNEL_REACH)], 0, original[slot], 0, r + 1);
+                        } else if (r >= to) {
+                            System.arraycopy(after[r - to], 0, original[slot], 0, r + 1);
                         } else {
-                            temp2 += matrix[i + k][j + l] * sharpenKernel[half + k][half + l];
+                            matrix.getRow(r, 0, r + 1, original[slot], 0);
                         }
+                        originalRow[slot] = r;
                     }
                 }
-                temp[i][j] = Math.max(temp2, 0);
-                if (temp[i][j] > newMax) {
-                    newMax = temp[i][j];
+
+                //Rij m versterken, de diagonaal wordt later ingevuld
+                float[] enhancedRow = enhanced[m % enhanced.length];
+                float[] originalM = original[m % original.length];
+                System.arraycopy(originalM, 0, enhancedRow, 0, m);
+                if (m >= 2 && m < size - 2) {
+                    for (int j = 2; j < m; j++) {
+                        float temp2 = originalM[j];
+                        for (int k = -2; k < kernel.length - 2; k++) {
+                            temp2 += (original[(m + k) % original.length][j + k] - halfMax) * kernel[k + 2];
+                        }
+                        temp2 = Math.max(temp2, 0);
+                        enhancedRow[j] = temp2;
+                        if (m >= from && m < to && temp2 > enhancedMax) {
+                            enhancedMax = temp2;
+                        }
+                    }
+                }
+                if (m >= from && m < to) {
+                    for (int lag = 1; lag < nearDiagonal.length && lag <= m; lag++) {
+                        nearDiagonal[lag][m - lag] = enhancedRow[m - lag];
+                    }
+                }
+
+                //Rij i verscherpen, enkel de cellen die de diagonaal niet raken
+                int i = m - half;
+                if (i >= from && i < to && i >= half && i < size - half) {
+                    int end = i - NEAR_DIAGONAL;
+                    for (int j = half; j < end; j++) {
+                        float temp2 = 0;
+                        for (int k = -half; k <= half; k++) {
+                            float[] enhancedK = enhanced[(i + k) % enhanced.length];
+                            for (int l = -half; l <= half; l++) {
+                                temp2 += enhancedK[j + l] * sharpenKernel[half + k][half + l];
+                            }
+                        }
+                        temp2 = Math.max(temp2, 0);
+                        sharpened[j] = temp2;
+                        if (temp2 > newMax) {
+                            newMax = temp2;
+                        }
+                    }
+                    if (end > half) {
+                        matrix.setRow(i, half, end - half, sharpened, half);
+                    }
                 }
             }
         }
+    }
 
-        for (int i = half; i < amountOfFrames - half; i++) {
-            System.arraycopy(temp[i], half, matrix[i], half, temp[i].length - half);
+    /**
+     * <p>
+     * {@link #enhanceDiagonals} for a matrix that stores its diagonals
+     * contiguously, with the same result.
+     * </p>
+     * <p>
+     * The diagonal kernel only reads the diagonal it enhances, so first all
+     * diagonals are enhanced in place, in parallel ranges of diagonals. The
+     * enhanced diagonal is then set to the largest enhanced value. The
+     * sharpen kernel reads the four diagonals on either side of a cell: every
+     * range streams its diagonals through a ring of diagonal buffers and
+     * reads the diagonals around it from copies made before any range
+     * writes.
+     * </p>
+     *
+     * @return the largest sharpened value, the new range of the matrix.
+     */
+    private static float enhanceLags(SimilarityMatrix matrix, float maxValue) {
+        int size = matrix.size();
+        if (size == 0) {
+            return 0;
+        }
+        int[] bounds = lagBands(size);
+        List<LagEnhancement> enhancements = new ArrayList<LagEnhancement>();
+        for (int b = 0; b + 1 < bounds.length; b++) {
+            enhancements.add(new LagEnhancement(matrix, maxValue, bounds[b], bounds[b + 1]));
+        }
+        runAll(enhancements);
+        float enhancedMax = 0;
+        for (LagEnhancement enhancement : enhancements) {
+            enhancedMax = Math.max(enhancedMax, enhancement.enhancedMax);
+        }
+        float[] diagonal = new float[size];
+        Arrays.fill(diagonal, enhancedMax);
+        matrix.setDiagonal(0, 0, size, diagonal, 0);
+
+        List<LagSharpening> sharpenings = new ArrayList<LagSharpening>();
+        for (int b = 0; b + 1 < bounds.length; b++) {
+            sharpenings.add(new LagSharpening(matrix, bounds[b], bounds[b + 1]));
+        }
+        runAll(sharpenings);
+        float newMax = 0;
+        for (LagSharpening sharpening : sharpenings) {
+            newMax = Math.max(newMax, sharpening.newMax);
         }
 
         //Diagonaal herstellen
-        for (int i = 0; i < amountOfFrames; i++) {
-            matrix[i][i] = newMax;
-        }
-
+        Arrays.fill(diagonal, newMax);
+        matrix.setDiagonal(0, 0, size, diagonal, 0);
         return newMax;
     }
 
-    public static float makeBinary(float[][] matrix, float treshhold, float maxValue) {
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j <= i; j++) {
-                if (matrix[i][j] > treshhold) {
-                    matrix[i][j] = 1;
-                } else {
-                    matrix[i][j] = 0;
+    /**
+     * Applies the diagonal kernel to the diagonals from ... to - 1, the main
+     * diagonal excluded.
+     */
+    private static class LagEnhancement extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityMatrix matrix;
+        private final float maxValue;
+        private final int from;
+        private final int to;
+        private float enhancedMax;
+
+        LagEnhancement(SimilarityMatrix matrix, float maxValue, int from, int to) {
+            this.matrix = matrix;
+            this.maxValue = maxValue;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int size = matrix.size();
+            int[] kernel = DIAGONAL_KERNEL;
+            float halfMax = maxValue / 2;
+            float[] original = new float[size];
+            float[] enhanced = new float[size];
+            for (int lag = Math.max(from, 1); lag < to; lag++) {
+                //Cel c van de diagonaal is (lag + c, c): rijen 2 ... size - 3, kolommen vanaf 2
+                int end = size - 2 - lag;
+                if (end <= 2) {
+                    continue;
+                }
+                matrix.getDiagonal(lag, 0, size - lag, original, 0);
+                for (int c = 2; c < end; c++) {
+                    float temp2 = original[c];
+                    for (int k = -2; k < kernel.length - 2; k++) {
+                        temp2 += (original[c + k] - halfMax) * kernel[k + 2];
+                    }
+                    temp2 = Math.max(temp2, 0);
+                    enhanced[c] = temp2;
+                    if (temp2 > enhancedMax) {
+                        enhancedMax = temp2;
+                    }
                 }
+                matrix.setDiagonal(lag, 2, end - 2, enhanced, 2);
             }
         }
-        return 1;
     }
 
-    public static void dilate(float[][] image, float maxValue) {
-        for (int i = 0; i < image.length; i++) {
-            for (int j = 0; j < image[i].length; j++) {
-                if (image[i][j] == maxValue) {
-                    if (i > 0 && j <= i - 1 && image[i - 1][j] == 0) {
-                        image[i - 1][j] = maxValue * 2;
+    /**
+     * Applies the sharpen kernel to the enhanced diagonals from ... to - 1,
+     * the main diagonal excluded.
+     */
+    private static class LagSharpening extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityMatrix matrix;
+        private final int from;
+        private final int to;
+        /**
+         * Copies of the diagonals before and after the range, made before any
+         * range writes.
+         */
+        private final float[][] before;
+        private final float[][] after;
+        private float newMax;
+
+        LagSharpening(SimilarityMatrix matrix, int from, int to) {
+            this.matrix = matrix;
+            this.from = from;
+            this.to = to;
+            before = copyLags(matrix, from - NEAR_DIAGONAL, from);
+            after = copyLags(matrix, to, to + NEAR_DIAGONAL);
+        }
+
+        @Override
+        protected void compute() {
+            int size = matrix.size();
+            int half = KERNEL_REACH;
+            int width = 2 * half + 1;
+            //Ringbuffer met de versterkte diagonalen lag - 4 ... lag + 4
+            float[][] enhanced = new float[2 * NEAR_DIAGONAL + 1][size];
+            int[] enhancedLag = new int[enhanced.length];
+            Arrays.fill(enhancedLag, -1);
+            float[] sharpened = new float[size];
+            //Per cel van de kernel: de diagonaal en de verschuiving in die diagonaal
+            float[][] sources = new float[width * width][];
+            int[] shifts = new int[width * width];
+            int[] weights = new int[width * width];
+            for (int k = -half; k <= half; k++) {
+                for (int l = -half; l <= half; l++) {
+                    weights[(half + k) * width + half + l] = SHARPEN_KERNEL[half + k][half + l];
+                }
+            }
+
+            for (int lag = Math.max(from, 1); lag < to; lag++) {
+                int end = size - half - lag;
+                if (end <= half) {
+                    continue;
+                }
+                for (int m = Math.max(0, lag - NEAR_DIAGONAL); m <= Math.min(size - 1, lag + NEAR_DIAGONAL); m++) {
+                    int slot = m % enhanced.length;
+                    if (enhancedLag[slot] != m) {
+                        if (m < from) {
+                            System.arraycopy(before[m - (from - NEAR_DIAGONAL)], 0, enhanced[slot], 0, size - m);
+                        } else if (m >= to) {
+                            System.arraycopy(after[m - to], 0, enhanced[slot], 0, size - m);
+                        } else {
+                            matrix.getDiagonal(m, 0, size - m, enhanced[slot], 0);
+                        }
+                        enhancedLag[slot] = m;
                     }
-                    if (j > 0 && image[i][j - 1] == 0) {
-                        image[i][j - 1] = maxValue * 2;
+                }
+                //Cel (lag + c + k, c + l) ligt op diagonaal lag + k - l, of gespiegeld boven de diagonaal
+                for (int k = -half; k <= half; k++) {
+                    for (int l = -half; l <= half; l++) {
+                        int index = (half + k) * width + half + l;
+                        int m = lag + k - l;
+                        if (m >= 0) {
+                            sources[index] = enhanced[m % enhanced.length];
+                            shifts[index] = l;
+                        } else {
+                            sources[index] = enhanced[-m % enhanced.length];
+                            shifts[index] = lag + k;
+                        }
                     }
-                    if (i + 1 < image.length && image[i + 1][j] == 0) {
-                        image[i + 1][j] = maxValue * 2;
+                }
+                for (int c = half; c < end; c++) {
+                    float temp2 = 0;
+                    for (int index = 0; index < weights.length; index++) {
+                        temp2 += sources[index][c + shifts[index]] * weights[index];
                     }
-                    if (j + 1 < image[i].length && image[i][j + 1] == 0) {
-                        image[i][j + 1] = maxValue * 2;
+                    temp2 = Math.max(temp2, 0);
+                    sharpened[c] = temp2;
+                    if (temp2 > newMax) {
+                        newMax = temp2;
                     }
                 }
+                matrix.setDiagonal(lag, half, end - half, sharpened, half);
             }
         }
-        for (int i = 0; i < image.length; i++) {
-            for (int j = 0; j < image[i].length; j++) {
-                if (image[i][j] == maxValue * 2) {
-                    image[i][j] = maxValue;
-                }
+    }
+
+    /**
+     * @return copies of the diagonals at lags from ... to - 1 that are in the
+     * matrix, null for the others.
+     */
+    private static float[][] copyLags(SimilarityMatrix matrix, int from, int to) {
+        float[][] lags = new float[to - from][];
+        for (int lag = Math.max(0, from); lag < Math.min(matrix.size(), to); lag++) {
+            lags[lag - from] = new float[matrix.size() - lag];
+            matrix.getDiagonal(lag, 0, matrix.size() - lag, lags[lag - from], 0);
+        }
+        return lags;
+    }
+
+    /**
+     * @return copies of rows from ... to - 1 that are in the matrix, null for
+     * the others.
+     */
+    private static float[][] copyRows(SimilarityMatrix matrix, int from, int to) {
+        float[][] rows = new float[to - from][];
+        for (int r = Math.max(0, from); r < Math.min(matrix.size(), to); r++) {
+            rows[r - from] = new float[r + 1];
+            matrix.getRow(r, 0, r + 1, rows[r - from], 0);
+        }
+        return rows;
+    }
+
+    /**
+     * Splits the rows of the lower triangle in bands with about as many cells
+     * each, a few per worker thread.
+     *
+     * @return the first row of every band, followed by the amount of rows.
+     */
+    private static int[] bands(int size) {
+        int amount = Math.max(1, Math.min(4 * WorkerPool.getPool().getParallelism(), size / MIN_BAND_ROWS));
+        int[] bounds = new int[amount + 1];
+        for (int b = 0; b <= amount; b++) {
+            bounds[b] = (int) Math.round(size * Math.sqrt((double) b / amount));
+        }
+        return bounds;
+    }
+
+    /**
+     * Splits the diagonals of the lower triangle in ranges with about as many
+     * cells each, the long diagonals near the main diagonal in small ranges.
+     *
+     * @return the first lag of every range, followed by the amount of lags.
+     */
+    private static int[] lagBands(int size) {
+        int[] rows = bands(size);
+        int[] bounds = new int[rows.length];
+        for (int b = 0; b < rows.length; b++) {
+            bounds[b] = size - rows[rows.length - 1 - b];
+        }
+        return bounds;
+    }
+
+    /**
+     * Runs the tasks on the shared worker pool and waits for all of them.
+     */
+    private static void runAll(final List<? extends RecursiveAction> tasks) {
+        WorkerPool.invoke(new RecursiveAction() {
+
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
             }
-        }
+        });
     }
 
-    public static float[][] applySobelKernel(float[][] matrix) {
-        int amountOfFrames = matrix.length;
+    public static SimilarityMatrix applySobelKernel(SimilarityMatrix matrix) {
+        int amountOfFrames = matrix.size();
         int[][] sobelKernelX = {{-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1}};
         int[][] sobelKernelY = {{-1, -2, -1}, {0, 0, 0}, {1, 2, 1}};
 
         float Gx;
         float Gy;
 
-        float[][] temp = new float[amountOfFrames][];
-
-        for (int i = 0; i < amountOfFrames; i++) {
-            temp[i] = new float[i + 1];
-        }
+        SimilarityMatrix temp = matrix.newInstance();
 
         for (int i = 1; i < amountOfFrames - 1; i++) {
             for (int j = 1; j < i - 1; j++) {
-                Gx = matrix[i - 1][j - 1] * sobelKernelX[0][0]
-                        + matrix[i][j - 1] * sobelKernelX[1][0]
-                        + matrix[i + 1][j - 1] * sobelKernelX[2][0]
-                        + matrix[i - 1][j] * sobelKernelX[0][1]
-                        + matrix[i][j] * sobelKernelX[1][1]
-                        + matrix[i + 1][j] * sobelKernelX[2][1]
-                        + matrix[i - 1][j + 1] * sobelKernelX[0][2]
-                        + matrix[i][j + 1] * sobelKernelX[1][2]
-                        + matrix[i + 1][j + 1] * sobelKernelX[2][2];
-                Gy = matrix[i - 1][j - 1] * sobelKernelY[0][0]
-                        + matrix[i][j - 1] * sobelKernelY[1][0]
-                        + matrix[i + 1][j - 1] * sobelKernelY[2][0]
-                        + matrix[i - 1][j] * sobelKernelY[0][1]
-                        + matrix[i][j] * sobelKernelY[1][1]
-                        + matrix[i + 1][j] * sobelKernelY[2][1]
-                        + matrix[i - 1][j + 1] * sobelKernelY[0][2]
-                        + matrix[i][j + 1] * sobelKernelY[1][2]
-                        + matrix[i + 1][j + 1] * sobelKernelY[2][2];
-                temp[i][j] = (float) Math.sqrt((Gx * Gx + Gy * Gy));
+                Gx = matrix.getLower(i - 1, j - 1) * sobelKernelX[0][0]
+                        + matrix.getLower(i, j - 1) * sobelKernelX[1][0]
+                        + matrix.getLower(i + 1, j - 1) * sobelKernelX[2][0]
+                        + matrix.getLower(i - 1, j) * sobelKernelX[0][1]
+                        + matrix.getLower(i, j) * sobelKernelX[1][1]
+                        + matrix.getLower(i + 1, j) * sobelKernelX[2][1]
+                        + matrix.getLower(i - 1, j + 1) * sobelKernelX[0][2]
+                        + matrix.getLower(i, j + 1) * sobelKernelX[1][2]
+                        + matrix.getLower(i + 1, j + 1) * sobelKernelX[2][2];
+                Gy = matrix.getLower(i - 1, j - 1) * sobelKernelY[0][0]
+                        + matrix.getLower(i, j - 1) * sobelKernelY[1][0]
+                        + matrix.getLower(i + 1, j - 1) * sobelKernelY[2][0]
+                        + matrix.getLower(i - 1, j) * sobelKernelY[0][1]
+                        + matrix.getLower(i, j) * sobelKernelY[1][1]
+                        + matrix.getLower(i + 1, j) * sobelKernelY[2][1]
+                        + matrix.getLower(i - 1, j + 1) * sobelKernelY[0][2]
+                        + matrix.getLower(i, j + 1) * sobelKernelY[1][2]
+                        + matrix.getLower(i + 1, j + 1) * sobelKernelY[2][2];
+                temp.setLower(i, j, (float) Math.sqrt((Gx * Gx + Gy * Gy)));
             }
         }
         return temp;
@@ -41,7 +41,7 @@ public class Segmentation {
 
 	public Segmentation() {
 		segmentationSuggestions = new ArrayList();
-		segmentationSuggestions.add(new SegmentationList(null,
+		segmentationSuggestions.add(new SegmentationList(this, null,
 				AASModel.MACRO_LEVEL));
 		macroSegmentationIndex = new IndexReference();
 		mesoSegmentationIndex = new IndexReference();
@@ -392,86 +392,78 @@ public class Segmentation {
 
 	// @TODO:
 	public void addSegmentationPoint(float time, int segmentationLevel) {
-		time = be.tarsos.tarsossegmenter.util.math.Math.round(
-				(float) time, 2);
-		int i = 0;
-		if (Configuration.getBoolean(ConfKey.enable_micro)) {
-			while (i < microSegmentationPoints.size()
-					&& microSegmentationPoints.get(i) < time) {
-				i++;
+		addSegmentationPoints(new float[] { time }, segmentationLevel);
+	}
+
+	/**
+	 * Adds segmentation points to the given level and the levels below it. A
+	 * point that lies too close to a point that is already there is dropped.
+	 * 
+	 * @param times
+	 *            the points, in seconds and in ascending order.
+	 * @param segmentationLevel
+	 *            the highest level the points are added to.
+	 */
+	public void addSegmentationPoints(float[] times, int segmentationLevel) {
+		boolean micro = Configuration.getBoolean(ConfKey.enable_micro);
+		boolean meso = segmentationLevel < AASModel.MICRO_LEVEL
+				&& Configuration.getBoolean(ConfKey.enable_meso);
+		boolean macro = segmentationLevel == AASModel.MACRO_LEVEL
+				&& Configuration.getBoolean(ConfKey.enable_macro);
+		// the points are ascending: every search continues where the previous
+		// one stopped
+		int microIndex = 0;
+		int mesoIndex = 0;
+		int macroIndex = 0;
+		for (int t = 0; t < times.length; t++) {
+			float time = be.tarsos.tarsossegmenter.util.math.Math.round(
+					times[t], 2);
+			if (micro) {
+				microIndex = insertSegmentationPoint(microSegmentationPoints,
+						microIndex, time, 0.5f, 0.5f);
 			}
-			if (i == microSegmentationPoints.size()) {
-				if (microSegmentationPoints.size() > 0) {
-					if (time
-							- microSegmentationPoints
-									.get(microSegmentationPoints.size() - 1) > 0.5f) {
-						microSegmentationPoints.add(time);
-					}
-				} else {
-					microSegmentationPoints.add(time);
-				}
-			} else {
-				if (microSegmentationPoints.get(i) != time) {
-					if (microSegmentationPoints.get(i) - time > 0.5f
-							&& time - microSegmentationPoints.get(i - 1) > 0.5f) {
-						microSegmentationPoints.add(i, time);
-					}
-				}
+			if (meso) {
+				mesoIndex = insertSegmentationPoint(mesoSegmentationPoints,
+						mesoIndex, time, 0.7f, 0.7f);
 			}
-		}
-		if (segmentationLevel < AASModel.MICRO_LEVEL
-				&& Configuration.getBoolean(ConfKey.enable_meso)) {
-			i = 0;
-			while (i < mesoSegmentationPoints.size()
-					&& mesoSegmentationPoints.get(i) < time) {
-				i++;
-			}
-			if (i == mesoSegmentationPoints.size()) {
-				if (mesoSegmentationPoints.size() > 0) {
-					if (time
-							- mesoSegmentationPoints.get(mesoSegmentationPoints
-									.size() - 1) > 0.7f) {
-						mesoSegmentationPoints.add(time);
-					}
-				} else {
-					mesoSegmentationPoints.add(time);
-				}
-			} else {
-				if (mesoSegmentationPoints.get(i) != time) {
-					if (mesoSegmentationPoints.get(i) - time > 0.7f
-							&& time - mesoSegmentationPoints.get(i - 1) > 0.7f) {
-						mesoSegmentationPoints.add(i, time);
-					}
-				}
+			if (macro) {
+				macroIndex = insertSegmentationPoint(macroSegmentationPoints,
+						macroIndex, time, 0.8f, 0.8);
 			}
 		}
-		if (segmentationLevel == AASModel.MACRO_LEVEL
-				&& Configuration.getBoolean(ConfKey.enable_macro)) {
-			i = 0;
-			while (i < macroSegmentationPoints.size()
-					&& macroSegmentationPoints.get(i) < time) {
-				i++;
-			}
-			if (i == macroSegmentationPoints.size()) {
-				if (macroSegmentationPoints.size() > 0) {
-					if (time
-							- macroSegmentationPoints
-									.get(macroSegmentationPoints.size() - 1) > 0.8f) {
-						macroSegmentationPoints.add(time);
-					}
-				} else {
-					macroSegmentationPoints.add(time);
-				}
+	}
 
+	/**
+	 * Inserts a point in a sorted list of points, unless it lies within the
+	 * minimum distance of its neighbours.
+	 * 
+	 * @param from
+	 *            no point before this index is later than the time.
+	 * @return the index of the first point that is not earlier than the time.
+	 */
+	private static int insertSegmentationPoint(ArrayList<Float> points,
+			int from, float time, float minDistance, double minDistanceToNext) {
+		int i = from;
+		while (i < points.size() && points.get(i) < time) {
+			i++;
+		}
+		if (i == points.size()) {
+			if (points.size() > 0) {
+				if (time - points.get(points.size() - 1) > minDistance) {
+					points.add(time);
+				}
 			} else {
-				if (macroSegmentationPoints.get(i) != time) {
-					if (macroSegmentationPoints.get(i) - time > 0.8
-							&& time - macroSegmentationPoints.get(i - 1) > 0.8f) {
-						macroSegmentationPoints.add(i, time);
-					}
+				points.add(time);
+			}
+		} else {
+			if (points.get(i) != time) {
+				if (points.get(i) - time > minDistanceToNext
+						&& time - points.get(i - 1) > minDistance) {
+					points.add(i, time);
 				}
 			}
 		}
+		return i;
 	}
 
 	public ArrayList<Float> getSegmentationPoints(int segmentationLevel) {
@@ -509,6 +501,22 @@ public class Segmentation {
 		Collections.sort(microSegmentationPoints);
 	}
 
+	/**
+	 * Adds an unlabeled segment between every two consecutive segmentation
+	 * points of every level, from macro to micro: the segmentation of a
+	 * boundary detection without a structure detection.
+	 */
+	public void addSegmentsBetweenPoints() {
+		for (int level = AASModel.MACRO_LEVEL; level <= AASModel.MICRO_LEVEL; level++) {
+			ArrayList<Float> points = getSegmentationPoints(level);
+			for (int i = 0; i + 1 < points.size(); i++) {
+				addSegmentationPart(
+						new SegmentationPart(points.get(i), points.get(i + 1)),
+						level);
+			}
+		}
+	}
+
 	public int getSegmentationIndex(int segmentationLevel) {
 		switch (segmentationLevel) {
 		case AASModel.MACRO_LEVEL:
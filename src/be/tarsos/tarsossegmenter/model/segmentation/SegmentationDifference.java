@@ -0,0 +1,144 @@
+package be.tarsos.tarsossegmenter.model.segmentation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The differences between two segmentations of the same audio file on one
+ * level, for instance the segmentation from a quantised similarity matrix
+ * against the one from the float matrix.
+ * </p>
+ * <p>
+ * A boundary is the begin or the end of a segment. A boundary of the
+ * reference is missed when the other segmentation has no boundary within the
+ * tolerance, and the other way around a boundary is added. A label differs
+ * when the segment of the other segmentation at the middle of a reference
+ * segment has another label, or when there is no such segment.
+ * </p>
+ */
+public class SegmentationDifference {
+
+	private final int boundaries;
+	private final int missedBoundaries;
+	private final int addedBoundaries;
+	private final int segments;
+	private final int differentLabels;
+
+	/**
+	 * @param reference
+	 *            the reference segmentation.
+	 * @param other
+	 *            the segmentation to compare.
+	 * @param segmentationLevel
+	 *            the level to compare.
+	 * @param tolerance
+	 *            how far apart two boundaries may be, in seconds.
+	 */
+	public SegmentationDifference(Segmentation reference, Segmentation other,
+			int segmentationLevel, float tolerance) {
+		ArrayList<Segment> referenceSegments = reference
+				.getSegments(segmentationLevel);
+		ArrayList<Segment> otherSegments = other.getSegments(segmentationLevel);
+		float[] referenceBoundaries = boundaries(referenceSegments);
+		float[] otherBoundaries = boundaries(otherSegments);
+		boundaries = referenceBoundaries.length;
+		missedBoundaries = unmatched(referenceBoundaries, otherBoundaries,
+				tolerance);
+		addedBoundaries = unmatched(otherBoundaries, referenceBoundaries,
+				tolerance);
+
+		segments = referenceSegments.size();
+		int different = 0;
+		for (Segment segment : referenceSegments) {
+			float middle = (segment.startTime + segment.endTime) / 2;
+			Segment found = null;
+			for (Segment candidate : otherSegments) {
+				if (candidate.startTime <= middle && middle < candidate.endTime) {
+					found = candidate;
+					break;
+				}
+			}
+			if (found == null || (found.label == null ? segment.label != null
+					: !found.label.equals(segment.label))) {
+				different++;
+			}
+		}
+		differentLabels = different;
+	}
+
+	/**
+	 * @return the begins and ends of the segments, sorted and without
+	 *         duplicates.
+	 */
+	private static float[] boundaries(ArrayList<Segment> segments) {
+		float[] times = new float[2 * segments.size()];
+		for (int i = 0; i < segments.size(); i++) {
+			times[2 * i] = segments.get(i).startTime;
+			times[2 * i + 1] = segments.get(i).endTime;
+		}
+		Arrays.sort(times);
+		int amount = 0;
+		for (int i = 0; i < times.length; i++) {
+			if (amount == 0 || times[i] != times[amount - 1]) {
+				times[amount++] = times[i];
+			}
+		}
+		return Arrays.copyOf(times, amount);
+	}
+
+	/**
+	 * @return the amount of the given boundaries without a boundary in the
+	 *         other sorted boundaries within the tolerance.
+	 */
+	private static int unmatched(float[] boundaries, float[] others,
+			float tolerance) {
+		int unmatched = 0;
+		int o = 0;
+		for (float boundary : boundaries) {
+			while (o < others.length && others[o] < boundary - tolerance) {
+				o++;
+			}
+			if (o == others.length || others[o] > boundary + tolerance) {
+				unmatched++;
+			}
+		}
+		return unmatched;
+	}
+
+	public int getBoundaries() {
+		return boundaries;
+	}
+
+	public int getMissedBoundaries() {
+		return missedBoundaries;
+	}
+
+	public int getAddedBoundaries() {
+		return addedBoundaries;
+	}
+
+	public int getSegments() {
+		return segments;
+	}
+
+	public int getDifferentLabels() {
+		return differentLabels;
+	}
+
+	/**
+	 * @return true if the segmentations have the same boundaries and labels.
+	 */
+	public boolean isEqual() {
+		return missedBoundaries == 0 && addedBoundaries == 0
+				&& differentLabels == 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d of %d boundaries missed, %d added, %d of %d labels differ",
+				missedBoundaries, boundaries, addedBoundaries, differentLabels,
+				segments);
+	}
+}
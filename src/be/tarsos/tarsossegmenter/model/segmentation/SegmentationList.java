@@ -24,9 +24,19 @@ public class SegmentationList extends ArrayList<SegmentationPart> {
     private float begin, end;
     private int segmentationLevel;
     private SegmentationPart parent;
+    private Segmentation segmentation;
 
+    /**
+     * Creates a sub segmentation of a segmentation part that is already in a
+     * segmentation list, it belongs to the segmentation of that list.
+     */
     public SegmentationList(SegmentationPart parent, int segmentationLevel) {
+        this(parent.getContainer().getSegmentation(), parent, segmentationLevel);
+    }
+
+    public SegmentationList(Segmentation segmentation, SegmentationPart parent, int segmentationLevel) {
         super();
+        this.segmentation = segmentation;
         this.parent = parent;
         this.segmentationLevel = segmentationLevel;
         labelMap = new HashMap();
@@ -126,7 +136,7 @@ public class SegmentationList extends ArrayList<SegmentationPart> {
     @Override
     public boolean add(SegmentationPart newSP) {
         //@TODO: labels -> map
-        newSP.setIndexReference(AASModel.getInstance().getSegmentation().getSegmentationIndexReference(segmentationLevel + 1));
+        newSP.setIndexReference(segmentation.getSegmentationIndexReference(segmentationLevel + 1));
         boolean added = super.add(newSP);
         if (added) {
             newSP.setSegmentationContainer(this);
@@ -322,4 +332,8 @@ public class SegmentationList extends ArrayList<SegmentationPart> {
         return parent;
     }
 
+    public Segmentation getSegmentation() {
+        return segmentation;
+    }
+
 }
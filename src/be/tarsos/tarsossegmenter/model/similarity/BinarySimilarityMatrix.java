@@ -0,0 +1,254 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+import be.tarsos.tarsossegmenter.util.concurrent.WorkerPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * A similarity matrix of which every cell is 0 or 1, one bit per cell. Any
+ * value other than 0 is stored as 1.
+ * </p>
+ * <p>
+ * The bits are kept diagonal after diagonal: cell (lag + k, k) is bit k of
+ * the diagonal at the given lag, and every diagonal starts at a new word. Cell
+ * k of every diagonal is in word k / 64 of its diagonal, so the cells next to
+ * each other in a row or a column are in the same word of the neighbouring
+ * diagonals. Dilating the matrix is shifting and combining the words of
+ * neighbouring diagonals, and counting the ones along a diagonal is counting
+ * the bits of its words.
+ * </p>
+ * <p>
+ * Cells of different rows share words, so unlike the other matrices the rows
+ * can not be written from different threads at the same time.
+ * </p>
+ */
+public class BinarySimilarityMatrix extends SimilarityMatrix {
+
+    /**
+     * The amount of diagonals a task dilates or fills at least.
+     */
+    private static final int MIN_TASK_LAGS = 64;
+    /**
+     * The index of the first word of every diagonal, and the amount of words.
+     */
+    private final int[] lagOffsets;
+    private long[] words;
+
+    public BinarySimilarityMatrix(int size) {
+        super(size);
+        lagOffsets = new int[size + 1];
+        long offset = 0;
+        for (int lag = 0; lag < size; lag++) {
+            lagOffsets[lag] = (int) offset;
+            offset += (size - lag + 63) >> 6;
+            if (offset > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("A binary similarity matrix can not hold " + size + " frames");
+            }
+        }
+        lagOffsets[size] = (int) offset;
+        words = new long[(int) offset];
+    }
+
+    /**
+     * Creates a binary matrix in which the cells of the given matrix that are
+     * larger than the threshold are 1. The diagonals are filled in parallel
+     * on the shared worker pool.
+     *
+     * @param matrix the matrix to threshold.
+     * @param threshold the largest value that is 0.
+     * @return a new binary matrix.
+     */
+    public static BinarySimilarityMatrix threshold(final SimilarityMatrix matrix, final float threshold) {
+        final BinarySimilarityMatrix binary = new BinarySimilarityMatrix(matrix.size());
+        binary.forAllLags(new LagTask() {
+
+            @Override
+            protected void compute(int from, int to) {
+                float[] diagonal = new float[matrix.size()];
+                for (int lag = from; lag < to; lag++) {
+                    int length = matrix.size() - lag;
+                    matrix.getDiagonal(lag, 0, length, diagonal, 0);
+                    int offset = binary.lagOffsets[lag];
+                    for (int k = 0; k < length; k++) {
+                        if (diagonal[k] > threshold) {
+                            binary.words[offset + (k >> 6)] |= 1L << k;
+                        }
+                    }
+                }
+            }
+        });
+        return binary;
+    }
+
+    @Override
+    public float getLower(int row, int column) {
+        return (words[lagOffsets[row - column] + (column >> 6)] >>> column & 1L) == 0 ? 0 : 1;
+    }
+
+    @Override
+    public void setLower(int row, int column, float value) {
+        int index = lagOffsets[row - column] + (column >> 6);
+        if (value != 0) {
+            words[index] |= 1L << column;
+        } else {
+            words[index] &= ~(1L << column);
+        }
+    }
+
+    @Override
+    public SimilarityMatrix newInstance() {
+        return new BinarySimilarityMatrix(size);
+    }
+
+    @Override
+    public boolean isDiagonalMajor() {
+        return true;
+    }
+
+    @Override
+    public void getDiagonal(int lag, int from, int length, float[] target, int offset) {
+        int first = lagOffsets[lag];
+        for (int k = 0; k < length; k++) {
+            int column = from + k;
+            target[offset + k] = (words[first + (column >> 6)] >>> column & 1L) == 0 ? 0 : 1;
+        }
+    }
+
+    @Override
+    public float max() {
+        for (long word : words) {
+            if (word != 0) {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public SimilarityMatrix copy() {
+        BinarySimilarityMatrix copy = new BinarySimilarityMatrix(size);
+        System.arraycopy(words, 0, copy.words, 0, words.length);
+        return copy;
+    }
+
+    /**
+     * Counts the ones in cells (row + k, column + k) for k = 0 ... length -
+     * 1, the upper half of the matrix is mirrored. Cells outside the matrix
+     * are not counted.
+     *
+     * @param row the row of the first cell, &gt;= 0.
+     * @param column the column of the first cell, &gt;= 0.
+     * @param length the amount of cells.
+     * @return the amount of ones.
+     */
+    public int count(int row, int column, int length) {
+        int from = Math.min(row, column);
+        int lag = Math.max(row, column) - from;
+        if (lag >= size) {
+            return 0;
+        }
+        int to = from + Math.min(length, size - lag - from);
+        if (to <= from) {
+            return 0;
+        }
+        int offset = lagOffsets[lag];
+        int first = from >> 6;
+        int last = (to - 1) >> 6;
+        // the shifts only use the lowest 6 bits of the distance
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            return Long.bitCount(words[offset + first] & firstMask & lastMask);
+        }
+        int count = Long.bitCount(words[offset + first] & firstMask);
+        for (int w = first + 1; w < last; w++) {
+            count += Long.bitCount(words[offset + w]);
+        }
+        return count + Long.bitCount(words[offset + last] & lastMask);
+    }
+
+    /**
+     * Sets every 0 next to a 1 (above, below, left or right of it in the
+     * lower half) to 1. Every diagonal is the OR of itself and its two
+     * neighbouring diagonals, shifted by one cell where a row or column
+     * neighbour is one cell further or back. The diagonals are dilated in
+     * parallel into a new array of words.
+     */
+    public void dilate() {
+        final long[] source = words;
+        final long[] target = new long[source.length];
+        forAllLags(new LagTask() {
+
+            @Override
+            protected void compute(int from, int to) {
+                for (int lag = from; lag < to; lag++) {
+                    int offset = lagOffsets[lag];
+                    int amount = lagOffsets[lag + 1] - offset;
+                    for (int w = 0; w < amount; w++) {
+                        long word = source[offset + w];
+                        if (lag > 0) {
+                            //(lag + k - 1, k) erboven en (lag + k, k + 1) rechts: diagonaal lag - 1, cel k en k + 1
+                            int above = lagOffsets[lag - 1] + w;
+                            long next = w + 1 < lagOffsets[lag] - lagOffsets[lag - 1] ? source[above + 1] : 0;
+                            word |= source[above] | source[above] >>> 1 | next << 63;
+                        }
+                        if (lag + 1 < size) {
+                            //(lag + k + 1, k) eronder en (lag + k, k - 1) links: diagonaal lag + 1, cel k en k - 1
+                            int below = lagOffsets[lag + 1] + w;
+                            boolean inside = w < lagOffsets[lag + 2] - lagOffsets[lag + 1];
+                            long current = inside ? source[below] : 0;
+                            long previous = w > 0 ? source[below - 1] : 0;
+                            word |= current | current << 1 | previous >>> 63;
+                        }
+                        target[offset + w] = word;
+                    }
+                    //Cellen voorbij het einde van de diagonaal blijven 0
+                    int length = size - lag;
+                    if ((length & 63) != 0) {
+                        target[offset + amount - 1] &= -1L >>> -length;
+                    }
+                }
+            }
+        });
+        words = target;
+    }
+
+    /**
+     * Runs a task for every diagonal, in parallel ranges of diagonals.
+     */
+    private void forAllLags(LagTask task) {
+        int ranges = Math.max(1, Math.min(4 * WorkerPool.getPool().getParallelism(), size / MIN_TASK_LAGS));
+        final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (int r = 0; r < ranges; r++) {
+            // the diagonals get shorter: ranges of about as many cells each
+            final int from = (int) Math.round(size * (1 - Math.sqrt(1 - (double) r / ranges)));
+            final int to = (int) Math.round(size * (1 - Math.sqrt(1 - (double) (r + 1) / ranges)));
+            final LagTask range = task;
+            tasks.add(new RecursiveAction() {
+
+                @Override
+                protected void compute() {
+                    range.compute(from, to);
+                }
+            });
+        }
+        WorkerPool.invoke(new RecursiveAction() {
+
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Work on the diagonals from ... to - 1.
+     */
+    private abstract static class LagTask {
+
+        protected abstract void compute(int from, int to);
+    }
+}
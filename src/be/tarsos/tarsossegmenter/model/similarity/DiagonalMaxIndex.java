@@ -0,0 +1,120 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+/**
+ * <p>
+ * A coarse copy of a similarity matrix to bound sums along its diagonals
+ * cheaply, before they are calculated exactly.
+ * </p>
+ * <p>
+ * The diagonals of the lower half are grouped per {@link #LAGS_PER_GROUP}
+ * lags and cut in blocks of {@link #CELLS_PER_BLOCK} cells. Every block keeps
+ * the largest cell of its diagonals, never less than 0, and the blocks of a
+ * group are accumulated. A piece of any diagonal of a group is then bounded
+ * by the blocks it passes through, with two lookups.
+ * </p>
+ * <p>
+ * A group only has blocks as far as its longest diagonal reaches, so the
+ * groups form a triangle like the matrix. The sums are accumulated in double
+ * precision and stored as floats, a bound allows for their rounding. The
+ * index holds one float per sixteen cells of the lower half: a sixteenth of
+ * a float matrix, twice a binary matrix of one bit per cell. It is a
+ * snapshot: later changes to the matrix are not seen.
+ * </p>
+ */
+public class DiagonalMaxIndex {
+
+    public static final int LAGS_PER_GROUP = 4;
+    public static final int CELLS_PER_BLOCK = 4;
+    private final int size;
+    /**
+     * Per group of lags: the summed maxima of the blocks before every block,
+     * up to the end of the longest diagonal of the group.
+     */
+    private final float[][] sums;
+    private final float largestMagnitude;
+
+    /**
+     * @param matrix the matrix to index.
+     */
+    public DiagonalMaxIndex(SimilarityMatrix matrix) {
+        size = matrix.size();
+        int groups = (size + LAGS_PER_GROUP - 1) / LAGS_PER_GROUP;
+        sums = new float[groups][];
+        for (int g = 0; g < groups; g++) {
+            // the first lag of a group has its longest diagonal
+            int length = size - g * LAGS_PER_GROUP;
+            sums[g] = new float[(length + CELLS_PER_BLOCK - 1) / CELLS_PER_BLOCK + 1];
+        }
+        float magnitude = 0;
+        float[] cells = new float[size];
+        if (matrix.isDiagonalMajor()) {
+            for (int lag = 0; lag < size; lag++) {
+                float[] group = sums[lag / LAGS_PER_GROUP];
+                matrix.getDiagonal(lag, 0, size - lag, cells, 0);
+                for (int k = 0; k < size - lag; k++) {
+                    int block = k / CELLS_PER_BLOCK + 1;
+                    if (cells[k] > group[block]) {
+                        group[block] = cells[k];
+                    }
+                    magnitude = Math.max(magnitude, Math.abs(cells[k]));
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                matrix.getRow(i, 0, i + 1, cells, 0);
+                // cell (i, j) is cell j of the diagonal at lag i - j
+                for (int j = 0; j <= i; j++) {
+                    float[] group = sums[(i - j) / LAGS_PER_GROUP];
+                    int block = j / CELLS_PER_BLOCK + 1;
+                    if (cells[j] > group[block]) {
+                        group[block] = cells[j];
+                    }
+                    magnitude = Math.max(magnitude, Math.abs(cells[j]));
+                }
+            }
+        }
+        for (float[] group : sums) {
+            double sum = 0;
+            for (int block = 1; block < group.length; block++) {
+                sum += CELLS_PER_BLOCK * (double) group[block];
+                group[block] = (float) sum;
+            }
+        }
+        largestMagnitude = magnitude;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the largest absolute value of the cells.
+     */
+    public float getLargestMagnitude() {
+        return largestMagnitude;
+    }
+
+    /**
+     * Bounds the sum of cells (lag + k, k) for k = from ... to - 1, for every
+     * lag in the group of the given lag. Cells outside the matrix are not
+     * counted.
+     *
+     * @param lag a lag, &gt;= 0.
+     * @param from the first cell of the diagonal.
+     * @param to the cell after the last one.
+     * @return an upper bound of the sum of the cells, &gt;= 0.
+     */
+    public double bound(int lag, int from, int to) {
+        from = Math.max(from, 0);
+        to = Math.min(to, size);
+        if (lag >= size || from >= to) {
+            return 0;
+        }
+        float[] group = sums[lag / LAGS_PER_GROUP];
+        // the diagonals of the group end before the blocks do
+        float high = group[Math.min((to - 1) / CELLS_PER_BLOCK + 1, group.length - 1)];
+        float low = group[Math.min(from / CELLS_PER_BLOCK, group.length - 1)];
+        // both stored sums are within half an ulp of the high one
+        return (double) high - low + Math.ulp(high);
+    }
+}
@@ -0,0 +1,94 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+/**
+ * <p>
+ * Cumulative sums along the diagonals of a similarity matrix, so the sum of
+ * any piece of a diagonal takes two lookups instead of a walk along it.
+ * </p>
+ * <p>
+ * The sums are kept in a matrix of the same size and storage type as the
+ * indexed one: cell (lag + k, k) holds the sum of cells (lag, 0) ... (lag + k,
+ * k) of the diagonal at the given lag. Walking down a diagonal is walking one
+ * row and one column further, so the index is built row by row from the sums
+ * of the previous row, or diagonal by diagonal if the matrix stores its
+ * diagonals contiguously. The sums are accumulated in double precision, only
+ * the stored sums are single precision. The index is a snapshot: later changes to
+ * the matrix are not seen.
+ * </p>
+ * <p>
+ * A binary or quantised matrix can not hold the sums. The ones of a binary
+ * matrix are counted with {@link BinarySimilarityMatrix#count} instead.
+ * </p>
+ */
+public class DiagonalSumIndex {
+
+    private final SimilarityMatrix sums;
+
+    /**
+     * @param matrix the matrix to index.
+     */
+    public DiagonalSumIndex(SimilarityMatrix matrix) {
+        int size = matrix.size();
+        sums = matrix.newInstance();
+        if (matrix.isDiagonalMajor()) {
+            float[] diagonal = new float[size];
+            for (int lag = 0; lag < size; lag++) {
+                int length = size - lag;
+                matrix.getDiagonal(lag, 0, length, diagonal, 0);
+                double sum = 0;
+                for (int k = 0; k < length; k++) {
+                    sum += diagonal[k];
+                    diagonal[k] = (float) sum;
+                }
+                sums.setDiagonal(lag, 0, length, diagonal, 0);
+            }
+            return;
+        }
+        float[] row = new float[size];
+        double[] previous = new double[size];
+        double[] current = new double[size];
+        for (int i = 0; i < size; i++) {
+            matrix.getRow(i, 0, i + 1, row, 0);
+            // cell (i, 0) starts the diagonal at lag i
+            current[0] = row[0];
+            for (int j = 1; j <= i; j++) {
+                current[j] = previous[j - 1] + row[j];
+            }
+            for (int j = 0; j <= i; j++) {
+                row[j] = (float) current[j];
+            }
+            sums.setRow(i, 0, i + 1, row, 0);
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+    }
+
+    public int size() {
+        return sums.size();
+    }
+
+    /**
+     * Sums cells (row + k, column + k) for k = 0 ... length - 1, the upper
+     * half of the matrix is mirrored. Cells outside the matrix are not
+     * counted.
+     *
+     * @param row the row of the first cell, &gt;= 0.
+     * @param column the column of the first cell, &gt;= 0.
+     * @param length the amount of cells.
+     * @return the sum of the cells.
+     */
+    public double sum(int row, int column, int length) {
+        int from = Math.min(row, column);
+        int lag = Math.max(row, column) - from;
+        length = Math.min(length, sums.size() - lag - from);
+        if (length <= 0) {
+            return 0;
+        }
+        double sum = sums.getLower(lag + from + length - 1, from + length - 1);
+        if (from > 0) {
+            sum -= sums.getLower(lag + from - 1, from - 1);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,125 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+/**
+ * <p>
+ * A similarity matrix that keeps every diagonal of the lower triangle in an
+ * array of its own: the diagonal at a lag holds cells (lag + k, k) for k = 0
+ * ... size - lag - 1, lag 0 is the main diagonal.
+ * </p>
+ * <p>
+ * Walking down a diagonal is walking through one array, so the steps that
+ * follow diagonals (the diagonal kernel, the diagonal sums of the structure
+ * detection) read and write contiguous memory. Walking along a row jumps from
+ * diagonal to diagonal instead, row after row processing is better done on a
+ * {@link PackedSimilarityMatrix}.
+ * </p>
+ */
+public class LagSimilarityMatrix extends SimilarityMatrix {
+
+    private final float[][] lags;
+
+    public LagSimilarityMatrix(int size) {
+        super(size);
+        lags = new float[size][];
+        for (int lag = 0; lag < size; lag++) {
+            lags[lag] = new float[size - lag];
+        }
+    }
+
+    /**
+     * Copies any similarity matrix into a new matrix that is stored diagonal
+     * by diagonal.
+     *
+     * @param matrix the matrix to copy.
+     * @return a new matrix with the same cells.
+     */
+    public static LagSimilarityMatrix copyOf(SimilarityMatrix matrix) {
+        LagSimilarityMatrix copy = new LagSimilarityMatrix(matrix.size());
+        for (int lag = 0; lag < copy.size; lag++) {
+            matrix.getDiagonal(lag, 0, copy.size - lag, copy.lags[lag], 0);
+        }
+        return copy;
+    }
+
+    /**
+     * @return a copy of this matrix that is stored row by row.
+     */
+    public PackedSimilarityMatrix toPacked() {
+        PackedSimilarityMatrix packed = new PackedSimilarityMatrix(size);
+        float[] row = new float[size];
+        for (int i = 0; i < size; i++) {
+            getRow(i, 0, i + 1, row, 0);
+            packed.setRow(i, 0, i + 1, row, 0);
+        }
+        return packed;
+    }
+
+    @Override
+    public float getLower(int row, int column) {
+        return lags[row - column][column];
+    }
+
+    @Override
+    public void setLower(int row, int column, float value) {
+        lags[row - column][column] = value;
+    }
+
+    @Override
+    public SimilarityMatrix newInstance() {
+        return new LagSimilarityMatrix(size);
+    }
+
+    @Override
+    public boolean isDiagonalMajor() {
+        return true;
+    }
+
+    @Override
+    public void getRow(int row, int from, int length, float[] target, int offset) {
+        // cell (row, from + k) is on the diagonal at lag row - from - k
+        int lag = row - from;
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = lags[lag - k][from + k];
+        }
+    }
+
+    @Override
+    public void setRow(int row, int from, int length, float[] source, int offset) {
+        int lag = row - from;
+        for (int k = 0; k < length; k++) {
+            lags[lag - k][from + k] = source[offset + k];
+        }
+    }
+
+    @Override
+    public void getDiagonal(int lag, int from, int length, float[] target, int offset) {
+        System.arraycopy(lags[lag], from, target, offset, length);
+    }
+
+    @Override
+    public void setDiagonal(int lag, int from, int length, float[] source, int offset) {
+        System.arraycopy(source, offset, lags[lag], from, length);
+    }
+
+    @Override
+    public float max() {
+        float max = 0;
+        for (float[] diagonal : lags) {
+            for (int k = 0; k < diagonal.length; k++) {
+                if (diagonal[k] > max) {
+                    max = diagonal[k];
+                }
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public SimilarityMatrix copy() {
+        LagSimilarityMatrix copy = new LagSimilarityMatrix(size);
+        for (int lag = 0; lag < size; lag++) {
+            System.arraycopy(lags[lag], 0, copy.lags[lag], 0, size - lag);
+        }
+        return copy;
+    }
+}
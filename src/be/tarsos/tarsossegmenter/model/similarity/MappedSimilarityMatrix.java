@@ -0,0 +1,141 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * A similarity matrix kept in a memory-mapped file instead of on the heap, for
+ * recordings of which the matrix does not fit in memory.
+ * </p>
+ * <p>
+ * The lower triangle is stored as square tiles of {@link #TILE} x
+ * {@link #TILE} cells, tile row after tile row, each tile row-major. Cells
+ * that are close in the matrix, in any direction, are close in the file, so
+ * the kernels of the preprocessing and the novelty score touch few pages. The
+ * file is mapped in chunks of whole tiles, a single mapping is limited to 2
+ * GB.
+ * </p>
+ * <p>
+ * The file is created in the given directory and removed as soon as the
+ * operating system allows it; the mapping stays valid until the matrix is
+ * garbage collected.
+ * </p>
+ */
+public class MappedSimilarityMatrix extends SimilarityMatrix {
+
+    /**
+     * The side of a tile: 64 x 64 floats fill four pages of 4 KB.
+     */
+    public static final int TILE = 64;
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE_CELLS = TILE * TILE;
+    /**
+     * A chunk holds 2^13 tiles or 2^25 cells: 128 MB.
+     */
+    private static final int CHUNK_SHIFT = 25;
+    private static final int CHUNK_CELLS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_TILES = CHUNK_CELLS / TILE_CELLS;
+
+    private final File directory;
+    private final FloatBuffer[] chunks;
+
+    /**
+     * Creates a zero filled matrix in a new file in the given directory.
+     *
+     * @param size the amount of frames.
+     * @param directory a writable directory.
+     */
+    public MappedSimilarityMatrix(int size, File directory) {
+        super(size);
+        this.directory = directory;
+        long tiles = (size + TILE - 1) / TILE;
+        long tileCount = tiles * (tiles + 1) / 2;
+        chunks = new FloatBuffer[(int) ((tileCount + CHUNK_TILES - 1) / CHUNK_TILES)];
+
+        File file = null;
+        try {
+            file = File.createTempFile("similarity", ".matrix", directory);
+            file.deleteOnExit();
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                for (int c = 0; c < chunks.length; c++) {
+                    long firstTile = (long) c * CHUNK_TILES;
+                    long chunkTiles = Math.min(CHUNK_TILES, tileCount - firstTile);
+                    // mapping beyond the end grows the file, the new part reads as zeros
+                    chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, firstTile * TILE_CELLS * 4,
+                            chunkTiles * TILE_CELLS * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                }
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map a similarity matrix of " + size + " frames in " + directory, e);
+        }
+        file.delete();
+    }
+
+    /**
+     * @return the position of a cell in the file, counted in floats.
+     */
+    private static long index(int row, int column) {
+        long tileRow = row >> TILE_SHIFT;
+        long tile = tileRow * (tileRow + 1) / 2 + (column >> TILE_SHIFT);
+        return tile * TILE_CELLS + ((row & (TILE - 1)) << TILE_SHIFT) + (column & (TILE - 1));
+    }
+
+    @Override
+    public float getLower(int row, int column) {
+        long index = index(row, column);
+        return chunks[(int) (index >> CHUNK_SHIFT)].get((int) (index & (CHUNK_CELLS - 1)));
+    }
+
+    @Override
+    public void setLower(int row, int column, float value) {
+        long index = index(row, column);
+        chunks[(int) (index >> CHUNK_SHIFT)].put((int) (index & (CHUNK_CELLS - 1)), value);
+    }
+
+    @Override
+    public SimilarityMatrix newInstance() {
+        return new MappedSimilarityMatrix(size, directory);
+    }
+
+    @Override
+    public void getRow(int row, int from, int length, float[] target, int offset) {
+        // a row crosses a tile every TILE columns, within a tile it is contiguous
+        int k = 0;
+        while (k < length) {
+            int column = from + k;
+            int run = Math.min(length - k, TILE - (column & (TILE - 1)));
+            long index = index(row, column);
+            FloatBuffer chunk = chunks[(int) (index >> CHUNK_SHIFT)];
+            int position = (int) (index & (CHUNK_CELLS - 1));
+            for (int r = 0; r < run; r++) {
+                target[offset + k + r] = chunk.get(position + r);
+            }
+            k += run;
+        }
+    }
+
+    @Override
+    public void setRow(int row, int from, int length, float[] source, int offset) {
+        int k = 0;
+        while (k < length) {
+            int column = from + k;
+            int run = Math.min(length - k, TILE - (column & (TILE - 1)));
+            long index = index(row, column);
+            FloatBuffer chunk = chunks[(int) (index >> CHUNK_SHIFT)];
+            int position = (int) (index & (CHUNK_CELLS - 1));
+            for (int r = 0; r < run; r++) {
+                chunk.put(position + r, source[offset + k + r]);
+            }
+            k += run;
+        }
+    }
+}
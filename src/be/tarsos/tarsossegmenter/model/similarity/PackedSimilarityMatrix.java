@@ -0,0 +1,94 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+/**
+ * A similarity matrix that keeps the lower triangle in one contiguous float
+ * array, row after row: row i starts at index i * (i + 1) / 2 and holds i + 1
+ * cells.
+ */
+public class PackedSimilarityMatrix extends SimilarityMatrix {
+
+    private final float[] data;
+
+    public PackedSimilarityMatrix(int size) {
+        super(size);
+        long length = (long) size * (size + 1) / 2;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("A packed similarity matrix can not hold " + size + " frames");
+        }
+        data = new float[(int) length];
+    }
+
+    /**
+     * @return the index of the first cell of a row in the packed array.
+     */
+    public static int rowOffset(int row) {
+        return (int) ((long) row * (row + 1) / 2);
+    }
+
+    @Override
+    public float getLower(int row, int column) {
+        return data[rowOffset(row) + column];
+    }
+
+    @Override
+    public void setLower(int row, int column, float value) {
+        data[rowOffset(row) + column] = value;
+    }
+
+    @Override
+    public SimilarityMatrix newInstance() {
+        return new PackedSimilarityMatrix(size);
+    }
+
+    @Override
+    public void getRow(int row, int from, int length, float[] target, int offset) {
+        System.arraycopy(data, rowOffset(row) + from, target, offset, length);
+    }
+
+    @Override
+    public void setRow(int row, int from, int length, float[] source, int offset) {
+        System.arraycopy(source, offset, data, rowOffset(row) + from, length);
+    }
+
+    @Override
+    public void getDiagonal(int lag, int from, int length, float[] target, int offset) {
+        // walking down a diagonal, the next cell is one row further: skip the
+        // rest of this row and the beginning of the next one
+        int row = lag + from;
+        int index = rowOffset(row) + from;
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = data[index];
+            row++;
+            index += row + 1;
+        }
+    }
+
+    @Override
+    public void setDiagonal(int lag, int from, int length, float[] source, int offset) {
+        int row = lag + from;
+        int index = rowOffset(row) + from;
+        for (int k = 0; k < length; k++) {
+            data[index] = source[offset + k];
+            row++;
+            index += row + 1;
+        }
+    }
+
+    @Override
+    public float max() {
+        float max = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] > max) {
+                max = data[i];
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public SimilarityMatrix copy() {
+        PackedSimilarityMatrix copy = new PackedSimilarityMatrix(size);
+        System.arraycopy(data, 0, copy.data, 0, data.length);
+        return copy;
+    }
+}
@@ -0,0 +1,194 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+/**
+ * <p>
+ * A similarity matrix that keeps every cell as a fixed-point value of 16 or 8
+ * bits instead of a float, row after row like a
+ * {@link PackedSimilarityMatrix}. It takes half or a quarter of the memory.
+ * </p>
+ * <p>
+ * The values 0 ... maxValue are spread evenly over the 2^bits codes, values
+ * outside are clamped and values in between are rounded to the nearest code.
+ * Every code is decoded through a table, so 0 and maxValue are read back
+ * exactly. With 16 bits a similarity scaled to 1000 is kept to within 0.008,
+ * with 8 bits to within 2, about the resolution of a grey value.
+ * </p>
+ * <p>
+ * The matrix is meant for the similarities themselves: steps that produce
+ * values beyond maxValue, like the preprocessing, work on a float copy (see
+ * {@link #toPacked()}). While that copy exists an analysis holds 6 or 5
+ * bytes per cell instead of 8, a quarter or three eighths less; only the
+ * matrix that is kept between analyses takes half or a quarter.
+ * </p>
+ */
+public class QuantisedSimilarityMatrix extends SimilarityMatrix {
+
+    private final int bits;
+    private final float maxValue;
+    private final int levels;
+    private final double scale;
+    private final float[] values;
+    private final short[] shorts;
+    private final byte[] bytes;
+
+    /**
+     * @param size the amount of frames.
+     * @param bits 16 or 8.
+     * @param maxValue the largest value that is kept.
+     */
+    public QuantisedSimilarityMatrix(int size, int bits, float maxValue) {
+        super(size);
+        if (bits != 16 && bits != 8) {
+            throw new IllegalArgumentException("A quantised similarity matrix keeps 16 or 8 bits per cell, not " + bits);
+        }
+        if (!(maxValue > 0)) {
+            throw new IllegalArgumentException("The largest value of a quantised similarity matrix must be positive");
+        }
+        long length = (long) size * (size + 1) / 2;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("A quantised similarity matrix can not hold " + size + " frames");
+        }
+        this.bits = bits;
+        this.maxValue = maxValue;
+        levels = (1 << bits) - 1;
+        scale = (double) levels / maxValue;
+        values = new float[levels + 1];
+        for (int code = 0; code <= levels; code++) {
+            values[code] = (float) ((double) code * maxValue / levels);
+        }
+        shorts = bits == 16 ? new short[(int) length] : null;
+        bytes = bits == 8 ? new byte[(int) length] : null;
+    }
+
+    /**
+     * @return the amount of bits per cell.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * @return the largest value that is kept.
+     */
+    public float getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * @return the largest difference between a value in 0 ... maxValue and
+     * the value that is read back.
+     */
+    public float getResolution() {
+        return maxValue / levels / 2;
+    }
+
+    /**
+     * @return a float copy of this matrix, stored row by row.
+     */
+    public PackedSimilarityMatrix toPacked() {
+        PackedSimilarityMatrix packed = new PackedSimilarityMatrix(size);
+        float[] row = new float[size];
+        for (int i = 0; i < size; i++) {
+            getRow(i, 0, i + 1, row, 0);
+            packed.setRow(i, 0, i + 1, row, 0);
+        }
+        return packed;
+    }
+
+    private int encode(float value) {
+        if (!(value > 0)) {
+            return 0;
+        }
+        return value >= maxValue ? levels : (int) (value * scale + 0.5);
+    }
+
+    private float decode(int index) {
+        return bits == 16 ? values[shorts[index] & 0xFFFF] : values[bytes[index] & 0xFF];
+    }
+
+    @Override
+    public float getLower(int row, int column) {
+        return decode(PackedSimilarityMatrix.rowOffset(row) + column);
+    }
+
+    @Override
+    public void setLower(int row, int column, float value) {
+        int index = PackedSimilarityMatrix.rowOffset(row) + column;
+        if (bits == 16) {
+            shorts[index] = (short) encode(value);
+        } else {
+            bytes[index] = (byte) encode(value);
+        }
+    }
+
+    @Override
+    public SimilarityMatrix newInstance() {
+        return new QuantisedSimilarityMatrix(size, bits, maxValue);
+    }
+
+    @Override
+    public void getRow(int row, int from, int length, float[] target, int offset) {
+        int index = PackedSimilarityMatrix.rowOffset(row) + from;
+        if (bits == 16) {
+            for (int k = 0; k < length; k++) {
+                target[offset + k] = values[shorts[index + k] & 0xFFFF];
+            }
+        } else {
+            for (int k = 0; k < length; k++) {
+                target[offset + k] = values[bytes[index + k] & 0xFF];
+            }
+        }
+    }
+
+    @Override
+    public void setRow(int row, int from, int length, float[] source, int offset) {
+        int index = PackedSimilarityMatrix.rowOffset(row) + from;
+        if (bits == 16) {
+            for (int k = 0; k < length; k++) {
+                shorts[index + k] = (short) encode(source[offset + k]);
+            }
+        } else {
+            for (int k = 0; k < length; k++) {
+                bytes[index + k] = (byte) encode(source[offset + k]);
+            }
+        }
+    }
+
+    @Override
+    public void getDiagonal(int lag, int from, int length, float[] target, int offset) {
+        // walking down a diagonal, the next cell is one row further
+        int row = lag + from;
+        int index = PackedSimilarityMatrix.rowOffset(row) + from;
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = decode(index);
+            row++;
+            index += row + 1;
+        }
+    }
+
+    @Override
+    public float max() {
+        int max = 0;
+        if (bits == 16) {
+            for (int i = 0; i < shorts.length; i++) {
+                max = Math.max(max, shorts[i] & 0xFFFF);
+            }
+        } else {
+            for (int i = 0; i < bytes.length; i++) {
+                max = Math.max(max, bytes[i] & 0xFF);
+            }
+        }
+        return values[max];
+    }
+
+    @Override
+    public SimilarityMatrix copy() {
+        QuantisedSimilarityMatrix copy = new QuantisedSimilarityMatrix(size, bits, maxValue);
+        if (bits == 16) {
+            System.arraycopy(shorts, 0, copy.shorts, 0, shorts.length);
+        } else {
+            System.arraycopy(bytes, 0, copy.bytes, 0, bytes.length);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,206 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+import java.io.File;
+
+/**
+ * <p>
+ * A symmetric self-similarity matrix of which only the lower triangle (the
+ * diagonal included) is stored. Cell (row, column) with column &lt;= row holds
+ * the similarity between frame row and frame column, {@link #get(int, int)}
+ * mirrors the upper half onto it.
+ * </p>
+ * <p>
+ * Besides single cell access there are bulk methods that copy a piece of a
+ * row or a diagonal from or to a buffer. Loops that touch many cells should
+ * use those: they avoid the index calculation per cell and let the storage
+ * decide how to move the data.
+ * </p>
+ */
+public abstract class SimilarityMatrix {
+
+    protected final int size;
+
+    protected SimilarityMatrix(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size of a similarity matrix can not be negative");
+        }
+        this.size = size;
+    }
+
+    /**
+     * Creates a zero filled matrix for the given amount of frames.
+     *
+     * @param size the amount of frames.
+     * @return a new similarity matrix.
+     */
+    public static SimilarityMatrix create(int size) {
+        return new PackedSimilarityMatrix(size);
+    }
+
+    /**
+     * Creates a zero filled matrix for the given amount of frames, kept in a
+     * memory-mapped file in the given directory.
+     *
+     * @param size the amount of frames.
+     * @param directory a writable directory, or null to keep the matrix on the
+     * heap.
+     * @return a new similarity matrix.
+     */
+    public static SimilarityMatrix create(int size, String directory) {
+        if (directory == null) {
+            return create(size);
+        }
+        return new MappedSimilarityMatrix(size, new File(directory));
+    }
+
+    /**
+     * Creates a zero filled matrix for the given amount of frames that keeps
+     * the given amount of bits per cell. A matrix in a memory-mapped file
+     * always keeps floats.
+     *
+     * @param size the amount of frames.
+     * @param directory a writable directory, or null to keep the matrix on the
+     * heap.
+     * @param bits 32 for floats, 16 or 8 for a {@link QuantisedSimilarityMatrix}.
+     * @param maxValue the largest value a quantised matrix keeps.
+     * @return a new similarity matrix.
+     */
+    public static SimilarityMatrix create(int size, String directory, int bits, float maxValue) {
+        if (directory != null || bits == 32) {
+            return create(size, directory);
+        }
+        return new QuantisedSimilarityMatrix(size, bits, maxValue);
+    }
+
+    /**
+     * @return the amount of frames (rows and columns) of the matrix.
+     */
+    public final int size() {
+        return size;
+    }
+
+    /**
+     * Reads a cell of the stored triangle.
+     *
+     * @param row the row, &gt;= column.
+     * @param column the column, &lt;= row.
+     * @return the value of the cell.
+     */
+    public abstract float getLower(int row, int column);
+
+    /**
+     * Writes a cell of the stored triangle.
+     *
+     * @param row the row, &gt;= column.
+     * @param column the column, &lt;= row.
+     * @param value the new value of the cell.
+     */
+    public abstract void setLower(int row, int column, float value);
+
+    /**
+     * @return a zero filled matrix of the same size and storage type.
+     */
+    public abstract SimilarityMatrix newInstance();
+
+    /**
+     * @return true if the cells of a diagonal are stored next to each other
+     * and the cells of a row are not. Steps that can go either way walk along
+     * the diagonals of such a matrix, and along the rows of the others.
+     */
+    public boolean isDiagonalMajor() {
+        return false;
+    }
+
+    /**
+     * Reads any cell of the matrix, the upper half is mirrored.
+     */
+    public float get(int i, int j) {
+        if (i >= j) {
+            return getLower(i, j);
+        } else {
+            return getLower(j, i);
+        }
+    }
+
+    /**
+     * Writes any cell of the matrix, the upper half is mirrored.
+     */
+    public void set(int i, int j, float value) {
+        if (i >= j) {
+            setLower(i, j, value);
+        } else {
+            setLower(j, i, value);
+        }
+    }
+
+    /**
+     * Copies cells (row, from) ... (row, from + length - 1) to the target
+     * buffer. All columns must lie in the stored triangle (&lt;= row).
+     */
+    public void getRow(int row, int from, int length, float[] target, int offset) {
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = getLower(row, from + k);
+        }
+    }
+
+    /**
+     * Copies the source buffer to cells (row, from) ... (row, from + length -
+     * 1). All columns must lie in the stored triangle (&lt;= row).
+     */
+    public void setRow(int row, int from, int length, float[] source, int offset) {
+        for (int k = 0; k < length; k++) {
+            setLower(row, from + k, source[offset + k]);
+        }
+    }
+
+    /**
+     * Copies cells (lag + from, from) ... (lag + from + length - 1, from +
+     * length - 1) of the diagonal at the given lag to the target buffer. Lag 0
+     * is the main diagonal.
+     */
+    public void getDiagonal(int lag, int from, int length, float[] target, int offset) {
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = getLower(lag + from + k, from + k);
+        }
+    }
+
+    /**
+     * Copies the source buffer to cells (lag + from, from) ... (lag + from +
+     * length - 1, from + length - 1) of the diagonal at the given lag.
+     */
+    public void setDiagonal(int lag, int from, int length, float[] source, int offset) {
+        for (int k = 0; k < length; k++) {
+            setLower(lag + from + k, from + k, source[offset + k]);
+        }
+    }
+
+    /**
+     * @return the largest value in the matrix, or 0 if all values are smaller.
+     */
+    public float max() {
+        float max = 0;
+        float[] buffer = new float[size];
+        for (int i = 0; i < size; i++) {
+            getRow(i, 0, i + 1, buffer, 0);
+            for (int j = 0; j <= i; j++) {
+                if (buffer[j] > max) {
+                    max = buffer[j];
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return a copy of this matrix with the same storage type.
+     */
+    public SimilarityMatrix copy() {
+        SimilarityMatrix copy = newInstance();
+        float[] buffer = new float[size];
+        for (int i = 0; i < size; i++) {
+            getRow(i, 0, i + 1, buffer, 0);
+            copy.setRow(i, 0, i + 1, buffer, 0);
+        }
+        return copy;
+    }
+}
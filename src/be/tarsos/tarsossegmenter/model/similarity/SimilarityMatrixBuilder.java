@@ -0,0 +1,320 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+import be.tarsos.tarsossegmenter.util.concurrent.WorkerPool;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>
+ * Constructs the self-similarity matrix of a song from its MFCC, CQT and
+ * autocorrelation features on the shared fork/join pool.
+ * </p>
+ * <p>
+ * The lower triangle is split into tiles of consecutive rows holding about
+ * the same amount of cells, so the short rows at the top do not end up in one
+ * tiny task and the long rows at the bottom in another.
+ * </p>
+ * <p>
+ * Only the output matrix is allocated, whatever the amount of features. The
+ * first pass writes the raw distances of one feature (the stored feature)
+ * into it and determines the distance range of every feature. The second
+ * pass reads the stored distances back, recomputes the distances of the
+ * other vector features and writes the combined similarity over them. The
+ * autocorrelation range follows from the smallest and largest value of its
+ * first coefficient and is not computed per cell. The minimum distance of
+ * every feature is 0, the diagonal. The result is identical to normalising
+ * complete per-feature matrices.
+ * </p>
+ * <p>
+ * A quantised output matrix can not hold raw distances: then no feature is
+ * stored and the second pass recomputes the distances of every feature.
+ * </p>
+ */
+public class SimilarityMatrixBuilder {
+
+    public static final int MFCC = 0;
+    public static final int CQT = 1;
+    public static final int AUTOCORRELATION = 2;
+    private static final int FEATURES = 3;
+    /**
+     * Tiles with fewer cells are not split any further.
+     */
+    private static final long TILE_CELLS = 1 << 16;
+
+    private final int size;
+    private final float[][] mfccs;
+    private final int mfccCoef;
+    private final float[][] cqtcs;
+    private final float[][] autoCorrelationcs;
+    private final boolean[] enabled;
+    private final String directory;
+    private final int bits;
+    /**
+     * The feature of which the raw distances are kept in the output matrix
+     * between the two passes, or -1 if none is.
+     */
+    private final int stored;
+
+    /**
+     * @param size the amount of frames.
+     * @param mfccs the MFCC features, or null if not used.
+     * @param mfccCoef the amount of MFCC coefficients.
+     * @param cqtcs the CQT features, or null if not used.
+     * @param autoCorrelationcs the autocorrelation features, or null if not
+     * used.
+     * @param directory the directory of a memory-mapped matrix, or null to
+     * build the matrix on the heap.
+     * @param bits the bits per cell of a matrix on the heap: 32, 16 or 8.
+     */
+    public SimilarityMatrixBuilder(int size, float[][] mfccs, int mfccCoef, float[][] cqtcs, float[][] autoCorrelationcs, String directory, int bits) {
+        this.size = size;
+        this.directory = directory;
+        this.bits = directory == null ? bits : 32;
+        this.mfccs = mfccs;
+        this.mfccCoef = mfccCoef;
+        this.cqtcs = cqtcs;
+        this.autoCorrelationcs = autoCorrelationcs;
+        enabled = new boolean[FEATURES];
+        enabled[MFCC] = mfccs != null;
+        enabled[CQT] = cqtcs != null;
+        enabled[AUTOCORRELATION] = autoCorrelationcs != null;
+        // keep the most expensive feature, the others are recomputed
+        if (this.bits != 32) {
+            stored = -1;
+        } else if (enabled[MFCC]) {
+            stored = MFCC;
+        } else if (enabled[CQT]) {
+            stored = CQT;
+        } else {
+            stored = AUTOCORRELATION;
+        }
+    }
+
+    /**
+     * Builds the similarity matrix. Every enabled feature contributes an equal
+     * share of the scale: identical frames get maxScaleValue, the most distant
+     * frames of every feature get 0.
+     *
+     * @param maxScaleValue the value of the diagonal.
+     * @return the similarity matrix.
+     */
+    public SimilarityMatrix build(float maxScaleValue) {
+        int factor = 0;
+        for (int f = 0; f < FEATURES; f++) {
+            if (enabled[f]) {
+                factor++;
+            }
+        }
+        SimilarityMatrix similarityMatrix = SimilarityMatrix.create(size, directory, bits, maxScaleValue);
+        float[] bounds = WorkerPool.invoke(new BoundsTask(similarityMatrix, 0, size));
+        if (enabled[AUTOCORRELATION] && stored != AUTOCORRELATION) {
+            autoCorrelationBounds(bounds);
+        }
+        WorkerPool.invoke(new NormaliseTask(bounds, maxScaleValue / factor, maxScaleValue, similarityMatrix, 0, size));
+        return similarityMatrix;
+    }
+
+    /**
+     * The largest autocorrelation distance is the one between the smallest and
+     * the largest first coefficient: rounding preserves the order of the
+     * differences, so no other pair can exceed it.
+     */
+    private void autoCorrelationBounds(float[] bounds) {
+        if (size == 0) {
+            return;
+        }
+        float low = autoCorrelationcs[0][0];
+        float high = low;
+        for (int i = 1; i < size; i++) {
+            low = Math.min(low, autoCorrelationcs[i][0]);
+            high = Math.max(high, autoCorrelationcs[i][0]);
+        }
+        bounds[2 * AUTOCORRELATION] = 0;
+        bounds[2 * AUTOCORRELATION + 1] = Math.max(Float.MIN_VALUE, (float) Math.sqrt(Math.abs(high - low)));
+    }
+
+    /**
+     * Computes the distances between frame i and the frames 0 ... i for one
+     * feature.
+     */
+    void distanceRow(int feature, int i, float[] row) {
+        float[][] frames = feature == MFCC ? mfccs : feature == CQT ? cqtcs : autoCorrelationcs;
+        float[] x = frames[i];
+        for (int j = 0; j <= i; j++) {
+            row[j] = distance(feature, x, frames[j], mfccCoef);
+        }
+    }
+
+    /**
+     * The distance between two frames of a feature: the euclidean distance of
+     * the MFCC or CQT coefficients without the first one, or the square root
+     * of the difference of the first autocorrelation coefficient.
+     *
+     * @param feature {@link #MFCC}, {@link #CQT} or {@link #AUTOCORRELATION}.
+     * @param mfccCoef the amount of MFCC coefficients.
+     * @return the distance, &gt;= 0.
+     */
+    public static float distance(int feature, float[] x, float[] y, int mfccCoef) {
+        if (feature == AUTOCORRELATION) {
+            return (float) Math.sqrt(Math.abs(x[0] - y[0]));
+        }
+        int length = feature == MFCC ? mfccCoef : x.length;
+        float average = 0;
+        for (int k = 1; k < length; k++) {
+            // euclidean distance
+            average += (x[k] - y[k]) * (x[k] - y[k]);
+        }
+        return (float) Math.sqrt(average);
+    }
+
+    /**
+     * @return the amount of cells in the rows from ... to - 1.
+     */
+    static long cells(int from, int to) {
+        return (long) to * (to + 1) / 2 - (long) from * (from + 1) / 2;
+    }
+
+    /**
+     * @return the row that splits from ... to - 1 into two tiles with about
+     * the same amount of cells, or -1 if the tile is small enough.
+     */
+    static int split(int from, int to) {
+        if (to - from < 2 || cells(from, to) <= TILE_CELLS) {
+            return -1;
+        }
+        double half = ((double) from * (from + 1) + (double) to * (to + 1)) / 4;
+        int middle = (int) ((Math.sqrt(8 * half + 1) - 1) / 2);
+        return Math.max(from + 1, Math.min(to - 1, middle));
+    }
+
+    /**
+     * Writes the raw distances of the stored feature for a tile and returns
+     * the minimum and the maximum distance of every vector feature: {min0,
+     * max0, min1, max1, min2, max2}.
+     */
+    private class BoundsTask extends RecursiveTask<float[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityMatrix target;
+        private final int from;
+        private final int to;
+
+        BoundsTask(SimilarityMatrix target, int from, int to) {
+            this.target = target;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected float[] compute() {
+            int middle = split(from, to);
+            if (middle >= 0) {
+                BoundsTask first = new BoundsTask(target, from, middle);
+                first.fork();
+                float[] bounds = new BoundsTask(target, middle, to).compute();
+                float[] other = first.join();
+                for (int f = 0; f < FEATURES; f++) {
+                    bounds[2 * f] = Math.min(bounds[2 * f], other[2 * f]);
+                    bounds[2 * f + 1] = Math.max(bounds[2 * f + 1], other[2 * f + 1]);
+                }
+                return bounds;
+            }
+
+            float[] bounds = new float[2 * FEATURES];
+            float[] row = new float[to];
+            for (int f = 0; f < FEATURES; f++) {
+                float min = Float.MAX_VALUE;
+                float max = Float.MIN_VALUE;
+                if (enabled[f] && (f == stored || f != AUTOCORRELATION)) {
+                    for (int i = from; i < to; i++) {
+                        distanceRow(f, i, row);
+                        for (int j = 0; j <= i; j++) {
+                            if (row[j] > max) {
+                                max = row[j];
+                            }
+                            if (row[j] < min) {
+                                min = row[j];
+                            }
+                        }
+                        if (f == stored) {
+                            target.setRow(i, 0, i + 1, row, 0);
+                        }
+                    }
+                }
+                bounds[2 * f] = min;
+                bounds[2 * f + 1] = max;
+            }
+            return bounds;
+        }
+    }
+
+    /**
+     * Replaces the stored distances of a tile by the combined similarity.
+     */
+    private class NormaliseTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float[] bounds;
+        private final float coeficient;
+        private final float maxScaleValue;
+        private final SimilarityMatrix target;
+        private final int from;
+        private final int to;
+
+        NormaliseTask(float[] bounds, float coeficient, float maxScaleValue, SimilarityMatrix target, int from, int to) {
+            this.bounds = bounds;
+            this.coeficient = coeficient;
+            this.maxScaleValue = maxScaleValue;
+            this.target = target;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int middle = split(from, to);
+            if (middle >= 0) {
+                invokeAll(new NormaliseTask(bounds, coeficient, maxScaleValue, target, from, middle),
+                        new NormaliseTask(bounds, coeficient, maxScaleValue, target, middle, to));
+                return;
+            }
+
+            float[] row = new float[to];
+            float[] storedDistance = new float[to];
+            float[] distance = new float[to];
+            for (int i = from; i < to; i++) {
+                if (stored >= 0) {
+                    target.getRow(i, 0, i + 1, storedDistance, 0);
+                }
+                for (int j = 0; j <= i; j++) {
+                    row[j] = maxScaleValue;
+                }
+                // same order of operations as the former serial loop: MFCC,
+                // autocorrelation, CQT
+                subtract(MFCC, i, row, storedDistance, distance);
+                subtract(AUTOCORRELATION, i, row, storedDistance, distance);
+                subtract(CQT, i, row, storedDistance, distance);
+                target.setRow(i, 0, i + 1, row, 0);
+            }
+        }
+
+        private void subtract(int feature, int i, float[] row, float[] storedDistance, float[] distance) {
+            if (!enabled[feature]) {
+                return;
+            }
+            float min = bounds[2 * feature];
+            float max = bounds[2 * feature + 1];
+            if (feature == stored) {
+                distance = storedDistance;
+            } else {
+                distanceRow(feature, i, distance);
+            }
+            for (int j = 0; j <= i; j++) {
+                row[j] -= ((distance[j] - min) / (max - min)) * coeficient;
+            }
+        }
+    }
+}
@@ -9,10 +9,17 @@ import be.tarsos.tarsossegmenter.model.preprocessing.PreProcesses;
 import be.tarsos.tarsossegmenter.model.segmentation.Segmentation;
 import be.tarsos.tarsossegmenter.model.segmentation.SegmentationList;
 import be.tarsos.tarsossegmenter.model.segmentation.SegmentationPart;
+import be.tarsos.tarsossegmenter.model.similarity.BinarySimilarityMatrix;
+import be.tarsos.tarsossegmenter.model.similarity.DiagonalMaxIndex;
+import be.tarsos.tarsossegmenter.model.similarity.DiagonalSumIndex;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrix;
+import be.tarsos.tarsossegmenter.util.concurrent.WorkerPool;
 import be.tarsos.tarsossegmenter.util.configuration.ConfKey;
 import be.tarsos.tarsossegmenter.util.configuration.Configuration;
 
 import java.util.*;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -25,80 +32,165 @@ public class StructureDetection {
     private final static int STATUS_PART_OF = 2;
     private final static int STATUS_CONFLICT = 3;
     private final static int STATUS_CONTAINING = 4;
+    /**
+     * Pairs of segments with a lower match are not considered equal.
+     */
+    private final static float MIN_MATCH = 0.4f;
+    /**
+     * Ranges with fewer pairs are not split any further: most pairs are
+     * rejected by {@link #mayMatch} after a few lookups, too little work for a
+     * task of their own.
+     */
+    private final static int PAIRS_PER_TASK = 64;
     private float binaryTreshholdCte;
     private int amountOfFrames;
     private float frameDuration;
     private float songDuration;
-    float[][] selfSimilarityMatrix;
+    private int samplesPerFrame;
+    private float sampleRate;
+    SimilarityMatrix selfSimilarityMatrix;
+    /**
+     * Sums along the diagonals of the preprocessed matrix, built when the
+     * structures are searched. A binary matrix counts its ones itself.
+     */
+    private DiagonalSumIndex diagonalSums;
+    private BinarySimilarityMatrix binaryMatrix;
+    /**
+     * Bounds on the sums along the diagonals, to skip the pairs that can not
+     * match before their match is calculated.
+     */
+    private DiagonalMaxIndex diagonalMaxima;
+    private final AtomicLong amountOfPairs = new AtomicLong();
+    private final AtomicLong amountOfPrunedPairs = new AtomicLong();
     private Segmentation segmentation;
-    private ArrayList<SegmentationPart> allMacroSegmentationParts;
-    private ArrayList<SegmentationPart> allMesoSegmentationParts;
-    private ArrayList<SegmentationPart> allMicroSegmentationParts;
+    /**
+     * The segmentation points of every level, while the structures are
+     * searched.
+     */
+    private float[][] segmentationPoints;
     private float range;
     private float binaryTreshhold;
-    private int currentSegmentationLevel;
-    //In general for the CalculationMatchThreads: prevents coping the value
-    private float threshold;
-    private float minLength;
-
-    public StructureDetection(float songDuration, float[][] selfSimilarityMatrix, float range) {
+    private boolean microEnabled;
+    /**
+     * The amount of segmentation suggestions kept while the matches are
+     * added.
+     */
+    private int beamWidth;
+
+    /**
+     * @param segmentation the segmentation with the segmentation points, the
+     * structures are added to it.
+     * @param songDuration the length of the audio in seconds.
+     * @param selfSimilarityMatrix the self-similarity matrix, it is changed by
+     * the preprocessing.
+     * @param range the maximum value of the matrix.
+     * @param samplesPerFrame the amount of samples in a frame.
+     * @param sampleRate the sample rate of the audio.
+     */
+    public StructureDetection(Segmentation segmentation, float songDuration, SimilarityMatrix selfSimilarityMatrix, float range, int samplesPerFrame, float sampleRate) {
         this.range = range;
         binaryTreshholdCte = (float) Configuration.getDouble(ConfKey.binary_treshold);
-        this.amountOfFrames = selfSimilarityMatrix.length;
+        beamWidth = Math.max(5, Configuration.getInt(ConfKey.structure_beam_width));
+        this.amountOfFrames = selfSimilarityMatrix.size();
         this.songDuration = songDuration;
         this.selfSimilarityMatrix = selfSimilarityMatrix;
         this.binaryTreshhold = range * binaryTreshholdCte;
-        this.segmentation = AASModel.getInstance().getSegmentation();
-        allMacroSegmentationParts = new ArrayList();
-        allMesoSegmentationParts = new ArrayList();
-        allMicroSegmentationParts = new ArrayList();
+        this.segmentation = segmentation;
+        this.samplesPerFrame = samplesPerFrame;
+        this.sampleRate = sampleRate;
         frameDuration = songDuration / amountOfFrames;
     }
 
     public void run() {
-        currentSegmentationLevel = AASModel.MACRO_LEVEL;
+        if (selfSimilarityMatrix instanceof BinarySimilarityMatrix) {
+            binaryMatrix = (BinarySimilarityMatrix) selfSimilarityMatrix;
+        } else {
+            diagonalSums = new DiagonalSumIndex(selfSimilarityMatrix);
+        }
+        diagonalMaxima = new DiagonalMaxIndex(selfSimilarityMatrix);
         if (segmentation.getSegmentationPoints(AASModel.MACRO_LEVEL).size() > 0) {
-            allMacroSegmentationParts.clear();
-            calculateAllPossibleSegments(segmentation.getSegmentationPoints(AASModel.MACRO_LEVEL), allMacroSegmentationParts);
-            findStructures(allMacroSegmentationParts, null);
+            //De punten van alle niveaus worden eenmalig omgezet, de taken lezen ze enkel
+            segmentationPoints = new float[AASModel.MICRO_LEVEL + 1][];
+            for (int level = AASModel.MACRO_LEVEL; level <= AASModel.MICRO_LEVEL; level++) {
+                segmentationPoints[level] = toArray(segmentation.getSegmentationPoints(level));
+            }
+            findStructures(calculateAllPossibleSegments(segmentationPoints[AASModel.MACRO_LEVEL]), null, AASModel.MACRO_LEVEL);
             if (Configuration.getBoolean(ConfKey.enable_meso)) {
-                for (int i = 0; i < segmentation.getAmountOfMacroSuggestions(); i++) {
-                    SegmentationList macroSegmentationList = segmentation.getMacroSuggestions().get(i);
-                    for (int j = 0; j < macroSegmentationList.size(); j++) {
-                        currentSegmentationLevel = AASModel.MESO_LEVEL;
-                        allMesoSegmentationParts.clear();
-                        calculateAllPossibleSegments(segmentation.getSegmentationPoints(AASModel.MESO_LEVEL), allMesoSegmentationParts, macroSegmentationList.get(j).getBegin(), macroSegmentationList.get(j).getEnd());
-                        macroSegmentationList.get(j).createSubSegmentationSuggestionList();
-                        findStructures(allMesoSegmentationParts, macroSegmentationList.get(j));
-                        if (Configuration.getBoolean(ConfKey.enable_micro)) {
-                            currentSegmentationLevel = AASModel.MICRO_LEVEL;
-                            ArrayList<SegmentationList> mesoSegmentationSuggestionsLists = macroSegmentationList.get(j).getSubSegmentationSuggestions();
-                            for (int k = 0; k < mesoSegmentationSuggestionsLists.size(); k++) {
-                                SegmentationList mesoSegmentationList = mesoSegmentationSuggestionsLists.get(k);
-                                for (int l = 0; l < mesoSegmentationList.size(); l++) {
-                                    allMicroSegmentationParts.clear();
-                                    calculateAllPossibleSegments(segmentation.getSegmentationPoints(AASModel.MICRO_LEVEL), allMicroSegmentationParts, mesoSegmentationList.get(l).getBegin(), mesoSegmentationList.get(l).getEnd());
-                                    mesoSegmentationList.get(l).createSubSegmentationSuggestionList();
-                                    findStructures(allMicroSegmentationParts, mesoSegmentationList.get(l));
-                                }
-                            }
-                        }
+                microEnabled = Configuration.getBoolean(ConfKey.enable_micro);
+                //Alle macro-segmenten van alle suggesties worden parallel verder opgedeeld
+                final List<SubStructureTask> tasks = subStructureTasks(segmentation.getMacroSuggestions(), AASModel.MESO_LEVEL);
+                WorkerPool.invoke(new RecursiveAction() {
+
+                    @Override
+                    protected void compute() {
+                        invokeAll(tasks);
                     }
-
-                    //@TODO: meso niveau analyseren met elkaar per gelijk labels op macro-niveau
-                }
+                });
+                //@TODO: meso niveau analyseren met elkaar per gelijk labels op macro-niveau
             }
         }
         cleanMemory();
         //segmentation.printSegmentation();
     }
 
-    private void findStructures(ArrayList<SegmentationPart> allSegmentationParts, SegmentationPart parent) {
-        if (allSegmentationParts.size() > 0) {
-            PriorityQueue<SegmentationMatchItem> queue = new PriorityQueue(allSegmentationParts.size() * allSegmentationParts.size(), new SegmentationMatchItem());
+    private static float[] toArray(List<Float> points) {
+        float[] array = new float[points.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = points.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Searches the structures within one segmentation part on the next level
+     * and then, if enabled, within each of the parts it found. Every task has
+     * its own candidate segments and only changes the sub segmentations of its
+     * own part, so all parts are searched in parallel.
+     */
+    private class SubStructureTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SegmentationPart parent;
+        private final int segmentationLevel;
+
+        SubStructureTask(SegmentationPart parent, int segmentationLevel) {
+            this.parent = parent;
+            this.segmentationLevel = segmentationLevel;
+        }
+
+        @Override
+        protected void compute() {
+            CandidateSegments candidates = new CandidateSegments();
+            calculateAllPossibleSegments(segmentationPoints[segmentationLevel], candidates, parent.getBegin(), parent.getEnd());
+            parent.createSubSegmentationSuggestionList();
+            findStructures(candidates, parent, segmentationLevel);
+            if (segmentationLevel == AASModel.MESO_LEVEL && microEnabled) {
+                invokeAll(subStructureTasks(parent.getSubSegmentationSuggestions(), AASModel.MICRO_LEVEL));
+            }
+        }
+    }
+
+    /**
+     * @return a task for every part of the given suggestions.
+     */
+    private List<SubStructureTask> subStructureTasks(List<SegmentationList> suggestions, int segmentationLevel) {
+        List<SubStructureTask> tasks = new ArrayList<SubStructureTask>();
+        for (SegmentationList suggestion : suggestions) {
+            for (int i = 0; i < suggestion.size(); i++) {
+                tasks.add(new SubStructureTask(suggestion.get(i), segmentationLevel));
+            }
+        }
+        return tasks;
+    }
+
+    private void findStructures(CandidateSegments candidates, SegmentationPart parent, int segmentationLevel) {
+        if (candidates.size() > 0) {
             int start = 0;
-            int end = allSegmentationParts.size();
-            switch (this.currentSegmentationLevel) {
+            int end = candidates.size();
+            float minLength = 0;
+            float threshold = 0;
+            switch (segmentationLevel) {
                 case (AASModel.MACRO_LEVEL):
                     minLength = 6f;
                     threshold = 0.09f;
@@ -119,24 +211,38 @@ public class StructureDetection {
                     break;
             }
             //Etnische muziek: i=1 en allSegmentationParts.size()-1 voor intro en outro niet te vergelijken
-            HashSet<MatchCalculationThread> threadSet = new HashSet();
+            float[] begins = candidates.begin;
+            float[] ends = candidates.end;
+            float[] durations = candidates.duration;
+            final ArrayList<SegmentationMatchItem> pairs = new ArrayList<SegmentationMatchItem>();
             for (int i = start; i < end; i++) {
-                for (int j = i + 1; j < end; j++) {
-                    if (allSegmentationParts.get(i).getEnd() - allSegmentationParts.get(i).getBegin() > minLength && allSegmentationParts.get(i).getEnd() <= allSegmentationParts.get(j).getBegin() && Math.abs(1 - (allSegmentationParts.get(i).getEnd() - allSegmentationParts.get(i).getBegin()) / (allSegmentationParts.get(j).getEnd() - allSegmentationParts.get(j).getBegin())) < threshold) {
-                        MatchCalculationThread matchCalculationThread = new MatchCalculationThread(allSegmentationParts.get(i), allSegmentationParts.get(j), queue);
-                        matchCalculationThread.start();
-                        threadSet.add(matchCalculationThread);
+                if (durations[i] > minLength) {
+                    for (int j = i + 1; j < end; j++) {
+                        if (ends[i] <= begins[j] && Math.abs(1 - durations[i] / durations[j]) < threshold) {
+                            SegmentationMatchItem pair = new SegmentationMatchItem();
+                            pair.first = i;
+                            pair.second = j;
+                            pairs.add(pair);
+                        }
                     }
                 }
             }
-            Iterator it = threadSet.iterator();
-            while (it.hasNext()) {
-                try {
-                    ((Thread) it.next()).join();
-                } catch (InterruptedException e) {
+            WorkerPool.invoke(new MatchCalculationTask(candidates, pairs, 0, pairs.size(), segmentationLevel));
+            ArrayList<SegmentationMatchItem> matches = new ArrayList<SegmentationMatchItem>();
+            int pruned = 0;
+            for (SegmentationMatchItem pair : pairs) {
+                if (pair.match > MIN_MATCH) {
+                    matches.add(pair);
+                } else if (pair.pruned) {
+                    pruned++;
                 }
             }
-            searchEqualParts(queue, parent);
+            amountOfPairs.addAndGet(pairs.size());
+            amountOfPrunedPairs.addAndGet(pruned);
+            // the sort is stable: equally good matches keep the order of the
+            // pairs, whatever order the tasks finished in
+            Collections.sort(matches, new SegmentationMatchItem());
+            searchEqualParts(candidates, matches, parent, segmentationLevel);
             ArrayList<SegmentationList> top5Segmentations;
             if (parent != null) {
                 if (!parent.hasSubSegmentation()) {
@@ -149,120 +255,230 @@ public class StructureDetection {
             //De overige segmentatiedelen die geen match hebben toevoegen aan de segmentatie
             //Alle suggesties overlopen
             if (top5Segmentations.isEmpty()) {
-                top5Segmentations.add(new SegmentationList(parent, currentSegmentationLevel));
+                top5Segmentations.add(new SegmentationList(segmentation, parent, segmentationLevel));
             }
 
             for (int i = 0; i < top5Segmentations.size(); i++) {
                 //Alle segmentatiePunten overlopen
-                for (int j = 0; j < allSegmentationParts.size(); j++) {
-                    //Indien de suggestie het segmentatiepunt nog niet bevat
-                    if (!top5Segmentations.get(i).contains(allSegmentationParts.get(j))) {
-                        boolean add = true; //toevoegen: standaard = true
-                        //alle andere segmentatiepunten uit de suggestie overlopen
-                        for (int k = 0; k < top5Segmentations.get(i).size(); k++) {
-                            //Indien er een ander segmentatiepunt een conflict geeft (dus indien het een deel van, gelijk of een stuk overlapt) -> niet toevoegen
-                            if (checkSegmentation(allSegmentationParts.get(j), top5Segmentations.get(i).get(k)) != STATUS_NONE) {
-                                add = false;
-                            }
-                        }
-                        if (add) {
-                            top5Segmentations.get(i).add(new SegmentationPart(allSegmentationParts.get(j)));
-                        }
+                for (int j = 0; j < candidates.size(); j++) {
+                    //Indien er een ander segmentatiepunt een conflict geeft (dus indien het een deel van, gelijk of een stuk overlapt) -> niet toevoegen
+                    if (!overlaps(top5Segmentations.get(i), begins[j], ends[j])) {
+                        top5Segmentations.get(i).add(new SegmentationPart(begins[j], ends[j]));
                     }
                 }
             }
         }
     }
 
-    private class MatchCalculationThread extends Thread {
-
-        SegmentationPart firstSP, secondSP;
-        PriorityQueue<SegmentationMatchItem> queue;
+    /**
+     * @param parts parts that do not overlap, sorted.
+     * @param begin the begin of a part.
+     * @param end the end of the part.
+     * @return true if the part overlaps (is equal to, part of, contains or
+     * conflicts) with one of the parts.
+     */
+    private static boolean overlaps(List<SegmentationPart> parts, float begin, float end) {
+        // the first part that ends after the part begins
+        int low = 0;
+        int high = parts.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (parts.get(middle).getEnd() > begin) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low < parts.size() && parts.get(low).getBegin() < end;
+    }
 
-        protected MatchCalculationThread(SegmentationPart firstSP, SegmentationPart secondSP, PriorityQueue<SegmentationMatchItem> queue) {
-            this.firstSP = firstSP;
-            this.secondSP = secondSP;
-            this.queue = queue;
+    /**
+     * Calculates the match of the pairs from ... to - 1 on the shared worker
+     * pool. Every pair only writes its own match and duration, the pairs are
+     * merged by the caller once all tasks are done.
+     */
+    private class MatchCalculationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CandidateSegments candidates;
+        private final List<SegmentationMatchItem> pairs;
+        private final int from;
+        private final int to;
+        private final int segmentationLevel;
+
+        protected MatchCalculationTask(CandidateSegments candidates, List<SegmentationMatchItem> pairs, int from, int to, int segmentationLevel) {
+            this.candidates = candidates;
+            this.pairs = pairs;
+            this.from = from;
+            this.to = to;
+            this.segmentationLevel = segmentationLevel;
         }
 
         @Override
-        public void run() {
-            int firstStartFrame = Math.round(firstSP.getBegin() / frameDuration);
-            int secondStartFrame = Math.round(secondSP.getBegin() / frameDuration);
-            int durationInFrames = (int) ((firstSP.getEnd() - firstSP.getBegin()) / frameDuration);
-            durationInFrames = (Math.min(amountOfFrames, secondStartFrame + durationInFrames) - secondStartFrame);
-            float match = calculateMatch(firstStartFrame, secondStartFrame, durationInFrames);
-            if (match > 0.4f) {
-                SegmentationMatchItem queueItem = new SegmentationMatchItem();
-                queueItem.firstSP = firstSP;
-                queueItem.secondSP = secondSP;
-                queueItem.match = match;
-                queueItem.durationInFrames = durationInFrames;
-                queue.add(queueItem);
+        protected void compute() {
+            if (to - from > PAIRS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MatchCalculationTask(candidates, pairs, from, middle, segmentationLevel), new MatchCalculationTask(candidates, pairs, middle, to, segmentationLevel));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                SegmentationMatchItem pair = pairs.get(i);
+                int firstStartFrame = Math.round(candidates.begin[pair.first] / frameDuration);
+                int secondStartFrame = Math.round(candidates.begin[pair.second] / frameDuration);
+                int durationInFrames = (int) (candidates.duration[pair.first] / frameDuration);
+                durationInFrames = (Math.min(amountOfFrames, secondStartFrame + durationInFrames) - secondStartFrame);
+                pair.durationInFrames = durationInFrames;
+                if (mayMatch(firstStartFrame, secondStartFrame, durationInFrames, segmentationLevel)) {
+                    pair.match = calculateMatch(firstStartFrame, secondStartFrame, durationInFrames, segmentationLevel);
+                } else {
+                    pair.pruned = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * The candidate segments of a level: the pieces between two segmentation
+     * points, in primitive arrays. Times are in seconds, rounded to two
+     * decimals like those of a {@link SegmentationPart}. Segmentation parts
+     * are only made for the candidates that end up in a suggestion.
+     * </p>
+     * <p>
+     * The candidates are generated in the order they are paired in: by end,
+     * and with the same end by begin.
+     * </p>
+     */
+    static class CandidateSegments {
+
+        private float[] begin = new float[64];
+        private float[] end = new float[64];
+        private float[] duration = new float[64];
+        private int size;
+
+        public int size() {
+            return size;
+        }
+
+        public void add(float begin, float end) {
+            if (size == this.begin.length) {
+                this.begin = Arrays.copyOf(this.begin, 2 * size);
+                this.end = Arrays.copyOf(this.end, 2 * size);
+                duration = Arrays.copyOf(duration, 2 * size);
             }
+            this.begin[size] = begin;
+            this.end[size] = end;
+            duration[size] = end - begin;
+            size++;
         }
     }
 
-    private void calculateAllPossibleSegments(ArrayList<Float> segmentationPoints, ArrayList<SegmentationPart> allSegmentationParts, float begin, float end) {
-        for (int i = 0; i < segmentationPoints.size() - 1; i++) {
-            if (segmentationPoints.get(i) >= begin && segmentationPoints.get(i + 1) <= end) {
-                SegmentationPart sp = new SegmentationPart(segmentationPoints.get(i), segmentationPoints.get(i + 1));
-                allSegmentationParts.add(sp);
-                for (int j = i + 2; j < segmentationPoints.size(); j++) {
-                    if (segmentationPoints.get(j) <= end && segmentationPoints.get(j) - sp.getBegin() <= (end - begin) / 2.2f) {
-                        SegmentationPart sp2 = new SegmentationPart(sp.getBegin(), segmentationPoints.get(j));
-                        allSegmentationParts.add(sp2);
-                    } else {
-                        break;
+    /**
+     * Adds every piece between two of the points within begin ... end that
+     * is at most (end - begin) / 2.2 long, and every piece between two
+     * consecutive points.
+     *
+     * @param points the segmentation points, sorted.
+     */
+    private static void calculateAllPossibleSegments(float[] points, CandidateSegments candidates, float begin, float end) {
+        float maxLength = (end - begin) / 2.2f;
+        int from = 0;
+        while (from < points.length && points[from] < begin) {
+            from++;
+        }
+        int to = from;
+        while (to < points.length && points[to] <= end) {
+            to++;
+        }
+        float[] rounded = new float[to];
+        for (int i = from; i < to; i++) {
+            rounded[i] = round(points[i]);
+        }
+        //De eerste punt die nog een begin kan zijn voor het huidige einde
+        int first = from;
+        for (int j = from + 1; j < to;) {
+            //Punten die op hetzelfde (afgeronde) einde uitkomen worden samen overlopen
+            int last = j + 1;
+            while (last < to && rounded[last] == rounded[j]) {
+                last++;
+            }
+            while (first < j - 1 && points[j] - rounded[first] > maxLength) {
+                first++;
+            }
+            for (int i = first; i < last - 1; i++) {
+                for (int k = Math.max(j, i + 1); k < last; k++) {
+                    if (k == i + 1 || points[k] - rounded[i] <= maxLength) {
+                        candidates.add(rounded[i], rounded[k]);
                     }
                 }
-            } else if (segmentationPoints.get(i + 1) > end) {
-                break;
             }
+            j = last;
         }
-        Collections.sort(allSegmentationParts);
     }
 
-    private void calculateAllPossibleSegments(ArrayList<Float> segmentationPoints, ArrayList<SegmentationPart> allSegmentationParts) {
+    private static CandidateSegments calculateAllPossibleSegments(float[] points) {
+        CandidateSegments candidates = new CandidateSegments();
         int startIndex = 0;
-        int endIndex = segmentationPoints.size() - 1;
-        if (segmentationPoints.get(0) == 0f && this.currentSegmentationLevel == AASModel.MACRO_LEVEL) {
+        int endIndex = points.length - 1;
+        boolean lastSegment = false;
+        if (points[0] == 0f) {
             if (Configuration.getBoolean(ConfKey.ignore_first_segment)) {
                 startIndex++;
-                allSegmentationParts.add(new SegmentationPart(segmentationPoints.get(0), segmentationPoints.get(1)));
+                candidates.add(round(points[0]), round(points[1]));
             }
             if (Configuration.getBoolean(ConfKey.ignore_last_segment)) {
                 endIndex--;
-                allSegmentationParts.add(new SegmentationPart(segmentationPoints.get(endIndex), segmentationPoints.get(endIndex + 1)));
+                lastSegment = true;
             }
         }
-        calculateAllPossibleSegments(segmentationPoints, allSegmentationParts, segmentationPoints.get(startIndex), segmentationPoints.get(endIndex));
+        calculateAllPossibleSegments(points, candidates, points[startIndex], points[endIndex]);
+        if (lastSegment) {
+            candidates.add(round(points[endIndex]), round(points[endIndex + 1]));
+        }
+        return candidates;
+    }
+
+    private static float round(float time) {
+        return be.tarsos.tarsossegmenter.util.math.Math.round(time, 2);
     }
     //       
     //       
 
     public void preProcessing() {
         if (Configuration.getBoolean(ConfKey.enable_white_area_reducement)) {
-            PreProcesses.whiteAreasToDiagonals(selfSimilarityMatrix, range);
+            PreProcesses.whiteAreasToDiagonals(selfSimilarityMatrix, range, samplesPerFrame, sampleRate);
         }
         if (Configuration.getBoolean(ConfKey.enable_line_detection)) {
 
-            range = PreProcesses.diagonalEdgeDetection(selfSimilarityMatrix, range);
-            range = PreProcesses.sharpen(selfSimilarityMatrix);
+            range = PreProcesses.enhanceDiagonals(selfSimilarityMatrix, range);
 
             binaryTreshhold = range * binaryTreshholdCte;
         }
         if (Configuration.getBoolean(ConfKey.enable_binary)) {
-            range = PreProcesses.makeBinary(selfSimilarityMatrix, binaryTreshhold, range);
-            PreProcesses.dilate(selfSimilarityMatrix, range);
+            //De binaire matrix vervangt de matrix: een bit per cel
+            BinarySimilarityMatrix binary = BinarySimilarityMatrix.threshold(selfSimilarityMatrix, binaryTreshhold);
+            binary.dilate();
+            selfSimilarityMatrix = binary;
+            range = 1;
         }
     }
 
-    private float calculateMatch(int firstStartFrame, int secondStartFrame, int durationInFrames) {
-        float match = 0;
+    /**
+     * @return the preprocessed matrix. With binary preprocessing enabled, this
+     * is a new {@link BinarySimilarityMatrix} instead of the given matrix.
+     */
+    public SimilarityMatrix getSimilarityMatrix() {
+        return selfSimilarityMatrix;
+    }
+
+    /**
+     * @return how far the diagonals of two equal segments may be shifted, in
+     * frames.
+     */
+    private int toleranceInFrames(int segmentationLevel) {
         float toleranceInSec = 0;
-        int toleranceInFrames;
-        switch (currentSegmentationLevel) {
+        switch (segmentationLevel) {
             case (AASModel.MACRO_LEVEL):
                 toleranceInSec = 1.5f;
                 break;
@@ -273,61 +489,81 @@ public class StructureDetection {
                 toleranceInSec = 0.5f;
                 break;
         }
-        toleranceInFrames = Math.round(AASModel.getInstance().getSampleRate() / Configuration.getInt(ConfKey.framesize) * toleranceInSec);
-
-        //Berekeningen voor diagonalen waarbij het X-startpunt kan variëren
-        for (int startpoint = 0; startpoint <= toleranceInFrames; startpoint++) {
-
-            boolean spiegel = false;
-            if (secondStartFrame < firstStartFrame + startpoint) {
-                spiegel = true;
-            }
+        return Math.round(sampleRate / samplesPerFrame * toleranceInSec);
+    }
 
-            boolean spiegel2 = false;
-            if (secondStartFrame + startpoint < firstStartFrame) {
-                spiegel2 = true;
-            }
+    /**
+     * Bounds the match {@link #calculateMatch} calculates from the coarse
+     * index: every diagonal it sums lies in one of a few groups of lags, and
+     * every group is bounded at once over all the cells its diagonals pass.
+     * The bound allows for the rounding of the stored sums.
+     *
+     * @return false if the match can not be higher than {@link #MIN_MATCH}.
+     */
+    private boolean mayMatch(int firstStartFrame, int secondStartFrame, int durationInFrames, int segmentationLevel) {
+        int toleranceInFrames = toleranceInFrames(segmentationLevel);
+        int lag = secondStartFrame - firstStartFrame;
+        if (durationInFrames <= 0) {
+            return false;
+        }
+        if (lag - toleranceInFrames < 0 || range <= 0) {
+            //De diagonalen liggen (deels) in de bovenste helft, niet begrensd
+            return true;
+        }
+        //Een diagonaal op lag - s begint bij firstStartFrame + s, een op lag + s bij firstStartFrame
+        double bound = 0;
+        int lastLag = lag + toleranceInFrames;
+        for (int from = lag - toleranceInFrames; from <= lastLag; from = (from / DiagonalMaxIndex.LAGS_PER_GROUP + 1) * DiagonalMaxIndex.LAGS_PER_GROUP) {
+            int to = Math.min((from / DiagonalMaxIndex.LAGS_PER_GROUP + 1) * DiagonalMaxIndex.LAGS_PER_GROUP - 1, lastLag);
+            int firstCell = firstStartFrame + lag - Math.min(to, lag);
+            int lastCell = firstStartFrame + lag - Math.min(from, lag);
+            bound = Math.max(bound, diagonalMaxima.bound(from, firstCell, lastCell + durationInFrames));
+        }
+        double rounding = (double) diagonalMaxima.size() * diagonalMaxima.getLargestMagnitude() / (1 << 22);
+        return (bound + rounding) / range / durationInFrames > MIN_MATCH;
+    }
 
-            float temp = 0;
-            float temp2 = 0;
-            for (int i = 0; i < durationInFrames; i++) {
+    private float calculateMatch(int firstStartFrame, int secondStartFrame, int durationInFrames, int segmentationLevel) {
+        float match = 0;
+        int toleranceInFrames = toleranceInFrames(segmentationLevel);
+        if (durationInFrames <= 0) {
+            return 0;
+        }
 
-                //Berekening speling langs X-as
-//                if (firstStartFrame + startpoint + i > 0 && firstStartFrame + startpoint + i < selfSimilarityMatrix.length) {
-                if (firstStartFrame + startpoint + i < selfSimilarityMatrix.length) {
-                    if (spiegel) {
-                        temp += (selfSimilarityMatrix[firstStartFrame + startpoint + i][secondStartFrame + i] / range);
-                    } else {
-                        temp += (selfSimilarityMatrix[secondStartFrame + i][firstStartFrame + startpoint + i] / range);
-                    }
-                }
-                //Berekening speling langs Y-as
-//                if (secondStartFrame + startpoint + i > 0 && secondStartFrame + startpoint + i < selfSimilarityMatrix.length) {
-                if (startpoint != 0) {
-                    if (secondStartFrame + startpoint + i < selfSimilarityMatrix.length) {
-                        if (spiegel2) {
-                            temp2 += (selfSimilarityMatrix[firstStartFrame + i][secondStartFrame + startpoint + i] / range);
-                        } else {
-                            temp2 += (selfSimilarityMatrix[secondStartFrame + startpoint + i][firstStartFrame + i] / range);
-                        }
-                    }
-                }
+        //Berekeningen voor diagonalen waarbij het X-startpunt kan variëren
+        //Cellen buiten de matrix tellen niet mee, maar er wordt wel door de volledige duur gedeeld
+        for (int startpoint = 0; startpoint <= toleranceInFrames; startpoint++) {
+            //Berekening speling langs X-as
+            double temp = diagonalSum(secondStartFrame, firstStartFrame + startpoint, durationInFrames);
+            //Berekening speling langs Y-as
+            if (startpoint != 0) {
+                temp = Math.max(temp, diagonalSum(secondStartFrame + startpoint, firstStartFrame, durationInFrames));
             }
-            temp /= (float) durationInFrames;
-            temp2 /= (float) durationInFrames;
-            temp = Math.max(temp, temp2);
-            if (temp > match) {
-                match = temp;
+            float average = (float) (temp / range / durationInFrames);
+            if (average > match) {
+                match = average;
             }
         }
         return match;
     }
 
-    private void searchEqualParts(PriorityQueue<SegmentationMatchItem> queue, SegmentationPart parent) {
-        SegmentationTree segmentationTree = new SegmentationTree();
-        while (!queue.isEmpty()) {
-            SegmentationMatchItem temp = queue.poll();
-            segmentationTree.addSegmentationMatchItemToSuggestions(temp);
+    /**
+     * @see DiagonalSumIndex#sum(int, int, int)
+     */
+    private double diagonalSum(int row, int column, int length) {
+        if (binaryMatrix != null) {
+            return binaryMatrix.count(row, column, length);
+        }
+        return diagonalSums.sum(row, column, length);
+    }
+
+    /**
+     * @param matches the matching pairs, best match first.
+     */
+    private void searchEqualParts(CandidateSegments candidates, List<SegmentationMatchItem> matches, SegmentationPart parent, int segmentationLevel) {
+        SegmentationTree segmentationTree = new SegmentationTree(candidates, segmentationLevel);
+        for (SegmentationMatchItem match : matches) {
+            segmentationTree.addSegmentationMatchItemToSuggestions(match);
         }
         segmentationTree.setTop5Segmentations(parent);
         ArrayList<SegmentationList> top5Segmentations;
@@ -346,7 +582,7 @@ public class StructureDetection {
                 Map<Character, Character> changeLabelMap = new HashMap<Character, Character>();
                 String parentLabel = "";
                 char currentLabel = 'A';
-                if (currentSegmentationLevel != AASModel.MACRO_LEVEL) {
+                if (segmentationLevel != AASModel.MACRO_LEVEL) {
                     parentLabel = segmentationSuggestion.getParent().getLabel();
                     currentLabel = '1';
                 }
@@ -356,7 +592,7 @@ public class StructureDetection {
                     if (!sp.getLabel().isEmpty()) {
                         if (changeLabelMap.containsKey(sp.getLabel().charAt(0))) {
                             String label = parentLabel; 
-                            if (currentSegmentationLevel == AASModel.MICRO_LEVEL){
+                            if (segmentationLevel == AASModel.MICRO_LEVEL){
                                 label += ".";
                             }
                             label += String.valueOf(changeLabelMap.get(sp.getLabel().charAt(0)));
@@ -364,7 +600,7 @@ public class StructureDetection {
                         } else {
                             changeLabelMap.put(sp.getLabel().charAt(0), currentLabel);
                             String label = parentLabel; 
-                            if (currentSegmentationLevel == AASModel.MICRO_LEVEL){
+                            if (segmentationLevel == AASModel.MICRO_LEVEL){
                                 label += ".";
                             }
                             label += String.valueOf(currentLabel);
@@ -377,27 +613,43 @@ public class StructureDetection {
         }
     }
 
+    /**
+     * @return the amount of pairs of segments that were compared.
+     */
+    public long getAmountOfPairs() {
+        return amountOfPairs.get();
+    }
+
+    /**
+     * @return the amount of compared pairs of which the match was not
+     * calculated, because it could not be high enough.
+     */
+    public long getAmountOfPrunedPairs() {
+        return amountOfPrunedPairs.get();
+    }
+
     public void cleanMemory() {
         selfSimilarityMatrix = null;
-        allMacroSegmentationParts = null;
-        allMesoSegmentationParts = null;
-        allMicroSegmentationParts = null;
+        diagonalSums = null;
+        binaryMatrix = null;
+        diagonalMaxima = null;
+        segmentationPoints = null;
         segmentation.clearAllSegmentationPoints();
         System.gc();
     }
 
-    private static int checkSegmentation(SegmentationPart oldSP, SegmentationPart newSP) {
+    private static int checkSegmentation(float oldBegin, float oldEnd, float newBegin, float newEnd) {
         //apart voor beide segmenten bekijken en conclusie op basis van statussen nemen
-        if (oldSP.equals(newSP) || (oldSP.getBegin() == newSP.getBegin() && oldSP.getEnd() == newSP.getEnd())) { //Bestaat al
+        if (oldBegin == newBegin && oldEnd == newEnd) { //Bestaat al
             return STATUS_EQUAL;
         }
-        if (newSP.getBegin() < oldSP.getBegin() && newSP.getEnd() > oldSP.getBegin() || newSP.getBegin() < oldSP.getEnd() && newSP.getEnd() > oldSP.getEnd()) { //Conflict
+        if (newBegin < oldBegin && newEnd > oldBegin || newBegin < oldEnd && newEnd > oldEnd) { //Conflict
             return STATUS_CONFLICT;
         }
-        if (newSP.getBegin() >= oldSP.getBegin() && newSP.getEnd() <= oldSP.getEnd()) { //Deel van Segment of gelijk qua tijden
+        if (newBegin >= oldBegin && newEnd <= oldEnd) { //Deel van Segment of gelijk qua tijden
             return STATUS_PART_OF;
         }
-        if (newSP.getBegin() <= oldSP.getBegin() && newSP.getEnd() >= oldSP.getEnd()) { //bevat segment of gelijk qua tijden
+        if (newBegin <= oldBegin && newEnd >= oldEnd) { //bevat segment of gelijk qua tijden
             return STATUS_CONTAINING;
         }
         return STATUS_NONE;
@@ -408,9 +660,16 @@ public class StructureDetection {
     private class SegmentationMatchItem implements Comparator<SegmentationMatchItem> {
 
         public float match;
-        public SegmentationPart firstSP;
-        public SegmentationPart secondSP;
+        /**
+         * The candidate segments of the pair.
+         */
+        public int first;
+        public int second;
         public int durationInFrames;
+        /**
+         * The match was not calculated because it can not be high enough.
+         */
+        public boolean pruned;
 
         @Override
         public int compare(SegmentationMatchItem f1, SegmentationMatchItem f2) {
@@ -424,42 +683,267 @@ public class StructureDetection {
         }
     }
 
-    private class SegmentationEntry {
-
-        protected char label;
-        protected float match;
-        protected SegmentationPart segmentationPart;
+    /**
+     * A part of a segmentation suggestion, and the node of the suggestion
+     * that holds it. Entries never change, so suggestions can share them.
+     */
+    static class SegmentationEntry {
+
+        protected final char label;
+        protected final float match;
+        /**
+         * The candidate segment of the entry and its times.
+         */
+        protected final int segment;
+        protected final float begin, end;
+        /**
+         * The entries with the parts before and after this one.
+         */
+        protected final SegmentationEntry before, after;
+        /**
+         * A node has a higher priority than the nodes below it.
+         */
+        protected final int priority;
+
+        protected SegmentationEntry(char label, float match, CandidateSegments candidates, int segment) {
+            this(label, match, segment, candidates.begin[segment], candidates.end[segment], null, null, priority(candidates.begin[segment]));
+        }
 
-        protected SegmentationEntry(char label, float match, SegmentationPart segmentationPart) {
+        private SegmentationEntry(char label, float match, int segment, float begin, float end, SegmentationEntry before, SegmentationEntry after, int priority) {
             this.label = label;
             this.match = match;
-            this.segmentationPart = segmentationPart;
+            this.segment = segment;
+            this.begin = begin;
+            this.end = end;
+            this.before = before;
+            this.after = after;
+            this.priority = priority;
         }
-    }
 
-    private class SegmentationEntryList extends ArrayList<SegmentationEntry> {
+        protected SegmentationEntry with(SegmentationEntry before, SegmentationEntry after) {
+            return new SegmentationEntry(label, match, segment, begin, end, before, after, priority);
+        }
+
+        protected SegmentationEntry withMatch(float match) {
+            return new SegmentationEntry(label, match, segment, begin, end, before, after, priority);
+        }
 
-        private char label = 'A';
-        private float score;
 
-        public void incrementLabel() {
-            label++;
+        protected float getBegin() {
+            return begin;
         }
 
+        /**
+         * A pseudo-random priority that only depends on the begin of the
+         * part, so the same parts always give the same tree.
+         */
+        private static int priority(float begin) {
+            int h = Float.floatToIntBits(begin) * 0x9E3779B9;
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            return h ^ (h >>> 13);
+        }
+    }
+
+    /**
+     * <p>
+     * A segmentation suggestion: an immutable set of entries, kept in a
+     * treap ordered by the begin of their parts. The parts of a suggestion
+     * never overlap, so finding the part an interval overlaps with is a walk
+     * down the tree. Every change returns a new suggestion that shares all
+     * entries except the ones on the path to the changed or added entry:
+     * branching a suggestion allocates nothing, adding an entry or changing a
+     * match allocates about log(n) nodes. The entries refer to candidate
+     * segments, parts are only made for the suggestions that are kept.
+     * </p>
+     * <p>
+     * The sums the score is calculated from are carried along, so scoring a
+     * suggestion does not walk its entries. A new label is only taken when
+     * entries get it, so the labels from 'A' up to the label of the
+     * suggestion are all in use.
+     * </p>
+     */
+    static class SegmentationEntryList {
+
+        static final SegmentationEntryList EMPTY = new SegmentationEntryList(null, null, 0, 'A', 0, 0);
+        private final SegmentationEntry root;
+        /**
+         * The entry that was added last, as it was added.
+         */
+        private final SegmentationEntry lastEntry;
+        private final int size;
+        private final char label;
+        private final double matchSum;
+        private final double duration;
+
+        private SegmentationEntryList(SegmentationEntry root, SegmentationEntry lastEntry, int size, char label, double matchSum, double duration) {
+            this.root = root;
+            this.lastEntry = lastEntry;
+            this.size = size;
+            this.label = label;
+            this.matchSum = matchSum;
+            this.duration = duration;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the label a new group of equal parts gets.
+         */
         public char getLabel() {
             return label;
         }
 
-        public float getScore() {
-            return score;
+        /**
+         * @return the entry that was added last.
+         */
+        public SegmentationEntry getLast() {
+            return lastEntry == null ? null : find(lastEntry);
         }
 
-        public void setScore(float score) {
-            this.score = score;
+        /**
+         * @return the entries in the order of their parts.
+         */
+        public List<SegmentationEntry> entries() {
+            List<SegmentationEntry> entries = new ArrayList<SegmentationEntry>(size);
+            Stack<SegmentationEntry> path = new Stack<SegmentationEntry>();
+            SegmentationEntry node = root;
+            while (node != null || !path.isEmpty()) {
+                while (node != null) {
+                    path.push(node);
+                    node = node.before;
+                }
+                node = path.pop();
+                entries.add(node);
+                node = node.after;
+            }
+            return entries;
         }
 
-        protected void setLabel(char label) {
-            this.label = label;
+        /**
+         * @return the entry of which the part overlaps with the part from
+         * begin to end (is equal to, part of, contains or conflicts with it),
+         * or null if there is none. If more than one part overlaps, it is one
+         * of them.
+         */
+        public SegmentationEntry overlapping(float begin, float end) {
+            // the last part that begins before the given part ends
+            SegmentationEntry candidate = null;
+            SegmentationEntry node = root;
+            while (node != null) {
+                if (node.getBegin() < end) {
+                    candidate = node;
+                    node = node.after;
+                } else {
+                    node = node.before;
+                }
+            }
+            if (candidate != null && candidate.end > begin) {
+                return candidate;
+            }
+            return null;
+        }
+
+        /**
+         * @return the entry with the segment of the given entry, or null.
+         */
+        private SegmentationEntry find(SegmentationEntry entry) {
+            SegmentationEntry node = root;
+            while (node != null && node.segment != entry.segment) {
+                node = entry.getBegin() < node.getBegin() ? node.before : node.after;
+            }
+            return node;
+        }
+
+        /**
+         * @return this suggestion with a candidate segment added to an
+         * existing label.
+         */
+        public SegmentationEntryList add(char label, float match, CandidateSegments candidates, int segment) {
+            SegmentationEntry entry = new SegmentationEntry(label, match, candidates, segment);
+            return new SegmentationEntryList(insert(root, entry), entry, size + 1, this.label, matchSum + match, duration + entry.end - entry.begin);
+        }
+
+        /**
+         * @return this suggestion with two equal candidate segments added
+         * under a new label.
+         */
+        public SegmentationEntryList addPair(CandidateSegments candidates, int firstSegment, int secondSegment, float match) {
+            SegmentationEntry first = new SegmentationEntry(label, match, candidates, firstSegment);
+            SegmentationEntry second = new SegmentationEntry(label, match, candidates, secondSegment);
+            return new SegmentationEntryList(insert(insert(root, first), second), second, size + 2, (char) (label + 1), matchSum + 2 * match, duration + first.end - first.begin + second.end - second.begin);
+        }
+
+        /**
+         * @param entry an entry of this suggestion, or of a suggestion this one
+         * was derived from: the entry with the same segment is changed.
+         * @return this suggestion with the match of the entry changed.
+         */
+        public SegmentationEntryList setMatch(SegmentationEntry entry, float match) {
+            double change = match - find(entry).match;
+            return new SegmentationEntryList(replaceMatch(root, entry, match), lastEntry, size, label, matchSum + change, duration);
+        }
+
+        private static SegmentationEntry replaceMatch(SegmentationEntry node, SegmentationEntry entry, float match) {
+            if (node.segment == entry.segment) {
+                return node.withMatch(match);
+            }
+            if (entry.getBegin() < node.getBegin()) {
+                return node.with(replaceMatch(node.before, entry, match), node.after);
+            }
+            return node.with(node.before, replaceMatch(node.after, entry, match));
+        }
+
+        private static SegmentationEntry insert(SegmentationEntry node, SegmentationEntry entry) {
+            if (node == null) {
+                return entry;
+            }
+            if (entry.priority > node.priority) {
+                SegmentationEntry[] split = split(node, entry.getBegin());
+                return entry.with(split[0], split[1]);
+            }
+            if (entry.getBegin() < node.getBegin()) {
+                return node.with(insert(node.before, entry), node.after);
+            }
+            return node.with(node.before, insert(node.after, entry));
+        }
+
+        /**
+         * @return copies of the entries that begin before and after the
+         * given time.
+         */
+        private static SegmentationEntry[] split(SegmentationEntry node, float begin) {
+            if (node == null) {
+                return new SegmentationEntry[2];
+            }
+            if (node.getBegin() < begin) {
+                SegmentationEntry[] split = split(node.after, begin);
+                split[0] = node.with(node.before, split[0]);
+                return split;
+            }
+            SegmentationEntry[] split = split(node.before, begin);
+            split[1] = node.with(split[1], node.after);
+            return split;
+        }
+
+        public float getAverageMatch() {
+            return size == 0 ? 0 : (float) (matchSum / size);
+        }
+
+        /**
+         * @return the summed length of the parts, in seconds.
+         */
+        public float getDuration() {
+            return (float) duration;
+        }
+
+        /**
+         * @return the amount of different labels, counted modulo 26.
+         */
+        public int getAmountOfDifferentSegments() {
+            return Math.min(label - 'A', 26);
         }
     }
 
@@ -470,10 +954,13 @@ public class StructureDetection {
         //Bij 2 equal -> Match updaten
         //Al de rest -> Nieuwe segmentatie sugestie
         private ArrayList<SegmentationEntryList> segmentationSuggestions;
+        private final CandidateSegments candidates;
+        private final int segmentationLevel;
 
-        public SegmentationTree() {
+        public SegmentationTree(CandidateSegments candidates, int segmentationLevel) {
             segmentationSuggestions = new ArrayList();
-
+            this.candidates = candidates;
+            this.segmentationLevel = segmentationLevel;
         }
 
         //Worden toegevoegd in dalende (niet stijgende) volgorde van lengte
@@ -488,7 +975,6 @@ public class StructureDetection {
 
                 int statusFirstSP = STATUS_NONE;
                 int statusSecondSP = STATUS_NONE;
-                Iterator<SegmentationEntry> it = list.iterator();
 
                 SegmentationEntry relationFirst = null;
                 SegmentationEntry relationSecond = null;
@@ -502,95 +988,55 @@ public class StructureDetection {
                 //IRRELEVANT: Beide segmenten bestaan al (smi.segmentationPart.equals(currentSE.segmentationPart) -> entry aanmaken met zelfde label als match hoog genoeg is of nieuwe set
                 //Om aan overeenkomstig of ouder segment te komen
 
-                //while (it.hasNext() && statusFirstSP != STATUS_CONFLICT && statusSecondSP != STATUS_CONFLICT && (statusFirstSP == STATUS_NONE || statusSecondSP == STATUS_NONE)) {
-
-                while (it.hasNext() && (statusFirstSP == STATUS_NONE || statusFirstSP == STATUS_EQUAL) && (statusSecondSP == STATUS_NONE || statusSecondSP == STATUS_EQUAL)) {
-                    SegmentationEntry currentSE = it.next();
-                    if (statusFirstSP == STATUS_NONE) {
-                        relationFirst = currentSE;
-                        statusFirstSP = checkSegmentation(currentSE.segmentationPart, smi.firstSP);
-                    }
-
-                    if (statusSecondSP == STATUS_NONE) {
-                        relationSecond = currentSE;
-                        statusSecondSP = checkSegmentation(currentSE.segmentationPart, smi.secondSP);
-                    }
-
+                //De delen van een suggestie overlappen niet: enkel het deel dat overlapt met een segment bepaalt zijn status
+                SegmentationEntry overlapping = list.overlapping(candidates.begin[smi.first], candidates.end[smi.first]);
+                if (overlapping != null) {
+                    relationFirst = overlapping;
+                    statusFirstSP = checkSegmentation(overlapping.begin, overlapping.end, candidates.begin[smi.first], candidates.end[smi.first]);
+                }
+                overlapping = list.overlapping(candidates.begin[smi.second], candidates.end[smi.second]);
+                if (overlapping != null) {
+                    relationSecond = overlapping;
+                    statusSecondSP = checkSegmentation(overlapping.begin, overlapping.end, candidates.begin[smi.second], candidates.end[smi.second]);
+                }
+                //Zonder relatie: de laatst toegevoegde entry
+                if (statusFirstSP == STATUS_NONE) {
+                    relationFirst = list.getLast();
+                }
+                if (statusSecondSP == STATUS_NONE) {
+                    relationSecond = list.getLast();
                 }
 
                 if ((statusFirstSP == STATUS_NONE || statusFirstSP == STATUS_EQUAL) && (statusSecondSP == STATUS_NONE || statusSecondSP == STATUS_EQUAL)) {
                     if (statusFirstSP == STATUS_NONE) {
-                        SegmentationPart firstSP = new SegmentationPart(smi.firstSP);
-                        if (statusSecondSP == STATUS_NONE) { //Beide kunnen probleemloos toegevoegd worden + kopie maken
-                            SegmentationEntryList newList = new SegmentationEntryList();
-                            newList.setLabel(list.getLabel());
-                            for (int j = 0; j < list.size(); j++) {
-                                newList.add(new SegmentationEntry(list.get(j).label, list.get(j).match, new SegmentationPart(list.get(j).segmentationPart)));
-                            }
-                            char label = newList.getLabel();
-                            SegmentationPart secondSP = new SegmentationPart(smi.secondSP);
-                            newList.add(new SegmentationEntry(label, smi.match, firstSP));
-                            newList.add(new SegmentationEntry(label, smi.match, secondSP));
-                            firstSP.setMatch(smi.match);
-                            secondSP.setMatch(smi.match);
-                            newList.incrementLabel();
+                        if (statusSecondSP == STATUS_NONE) { //Beide kunnen probleemloos toegevoegd worden -> nieuwe suggestie
+                            newListStack.push(list.addPair(candidates, smi.first, smi.second, smi.match));
                             createNewList = false;
-                            newListStack.push(newList);
                         } else if (statusSecondSP == STATUS_EQUAL) {
+                            //eerste toevoegen met zelfde label als bestaand segment @TODO: match aanpassen?
+                            SegmentationEntryList newList = list.setMatch(relationSecond, (relationSecond.match + smi.match) / 2).add(relationSecond.label, smi.match, candidates, smi.first);
                             if (smi.match < 0.8 * relationSecond.match) { //indien de match te laag is tov de andere twee -> nieuwe lijst en beide suggereren
-                                SegmentationEntryList newList = new SegmentationEntryList();
-                                newList.setLabel(list.getLabel());
-                                for (int j = 0; j < list.size(); j++) {
-                                    newList.add(new SegmentationEntry(list.get(j).label, list.get(j).match, new SegmentationPart(list.get(j).segmentationPart)));
-                                    if (checkSegmentation(newList.get(j).segmentationPart, smi.secondSP) == STATUS_EQUAL) {
-                                        relationSecond = newList.get(j);
-                                    }
-                                }
-                                newList.add(new SegmentationEntry(relationSecond.label, smi.match, firstSP)); //eerste toevoegen met zelfde label als bestaand segment (als match hoog genoeg) @TODO: match aanpassen?
-                                firstSP.setMatch(smi.match);
-                                relationSecond.match = (relationSecond.match + smi.match) / 2;
-                                relationSecond.segmentationPart.setMatch(relationSecond.match);
                                 newListStack.push(newList);
                             } else {
-                                list.add(new SegmentationEntry(relationSecond.label, smi.match, firstSP)); //eerste toevoegen met zelfde label als bestaand segment (als match hoog genoeg) @TODO: match aanpassen?
-                                firstSP.setMatch(smi.match);
-                                relationSecond.match = (relationSecond.match + smi.match) / 2;
-                                relationSecond.segmentationPart.setMatch(relationSecond.match);
-
+                                segmentationSuggestions.set(i, newList);
                             }
                             createNewList = false;
                         }
                     } else if (statusFirstSP == STATUS_EQUAL) {
                         if (statusSecondSP == STATUS_NONE) {
-                            SegmentationPart secondSP = new SegmentationPart(smi.secondSP);
+                            //tweede toevoegen met zelfde label als bestaand segment -> match van andere items moet aangepast worden?
+                            SegmentationEntryList newList = list.setMatch(relationFirst, (relationFirst.match + smi.match) / 2).add(relationFirst.label, smi.match, candidates, smi.second);
                             if (smi.match < 0.8 * relationSecond.match) { //indien de match te laag is tov de andere twee -> nieuwe lijst en beide suggereren
-                                SegmentationEntryList newList = new SegmentationEntryList();
-                                newList.setLabel(list.getLabel());
-                                for (int j = 0; j < list.size(); j++) {
-                                    newList.add(new SegmentationEntry(list.get(j).label, list.get(j).match, new SegmentationPart(list.get(j).segmentationPart)));
-                                    if (checkSegmentation(newList.get(j).segmentationPart, smi.firstSP) == STATUS_EQUAL) {
-                                        relationFirst = newList.get(j);
-                                    }
-                                }
-                                newList.add(new SegmentationEntry(relationFirst.label, smi.match, secondSP)); //eerste toevoegen met zelfde label als bestaand segment (als match hoog genoeg) -> match van andere items moet aangepast worden?
-                                secondSP.setMatch(smi.match);
-                                relationFirst.match = (relationFirst.match + smi.match) / 2;
-                                relationFirst.segmentationPart.setMatch(relationFirst.match);
-                                //relationFirst.segmentationPart.setComment(relationFirst.segmentationPart.getComment() + "<- Updated to: " + relationFirst.match + " - Match with " + smi.secondSP.getBegin() + ": " + (int) (smi.match * 100));
                                 newListStack.push(newList);
                             } else {
-                                list.add(new SegmentationEntry(relationFirst.label, smi.match, secondSP)); //eerste toevoegen met zelfde label als bestaand segment (als match hoog genoeg) -> match van andere items moet aangepast worden?
-                                secondSP.setMatch(smi.match);
-                                relationFirst.match = (relationFirst.match + smi.match) / 2;
-                                relationFirst.segmentationPart.setMatch(relationFirst.match);
+                                segmentationSuggestions.set(i, newList);
                             }
                             createNewList = false;
                         } else if (statusSecondSP == STATUS_EQUAL) { //match should be updated
                             if (relationFirst.label == relationSecond.label){
-                                relationFirst.match = (relationFirst.match + smi.match) / 2;
-                                relationSecond.match = (relationSecond.match + smi.match) / 2;
-                                relationSecond.segmentationPart.setMatch(relationSecond.match);
-                                relationFirst.segmentationPart.setMatch(relationFirst.match);
+                                list = list.setMatch(relationFirst, (relationFirst.match + smi.match) / 2);
+                                list = list.setMatch(relationSecond, (relationSecond.match + smi.match) / 2);
+                                segmentationSuggestions.set(i, list);
                                 createNewList = false;
                             }
                         }
@@ -598,42 +1044,56 @@ public class StructureDetection {
                 }
             }
             if (createNewList) {
-                SegmentationEntryList list = new SegmentationEntryList();
-                char label = list.getLabel();
-                SegmentationPart firstSP = new SegmentationPart(smi.firstSP);
-                SegmentationPart secondSP = new SegmentationPart(smi.secondSP);
-                list.add(new SegmentationEntry(label, smi.match, firstSP));
-                list.add(new SegmentationEntry(label, smi.match, secondSP));
-                firstSP.setMatch(smi.match);
-                secondSP.setMatch(smi.match);
-                list.incrementLabel();
-                segmentationSuggestions.add(list);
+                segmentationSuggestions.add(SegmentationEntryList.EMPTY.addPair(candidates, smi.first, smi.second, smi.match));
             }
             while (!newListStack.isEmpty()) {
                 segmentationSuggestions.add(newListStack.pop());
             }
-            if (segmentationSuggestions.size() > 500) { //Performance optimalisatie: prevents crashing of huge songs
-                for (int i = 0; i<segmentationSuggestions.size(); i++){
-                    calculateScore(segmentationSuggestions.get(i));
-                }
-                ArrayList<SegmentationEntryList> tempBestSuggestions = new ArrayList();
-                for (int i = 0; i < segmentationSuggestions.size(); i++) {
-                    SegmentationEntryList suggestion = segmentationSuggestions.get(i);
-                    int j = 0;
-                    while (j < tempBestSuggestions.size() && j <= 300) {
-                        if (suggestion.getScore() > calculateScore(tempBestSuggestions.get(j))) {
-                            SegmentationEntryList temp = tempBestSuggestions.get(j);
-                            tempBestSuggestions.set(j, suggestion);
-                            suggestion = temp;
-                        }
-                        j++;
-                    }
-                    if (tempBestSuggestions.size() <= 300) {
-                        tempBestSuggestions.add(j, suggestion);
+            if (segmentationSuggestions.size() > beamWidth) { //Performance optimalisatie: prevents crashing of huge songs
+                segmentationSuggestions = best(segmentationSuggestions, beamWidth);
+            }
+        }
+
+        /**
+         * Selects the suggestions with the highest scores with a bounded
+         * min-heap. Of suggestions with the same score the first ones are
+         * kept.
+         *
+         * @return the selected suggestions, in the order of the given list.
+         */
+        private ArrayList<SegmentationEntryList> best(final ArrayList<SegmentationEntryList> suggestions, int amount) {
+            final float[] scores = new float[suggestions.size()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = calculateScore(suggestions.get(i));
+            }
+            //De kop van de heap is de slechtste (en bij gelijke score de laatste) suggestie
+            PriorityQueue<Integer> heap = new PriorityQueue<Integer>(amount + 1, new Comparator<Integer>() {
+
+                @Override
+                public int compare(Integer a, Integer b) {
+                    if (scores[a] != scores[b]) {
+                        return scores[a] < scores[b] ? -1 : 1;
                     }
+                    return b - a;
+                }
+            });
+            for (int i = 0; i < scores.length; i++) {
+                heap.add(i);
+                if (heap.size() > amount) {
+                    heap.poll();
+                }
+            }
+            boolean[] selected = new boolean[scores.length];
+            for (Integer i : heap) {
+                selected[i] = true;
+            }
+            ArrayList<SegmentationEntryList> best = new ArrayList<SegmentationEntryList>(heap.size());
+            for (int i = 0; i < scores.length; i++) {
+                if (selected[i]) {
+                    best.add(suggestions.get(i));
                 }
-                this.segmentationSuggestions = tempBestSuggestions;
             }
+            return best;
         }
 
         public void setTop5Segmentations(SegmentationPart parent) {
@@ -643,42 +1103,29 @@ public class StructureDetection {
             } else {
                 bestSegmentations = segmentation.getMacroSuggestions();
             }
-            ArrayList<SegmentationEntryList> bestSegmentationLists = new ArrayList(5);
-            for (int i = 0; i < segmentationSuggestions.size(); i++) {
-                calculateScore(segmentationSuggestions.get(i));
-                addSegmentationToTop5(bestSegmentationLists, segmentationSuggestions.get(i));
-            }
+            ArrayList<SegmentationEntryList> bestSegmentationLists = best(segmentationSuggestions, 5);
+            //Beste eerst, bij gelijke score de eerste suggestie eerst
+            Collections.sort(bestSegmentationLists, new Comparator<SegmentationEntryList>() {
 
-            bestSegmentations.clear();
-            for (int i = 0; i <= 4; i++) {
-                if (bestSegmentationLists.size() > i) {
-                    bestSegmentations.add(convertEntryListToSegmentationList(parent, bestSegmentationLists.get(i)));
+                @Override
+                public int compare(SegmentationEntryList a, SegmentationEntryList b) {
+                    return Float.compare(calculateScore(b), calculateScore(a));
                 }
-            }
-        }
+            });
 
-        private void addSegmentationToTop5(ArrayList<SegmentationEntryList> bestSegmentations, SegmentationEntryList segmentation) {
-            int i = 0;
-            while (i < bestSegmentations.size() && i <= 4) {
-                if (segmentation.getScore() > bestSegmentations.get(i).getScore()) {
-                    SegmentationEntryList temp = bestSegmentations.get(i);
-                    bestSegmentations.set(i, segmentation);
-                    segmentation = temp;
-                }
-                i++;
-            }
-            if (bestSegmentations.size() <= 5) {
-                bestSegmentations.add(i, segmentation);
+            bestSegmentations.clear();
+            for (int i = 0; i < bestSegmentationLists.size(); i++) {
+                bestSegmentations.add(convertEntryListToSegmentationList(parent, bestSegmentationLists.get(i)));
             }
         }
 
         private SegmentationList convertEntryListToSegmentationList(SegmentationPart parent, SegmentationEntryList list) {
 
-            SegmentationList segmentationSuggestion = new SegmentationList(parent, currentSegmentationLevel);
-            for (int i = 0; i < list.size(); i++) {
-                SegmentationPart sp = new SegmentationPart(list.get(i).segmentationPart);
-                sp.setLabel(String.valueOf(list.get(i).label));
-                //list.get(i).segmentationPart.setLabel(String.valueOf(list.get(i).label));
+            SegmentationList segmentationSuggestion = new SegmentationList(segmentation, parent, segmentationLevel);
+            for (SegmentationEntry entry : list.entries()) {
+                SegmentationPart sp = new SegmentationPart(entry.begin, entry.end);
+                sp.setMatch(entry.match);
+                sp.setLabel(String.valueOf(entry.label));
                 segmentationSuggestion.add(sp);
             }
             return segmentationSuggestion;
@@ -686,28 +1133,14 @@ public class StructureDetection {
 
         private float calculateScore(SegmentationEntryList list) {
 
-            float avgMatch = 0;
-            int amountOfDifferentSegments = 0; //aantal verschillende segmenten = aantal labels
-            int amountOfParts = 0; //hoeveel segmenten zijn er -> macro < 10
-            float coverage = 0f;
-            int labelFreqTable[] = new int[26];
-            for (int i = 0; i < 26; i++) {
-                labelFreqTable[i] = 0;
-            }
-            for (int i = 0; i < list.size(); i++) {
-                SegmentationEntry entry = list.get(i);
-                avgMatch += (entry.match / (float) list.size());
-                labelFreqTable[entry.label % 26]++;
-                if (labelFreqTable[entry.label % 26] == 1) {
-                    amountOfDifferentSegments++;
-                }
-                coverage += (entry.segmentationPart.getEnd() - entry.segmentationPart.getBegin()) / songDuration;
-                amountOfParts++;
-            }
+            float avgMatch = list.getAverageMatch();
+            int amountOfDifferentSegments = list.getAmountOfDifferentSegments(); //aantal verschillende segmenten = aantal labels
+            int amountOfParts = list.size(); //hoeveel segmenten zijn er -> macro < 10
+            float coverage = list.getDuration() / songDuration;
 
             float score;
             if (avgMatch > 0.25) {
-                if (currentSegmentationLevel == AASModel.MACRO_LEVEL) {
+                if (segmentationLevel == AASModel.MACRO_LEVEL) {
                     score = (float) ((avgMatch * 0.5 + coverage * 0.5) * (1 - 0.05 * (amountOfDifferentSegments - 1) - 0.01 * (amountOfParts - 2)));
                 } else {
                     score = (float) (avgMatch * 0.57 + coverage * 0.43);
@@ -715,7 +1148,6 @@ public class StructureDetection {
             } else {
                 score = 0;
             }
-            list.setScore(score);
             return score;
         }
     }
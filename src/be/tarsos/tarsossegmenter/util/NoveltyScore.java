@@ -5,15 +5,25 @@
 package be.tarsos.tarsossegmenter.util;
 
 import be.tarsos.tarsossegmenter.model.AASModel;
-import be.tarsos.tarsossegmenter.util.configuration.ConfKey;
-import be.tarsos.tarsossegmenter.util.configuration.Configuration;
+import be.tarsos.tarsossegmenter.model.segmentation.Segmentation;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrix;
+import be.tarsos.tarsossegmenter.util.concurrent.WorkerPool;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 /**
+ * Calculates the novelty scores of a self-similarity matrix and adds the peaks
+ * as segmentation points to a segmentation. An instance holds the state of one
+ * calculation: use one per analysis.
+ * <p>
+ * The scores of the enabled levels are calculated at the same time on the
+ * shared fork/join pool, every level split in ranges of frames. The kernels
+ * of all window sizes come from one shared {@link KernelBank}. The peaks are
+ * picked afterwards, level by level, from macro to micro.
+ * </p>
  *
  * @author Thomas
  */
@@ -38,44 +48,82 @@ public class NoveltyScore {
      *
      */
     //private static final int STARTENDWINDOW = 20;
-    private static int maxWindowSize;// = 200;
     //private static int windowSizeStep = 50;
-    private static int window;
-    private static float treshholdMacro = 0.23f;
-    private static float treshholdMeso = 0.2f; //adjusts dynamicly
-    private static float treshholdMicro = 0.1f;
-    private static float max;
+    private static final float treshholdMacro = 0.23f;
+    private static final float treshholdMeso = 0.2f; //adjusts dynamicly
+    private static final float treshholdMicro = 0.1f;
+    /**
+     * Ranges of frames with fewer kernel cells than this are not split any
+     * further.
+     */
+    private static final long TASK_CELLS = 1 << 18;
+    /**
+     * The amount of thresholds tried before the peak picking gives up on the
+     * bounds of a level. A search that does not swing takes at most about 10.
+     */
+    private static final int MAX_THRESHOLD_STEPS = 50;
+    private static volatile KernelBank kernelBank;
+    //the maximum of the smoothed scores, per level
+    private final float[] max = new float[3];
     //private static float songDuration;
-    private static int amountOfFrames;
+    private int amountOfFrames;
+    private final Segmentation segmentation;
+    private final int framesize;
+    private final boolean macroEnabled;
+    private final boolean mesoEnabled;
+    private final boolean microEnabled;
+
+    /**
+     * @param segmentation the segmentation the segmentation points are added
+     * to.
+     * @param framesize the amount of samples in a frame.
+     * @param macroEnabled true to calculate the macro level.
+     * @param mesoEnabled true to calculate the meso level, after the macro
+     * level.
+     * @param microEnabled true to calculate the micro level, after the meso
+     * level.
+     */
+    public NoveltyScore(Segmentation segmentation, int framesize, boolean macroEnabled, boolean mesoEnabled, boolean microEnabled) {
+        this.segmentation = segmentation;
+        this.framesize = framesize;
+        this.macroEnabled = macroEnabled;
+        this.mesoEnabled = mesoEnabled;
+        this.microEnabled = microEnabled;
+    }
 
+    /**
+     * The Gaussian checkerboard kernel of the given size is the outer product
+     * of one vector with itself: cell (i, j) is
+     * exp(-((i - mean)^2 + (j - mean)^2) / (2 sigma^2)) / (2 pi sigma^2), with
+     * a minus sign when i and j lie on different sides of the mean. Both the
+     * Gaussian and the sign split into a factor for i and a factor for j, so
+     * the kernel is never built, only this vector.
+     *
+     * @return the vector u for which cell (i, j) of the kernel is u[i] * u[j].
+     */
     //Zonder de segmentatiepunten te berekenen (enkel de noveltyScore zelf)
-    private static float[][] createGaussianKernel(int size) {
+    private static float[] createGaussianKernel(int size) {
 
-        float[][] gaussianKernel = new float[size][size];
+        float[] gaussianKernel = new float[size];
 //        float sigma = (size / 4f) - 2.5f;
         //float sigma = 1;
         float sigma = (float)Math.sqrt((2*size*size-2)/12);
         float mean = size / 2;
-        double sum = 0;
+        double scale = Math.sqrt(2 * Math.PI * sigma * sigma);
         for (int i = 0; i < size; i++) {
-            for (int j = 0; j < gaussianKernel[i].length; j++) {
-
-                gaussianKernel[i][j] = (float) (Math.exp(-0.5 * (Math.pow((i - mean) / sigma, 2) + Math.pow((j - mean) / sigma, 2))) / (2 * Math.PI * sigma * sigma));
-                if (i >= mean && j < mean || i < mean && j >= mean) {
-                    gaussianKernel[i][j] *= -1;
-                }
-                sum += gaussianKernel[i][j];
+            gaussianKernel[i] = (float) (Math.exp(-0.5 * Math.pow((i - mean) / sigma, 2)) / scale);
+            if (i < mean) {
+                gaussianKernel[i] *= -1;
             }
         }
-//        System.out.println("   KernelSize: " + size + " - Sum: " + sum);
         return gaussianKernel;
     }
 
-    private static float[] calculateScore(float[][] matrix, int segmentationLevel) {
-        amountOfFrames = matrix.length;
-//        System.out.println("SegmentationLevel: " + segmentationLevel);
-        int framesize = Configuration.getInt(ConfKey.framesize);
-
+    /**
+     * @return the largest (even) kernel of the given level.
+     */
+    static int maxWindowSize(int framesize, int segmentationLevel) {
+        int maxWindowSize;
         switch (framesize) {
             case 1024:
                 maxWindowSize = 200;
@@ -108,32 +156,159 @@ public class NoveltyScore {
         if (maxWindowSize % 2 == 1) {
             maxWindowSize++;
         }
+        return maxWindowSize;
+    }
+
+    /**
+     * @return the amount of enabled levels: every level needs the one above
+     * it.
+     */
+    static int levels(boolean macroEnabled, boolean mesoEnabled, boolean microEnabled) {
+        return !macroEnabled ? 0 : !mesoEnabled ? 1 : !microEnabled ? 2 : 3;
+    }
+
+    /**
+     * @return the amount of frames at the begin and at the end of the song
+     * that get no score.
+     */
+    static int beginEndFrame(int maxWindowSize) {
+        return Math.min(10, maxWindowSize / 2 + 1);
+    }
+
+    /**
+     * @return the (even) size of the kernel around a frame: the largest one,
+     * or smaller near the begin and the end of the song. In a song shorter
+     * than the largest kernel both ends can limit it.
+     */
+    static int window(int frameNr, int maxWindowSize, int amountOfFrames) {
+        int window = (frameNr * 2);
+        if (window > maxWindowSize) {
+            window = maxWindowSize;
+        }
+        if (frameNr > amountOfFrames - maxWindowSize / 2) {
+            window = Math.min(window, (amountOfFrames - frameNr) * 2);
+        }
+        return window;
+    }
 
-        float[][] kernel = null;
+    /**
+     * @return a kernel bank with all kernels up to the given size, shared by
+     * all calculations.
+     */
+    static KernelBank kernelBank(int maxWindowSize) {
+        KernelBank bank = kernelBank;
+        if (bank == null || bank.getMaxSize() < maxWindowSize) {
+            bank = new KernelBank(maxWindowSize);
+            kernelBank = bank;
+        }
+        return bank;
+    }
 
-        float[] scores = new float[amountOfFrames];
+    /**
+     * The kernel vectors (see {@link NoveltyScore#createGaussianKernel(int)})
+     * of every even size up to a maximum, computed once. A bank is never
+     * changed after construction and is shared between threads and
+     * calculations.
+     */
+    static final class KernelBank {
 
-        float avgScore;
-        int beginEndFrame = Math.min(10, maxWindowSize/2 + 1);
-        
-        for (int frameNr = beginEndFrame; frameNr < amountOfFrames - beginEndFrame; frameNr++) {
-            window = (frameNr * 2);
-            if (window > maxWindowSize) {
-                window = maxWindowSize;
-            }
-            if (frameNr > amountOfFrames - maxWindowSize / 2) {
-                window = (amountOfFrames - frameNr) * 2;
+        private final float[][] kernels;
+
+        KernelBank(int maxSize) {
+            kernels = new float[maxSize + 1][];
+            for (int size = 2; size <= maxSize; size += 2) {
+                kernels[size] = createGaussianKernel(size);
             }
+        }
 
-            if (kernel == null || window != kernel.length) {
-                kernel = createGaussianKernel(window);
+        int getMaxSize() {
+            return kernels.length - 1;
+        }
+
+        /**
+         * @param size an even size, at most the maximum size.
+         */
+        float[] get(int size) {
+            return kernels[size];
+        }
+    }
+
+    /**
+     * Calculates the score of one level and smooths it.
+     */
+    private class LevelTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityMatrix matrix;
+        private final int segmentationLevel;
+        private final KernelBank bank;
+        private final float[][] noveltyScore;
+
+        LevelTask(SimilarityMatrix matrix, int segmentationLevel, KernelBank bank, float[][] noveltyScore) {
+            this.matrix = matrix;
+            this.segmentationLevel = segmentationLevel;
+            this.bank = bank;
+            this.noveltyScore = noveltyScore;
+        }
+
+        @Override
+        protected void compute() {
+            int maxWindowSize = maxWindowSize(framesize, segmentationLevel);
+            float[] scores = new float[amountOfFrames];
+            int beginEndFrame = beginEndFrame(maxWindowSize);
+            new FrameTask(matrix, bank, maxWindowSize, scores, beginEndFrame, amountOfFrames - beginEndFrame).invoke();
+            noveltyScore[segmentationLevel] = smooth(scores, segmentationLevel);
+        }
+    }
+
+    /**
+     * Calculates the scores of the frames from ... to - 1.
+     */
+    private class FrameTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SimilarityMatrix matrix;
+        private final KernelBank bank;
+        private final int maxWindowSize;
+        private final float[] scores;
+        private final int from;
+        private final int to;
+
+        FrameTask(SimilarityMatrix matrix, KernelBank bank, int maxWindowSize, float[] scores, int from, int to) {
+            this.matrix = matrix;
+            this.bank = bank;
+            this.maxWindowSize = maxWindowSize;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && (long) (to - from) * maxWindowSize * maxWindowSize / 2 > TASK_CELLS) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new FrameTask(matrix, bank, maxWindowSize, scores, from, middle),
+                        new FrameTask(matrix, bank, maxWindowSize, scores, middle, to));
+                return;
             }
+            float[] row = new float[maxWindowSize];
+            for (int frameNr = from; frameNr < to; frameNr++) {
+                int window = window(frameNr, maxWindowSize, amountOfFrames);
 
-            avgScore = calculateScore(matrix, frameNr, kernel);
+                float avgScore = calculateScore(matrix, frameNr, bank.get(window), row);
 
-            scores[frameNr] = Math.max(avgScore, 0);
+                scores[frameNr] = Math.max(avgScore, 0);
+            }
         }
+    }
 
+    /**
+     * Smooths the scores of a level with a Gaussian and stores the maximum of
+     * the smoothed scores.
+     */
+    private float[] smooth(float[] scores, int segmentationLevel) {
         //applying gausian: gaussian met sigma ~ 1.62
         //float[] gaussianKernel = {(float) (252. / 1024.), (float) (210. / 1024.), (float) (120. / 1024.), (float) (45. / 1024.), (float) (10. / 1024.), (float) (1. / 1024.)}; //semetrisch
         //gaussian met sigma = 2.2 (1/[s*WORTEL(2*PI)]*e^[-x²/(2*s²)]
@@ -145,7 +320,7 @@ public class NoveltyScore {
         float[] smoothedscores = new float[amountOfFrames];
 
 
-        max = 0;
+        float max = 0;
         for (int i = 0; i < gaussianKernel.length; i++) {
             smoothedscores[i] = scores[i];
             smoothedscores[amountOfFrames - i - 1] = scores[amountOfFrames - i - 1];
@@ -160,68 +335,109 @@ public class NoveltyScore {
                 max = smoothedscores[i];
             }
         }
+        this.max[segmentationLevel] = max;
         return smoothedscores;
     }
 
-    private static float calculateScore(float[][] matrix, int frameNr, float[][] kernel) {
-        float score = 0f;
-        int mean = kernel.length / 2;
-
-        for (int i = -mean; i < mean; i++) { //lengte 8 voor 
-            for (int j = -mean; j < mean; j++) {
-                if (frameNr + j <= frameNr + i) {
-                    score += matrix[frameNr + i][frameNr + j] * kernel[mean + i][mean + j];
-                } else {
-                    score += matrix[frameNr + j][frameNr + i] * kernel[mean + i][mean + j];
-                }
-
-//                
-//                if (frameNr - kernel.length / 2 + j > frameNr - kernel.length / 2 + i || frameNr - kernel.length / 2 + i < 0 || frameNr - kernel.length / 2 + j < 0 || frameNr - kernel.length / 2 + i >= matrix.length || frameNr - (kernel.length / 2) + j > matrix[frameNr - kernel.length / 2 + i].length) {
-//                    System.out.println("   i: " + (frameNr - kernel.length / 2 + i) + "j: " + (frameNr - kernel.length / 2 + j));
-//                } else {
-//                    score += kernel[i][j] * matrix[frameNr - (kernel.length / 2) + i][frameNr - (kernel.length / 2) + j];
-//                }
+    /**
+     * Applies the kernel u u^T around the diagonal cell (frameNr, frameNr): the
+     * sum over i and j of u[i] u[j] matrix(frameNr - mean + i, frameNr - mean
+     * + j). The matrix is symmetric, so every cell below the diagonal of the
+     * window counts twice and only the lower half is read, row by row.
+     *
+     * @param row a buffer of at least kernel.length values.
+     */
+    private static float calculateScore(SimilarityMatrix matrix, int frameNr, float[] kernel, float[] row) {
+        int first = frameNr - kernel.length / 2;
+        double score = 0;
+        for (int i = 0; i < kernel.length; i++) {
+            // cells (first + i, first) ... (first + i, first + i)
+            matrix.getRow(first + i, first, i + 1, row, 0);
+            double dot = 0;
+            for (int j = 0; j < i; j++) {
+                dot += row[j] * kernel[j];
             }
+            score += kernel[i] * (2 * dot + kernel[i] * row[i]);
         }
-
-        //return (float)(Math.log(score)/Math.log(1.01));
-        return score;
+        return (float) score;
     }
 
-    private static float calculateScore(float[][] matrix, int frameNr, int windowSize) {
-        float score = 0f;
+    /**
+     * @param matrix the self-similarity matrix.
+     * @param songDuration the length of the audio in milliseconds.
+     * @return the novelty scores per segmentation level, null for the levels
+     * that are not enabled.
+     */
+    public float[][] calculateScore(SimilarityMatrix matrix, float songDuration) {
+        final float[][] noveltyScore = new float[3][];
+        amountOfFrames = matrix.size();
+
+        int levels = levels(macroEnabled, mesoEnabled, microEnabled);
+        addSongBoundaries(songDuration);
+        if (levels > 0) {
+            int maxWindowSize = 0;
+            for (int level = 0; level < levels; level++) {
+                maxWindowSize = Math.max(maxWindowSize, maxWindowSize(framesize, level));
+            }
+            KernelBank bank = kernelBank(maxWindowSize);
+            final List<LevelTask> tasks = new ArrayList<LevelTask>();
+            for (int level = 0; level < levels; level++) {
+                tasks.add(new LevelTask(matrix, level, bank, noveltyScore));
+            }
+            WorkerPool.invoke(new RecursiveAction() {
 
-        for (int m = -windowSize / 2; m < windowSize / 2; m++) {
-            for (int n = (-windowSize + 1) / 2; n < m; n++) {
-                float temp = (matrix[frameNr + m][frameNr + n]);
-                if (m >= 0 && n < 0) {
-                    temp *= -1;
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
                 }
-                score += temp;
-            }
+            });
         }
-        return score;
+        addSegmentationPoints(noveltyScore, songDuration);
+        return noveltyScore;
     }
 
-    public static float[][] calculateScore(float[][] matrix, float songDuration) {
+    /**
+     * Smooths the scores of a {@link StreamingNovelty} that saw all frames
+     * and adds the peaks as segmentation points, like
+     * {@link #calculateScore(SimilarityMatrix, float)} does with the scores
+     * of a matrix.
+     *
+     * @param novelty the streamed scores, of the same levels and frame size.
+     * @param songDuration the length of the audio in milliseconds.
+     * @return the novelty scores per segmentation level, null for the levels
+     * that are not enabled.
+     */
+    public float[][] calculateScore(StreamingNovelty novelty, float songDuration) {
         float[][] noveltyScore = new float[3][];
+        amountOfFrames = novelty.getAmountOfFrames();
 
-        if (Configuration.getBoolean(ConfKey.enable_macro)) {
-            AASModel.getInstance().getSegmentation().addSegmentationPoint(0f, AASModel.MACRO_LEVEL);
-            AASModel.getInstance().getSegmentation().addSegmentationPoint((float) AASModel.getInstance().getAudioFile().getLengthIn(TimeUnit.SECONDS), AASModel.MACRO_LEVEL);
-            noveltyScore[AASModel.MACRO_LEVEL] = calculateScore(matrix, AASModel.MACRO_LEVEL);
+        int levels = levels(macroEnabled, mesoEnabled, microEnabled);
+        addSongBoundaries(songDuration);
+        for (int level = 0; level < levels; level++) {
+            noveltyScore[level] = smooth(novelty.getScores(level), level);
+        }
+        addSegmentationPoints(noveltyScore, songDuration);
+        return noveltyScore;
+    }
+
+    private void addSongBoundaries(float songDuration) {
+        if (macroEnabled) {
+            segmentation.addSegmentationPoint(0f, AASModel.MACRO_LEVEL);
+            segmentation.addSegmentationPoint((float) TimeUnit.SECONDS.convert(songDuration, TimeUnit.MILLISECONDS), AASModel.MACRO_LEVEL);
+        }
+    }
+
+    private void addSegmentationPoints(float[][] noveltyScore, float songDuration) {
+        if (macroEnabled) {
             calculatePossibleSegmentationPoints(noveltyScore[AASModel.MACRO_LEVEL], AASModel.MACRO_LEVEL, songDuration, treshholdMacro);
-            if (Configuration.getBoolean(ConfKey.enable_meso)) {
+            if (mesoEnabled) {
                 //Stap 1: macropunten toevoegen op meso-niveau
-                noveltyScore[AASModel.MESO_LEVEL] = calculateScore(matrix, AASModel.MESO_LEVEL);
                 calculatePossibleSegmentationPoints(noveltyScore[AASModel.MESO_LEVEL], AASModel.MESO_LEVEL, songDuration, treshholdMeso);
-                if (Configuration.getBoolean(ConfKey.enable_micro)) {
-                    noveltyScore[AASModel.MICRO_LEVEL] = calculateScore(matrix, AASModel.MICRO_LEVEL);
+                if (microEnabled) {
                     calculatePossibleSegmentationPoints(noveltyScore[AASModel.MICRO_LEVEL], AASModel.MICRO_LEVEL, songDuration, treshholdMicro);
                 }
             }
         }
-        return noveltyScore;
     }
 
     /*
@@ -328,39 +544,14 @@ public class NoveltyScore {
         return (float) (temp * songDuration);
     }
 
-    //@TODO: maxheap -> segmentatiepunten met grootste score eerst!
-    private static void calculatePossibleSegmentationPoints(float[] scores, int segmentationLevel, float songDuration, float treshhold) {
-        //Zoeken naar lokale maxima in novelty score die > treshhold -> deze punten in potentialSegmentationIndices steken
-        ArrayList<Integer> potentialSegmentationIndices = new ArrayList();
-        for (int frameNr = 0; frameNr < amountOfFrames; frameNr++) {
-            if (scores[frameNr] >= treshhold * max) {
-                float score = scores[frameNr];
-                frameNr++;
-                while (frameNr < amountOfFrames && score <= scores[frameNr]) {
-                    score = scores[frameNr];
-                    frameNr++;
-                }
-
-                float time = getTimeofFrameInMillisec(frameNr, amountOfFrames, songDuration) / 1000f;
-                if (potentialSegmentationIndices.size() > 0 && time - getTimeofFrameInMillisec(potentialSegmentationIndices.get(potentialSegmentationIndices.size() - 1), amountOfFrames, songDuration) / 1000f < 2f) {
-                    if (scores[potentialSegmentationIndices.get(potentialSegmentationIndices.size() - 1)] < scores[frameNr]) {
-                        potentialSegmentationIndices.set(potentialSegmentationIndices.size() - 1, frameNr);
-                    }
-                } else {
-                    potentialSegmentationIndices.add(frameNr);
-                }
-
-                while (frameNr < amountOfFrames && score >= scores[frameNr]) {
-                    score = scores[frameNr];
-                    frameNr++;
-                }
-            }
-        }
-
-        //@TODO: performanter zonder tussengegevensstrutuur
+    /**
+     * Picks the segmentation points of a level (see
+     * {@link #pickPoints(float[], int, float, float, float, int, int)}) and
+     * adds them to the segmentation.
+     */
+    private void calculatePossibleSegmentationPoints(float[] scores, int segmentationLevel, float songDuration, float treshhold) {
         //@TODO: naverwerking (vb, min X seconden tussen + afhankelijk van structuuranalyse en verhoudingen)
         //@TODO: op Meso niveau -> segmentatiepunten dicht bij het macro niveau wegsmijten?
-        //potentialSegmentationIndices omzetten naar segmentationParts
         int minPoints = 0;
         int maxPoints = 100;
         switch (segmentationLevel) {
@@ -378,21 +569,179 @@ public class NoveltyScore {
                 break;
         }
 
-        if (potentialSegmentationIndices.size() < minPoints && treshhold > 0.05f) {
-            potentialSegmentationIndices.clear();
-            treshhold *= 0.7;
-            calculatePossibleSegmentationPoints(scores, segmentationLevel, songDuration, treshhold);
-        } else if (potentialSegmentationIndices.size() > maxPoints && treshhold < 0.7) {
-            potentialSegmentationIndices.clear();
-            treshhold *= 1.3;
-            calculatePossibleSegmentationPoints(scores, segmentationLevel, songDuration, treshhold);
-        } else {
-            for (int i = 0; i < potentialSegmentationIndices.size(); i++) {
-                AASModel.getInstance().getSegmentation().addSegmentationPoint(getTimeofFrameInMillisec(potentialSegmentationIndices.get(i), amountOfFrames, songDuration) / 1000f, segmentationLevel);
+        int[] points = pickPoints(scores, amountOfFrames, max[segmentationLevel], songDuration, treshhold, minPoints, maxPoints);
+        if (points.length > 0) {
+            float[] times = new float[points.length];
+            for (int i = 0; i < points.length; i++) {
+                times[i] = getTimeofFrameInMillisec(points[i], amountOfFrames, songDuration) / 1000f;
+            }
+            segmentation.addSegmentationPoints(times, segmentationLevel);
+        }
+        segmentation.sortSegmentationPoints();
+    }
+
+    /**
+     * <p>
+     * Picks the segmentation points of a curve: the local maxima of the
+     * novelty score above a threshold, at least 2 seconds apart. The threshold
+     * starts at the given fraction of the maximum and is lowered (x 0.7) or
+     * raised (x 1.3) until the amount of points lies within the bounds.
+     * </p>
+     * <p>
+     * The curve is scanned once, for its peaks. Every threshold that is tried
+     * only walks these peaks, and a threshold that leaves fewer peaks than
+     * the minimum amount of points is rejected by a binary search in their
+     * sorted values, without a walk.
+     * </p>
+     * <p>
+     * A curve can jump across the bounds at a single threshold, for instance
+     * when many peaks have the same score: the threshold then swings up and
+     * down forever. After {@link #MAX_THRESHOLD_STEPS} thresholds the search
+     * stops and the threshold is taken from the sorted peak values instead:
+     * the lowest one that leaves at most the maximum amount of peaks.
+     * </p>
+     *
+     * @param maxScore the maximum of the curve, the threshold is a fraction of
+     * it.
+     * @param treshhold the first fraction that is tried.
+     * @return the frames of the points, in time order.
+     */
+    static int[] pickPoints(float[] scores, int amountOfFrames, float maxScore, float songDuration, float treshhold, int minPoints, int maxPoints) {
+        Peaks peaks = new Peaks(scores, amountOfFrames);
+        int[] points = new int[peaks.count];
+        int amountOfPoints;
+        for (int step = 0; ; step++) {
+            if (step == MAX_THRESHOLD_STEPS) {
+                //the bounds can not be met: keep at most the maximum
+                amountOfPoints = selectPeaks(peaks, scores, amountOfFrames, peaks.lowestMinimum(maxPoints), songDuration, points);
+                break;
+            }
+            float minimum = treshhold * maxScore;
+            if (treshhold > 0.05f && peaks.countAtLeast(minimum) < minPoints) {
+                //every point is a peak: too few points, without a walk
+                treshhold *= 0.7;
+                continue;
+            }
+            amountOfPoints = selectPeaks(peaks, scores, amountOfFrames, minimum, songDuration, points);
+            if (amountOfPoints < minPoints && treshhold > 0.05f) {
+                treshhold *= 0.7;
+            } else if (amountOfPoints > maxPoints && treshhold < 0.7) {
+                treshhold *= 1.3;
+            } else {
+                break;
+            }
+        }
+        return Arrays.copyOf(points, amountOfPoints);
+    }
+
+    /**
+     * Walks the peaks in time order: a peak at or above the minimum becomes a
+     * point, unless it lies within 2 seconds of the previous point. Then the
+     * highest of both is kept. After a peak the curve is followed down to the
+     * next valley, the frame right after the valley is skipped.
+     *
+     * @param points receives the frames of the points.
+     * @return the amount of points.
+     */
+    private static int selectPeaks(Peaks peaks, float[] scores, int amountOfFrames, float minimum, float songDuration, int[] points) {
+        int amountOfPoints = 0;
+        int from = 0;
+        for (int k = 0; k < peaks.count; k++) {
+            int end = peaks.end[k];
+            if (end - 1 < from || scores[end - 1] < minimum) {
+                continue;
+            }
+            float time = getTimeofFrameInMillisec(end, amountOfFrames, songDuration) / 1000f;
+            if (amountOfPoints > 0 && time - getTimeofFrameInMillisec(points[amountOfPoints - 1], amountOfFrames, songDuration) / 1000f < 2f) {
+                if (end < amountOfFrames && scores[points[amountOfPoints - 1]] < scores[end]) {
+                    points[amountOfPoints - 1] = end;
+                }
+            } else {
+                points[amountOfPoints++] = end;
             }
+            from = peaks.resume[k];
+        }
+        return amountOfPoints;
+    }
 
+    /**
+     * The peaks of a novelty curve. A peak is identified by the frame right
+     * after it, where the curve starts to go down (or the end of the curve);
+     * the curve does not go down between the previous peak and this one, so
+     * the frame before it holds the highest score since the previous peak.
+     * Points are reported at this frame, like the scan that climbs to a peak
+     * does.
+     */
+    static final class Peaks {
+
+        //the frame after every peak, in time order
+        final int[] end;
+        //the first frame a scan considers after the peak
+        final int[] resume;
+        final int count;
+        //the scores of the peaks, ascending
+        private final float[] sortedValues;
+
+        Peaks(float[] scores, int amountOfFrames) {
+            int[] ends = new int[amountOfFrames + 1];
+            int peaks = 0;
+            for (int frameNr = 1; frameNr < amountOfFrames; frameNr++) {
+                if (scores[frameNr] < scores[frameNr - 1]) {
+                    ends[peaks++] = frameNr;
+                }
+            }
+            //from the last decrease on the curve climbs to its end
+            ends[peaks++] = amountOfFrames;
+            count = peaks;
+            end = ends;
+            resume = new int[count];
+            //the valley after a peak is the first frame that is higher than
+            //the one before it
+            int valley = amountOfFrames;
+            int k = count - 1;
+            for (int frameNr = amountOfFrames; frameNr >= 1 && k >= 0; frameNr--) {
+                if (frameNr < amountOfFrames && scores[frameNr] > scores[frameNr - 1]) {
+                    valley = frameNr;
+                }
+                while (k >= 0 && end[k] == frameNr) {
+                    resume[k] = valley + 1;
+                    k--;
+                }
+            }
+            sortedValues = new float[count];
+            for (k = 0; k < count; k++) {
+                sortedValues[k] = end[k] > 0 ? scores[end[k] - 1] : Float.NEGATIVE_INFINITY;
+            }
+            Arrays.sort(sortedValues);
+        }
+
+        /**
+         * @return the amount of peaks with a score of at least the minimum.
+         */
+        int countAtLeast(float minimum) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sortedValues[middle] < minimum) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return count - low;
+        }
+
+        /**
+         * @return the lowest minimum that leaves at most the given amount of
+         * peaks.
+         */
+        float lowestMinimum(int amount) {
+            if (count <= amount) {
+                return Float.NEGATIVE_INFINITY;
+            }
+            //equal values are all in or all out: go just above the first one out
+            return Math.nextUp(sortedValues[count - amount - 1]);
         }
-        AASModel.getInstance().getSegmentation().sortSegmentationPoints();
-        //return scores;
     }
 }
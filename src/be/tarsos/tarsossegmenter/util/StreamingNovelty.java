@@ -0,0 +1,288 @@
+package be.tarsos.tarsossegmenter.util;
+
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrixBuilder;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Calculates the novelty scores of a song from its feature frames, without a
+ * self-similarity matrix. The novelty kernels only read the similarities
+ * within half the largest window of the diagonal, so the frames are fed one
+ * after the other and only the last window of frames is kept, in a ring
+ * buffer, together with their distances to the frames before them. Memory
+ * and time grow with the amount of frames times the window, not with the
+ * square of the amount of frames.
+ * </p>
+ * <p>
+ * The kernels of a frame are applied as soon as the frames half a window
+ * further have arrived; the frames at the end wait for {@link #finish()}. The
+ * similarity is the maximum minus the normalised distance of every feature,
+ * so every kernel sum is split in a constant part and one part per feature,
+ * which are kept until the normalisation is known. The peaks are picked by
+ * {@link NoveltyScore#calculateScore(StreamingNovelty, float)}.
+ * </p>
+ * <p>
+ * The matrix normalises the MFCC and CQT distances with the largest distance
+ * between any two frames, which is only known after all pairs are compared.
+ * The streamed distances are normalised with the largest distance between
+ * frames less than a window apart instead, which is at most the largest of all
+ * and gives a larger coefficient. A score is the constant part, which does not
+ * depend on the normalisation, minus the kernel sum of every feature times its
+ * coefficient, so every streamed score is lower by an amount that grows with
+ * its kernel sum: the scores are not scaled but shifted, by a different amount
+ * per frame. The peaks are picked with a threshold relative to the highest
+ * score, so the points can differ from those of the matrix, even with only the
+ * MFCC feature enabled. They are the same when the two most distant frames of
+ * the song are less than a window apart. The autocorrelation distances are
+ * normalised exactly, their largest distance follows from the range of the
+ * first coefficient.
+ * </p>
+ */
+public class StreamingNovelty {
+
+    private static final int FEATURES = 3;
+    private final int framesize;
+    private final int levels;
+    private final int[] maxWindowSizes;
+    private final NoveltyScore.KernelBank bank;
+    /**
+     * The largest window of all levels.
+     */
+    private final int width;
+    private final float maxScaleValue;
+    private final boolean[] enabled = new boolean[FEATURES];
+    private int mfccCoef;
+    /**
+     * Per feature: the last width + 1 frames and the distances of every one
+     * of them to the width - 1 frames before it, by lag.
+     */
+    private float[][][] frames;
+    private float[][][] distances;
+    private final float[] largestDistance = new float[FEATURES];
+    private float lowestAutoCorrelation = Float.MAX_VALUE;
+    private float highestAutoCorrelation = -Float.MAX_VALUE;
+    /**
+     * Per level and feature: the kernel sum of the distances around every
+     * frame.
+     */
+    private double[][][] sums;
+    /**
+     * The kernel sum of a constant 1, per window size.
+     */
+    private final double[] constants;
+    private int amountOfFrames;
+    private boolean finished;
+
+    /**
+     * @param framesize the amount of samples in a frame, it determines the
+     * windows of the levels.
+     * @param macroEnabled true to calculate the macro level.
+     * @param mesoEnabled true to calculate the meso level, after the macro
+     * level.
+     * @param microEnabled true to calculate the micro level, after the meso
+     * level.
+     * @param maxScaleValue the similarity of identical frames.
+     */
+    public StreamingNovelty(int framesize, boolean macroEnabled, boolean mesoEnabled, boolean microEnabled, float maxScaleValue) {
+        this.framesize = framesize;
+        this.maxScaleValue = maxScaleValue;
+        levels = NoveltyScore.levels(macroEnabled, mesoEnabled, microEnabled);
+        maxWindowSizes = new int[levels];
+        int largest = 2;
+        for (int level = 0; level < levels; level++) {
+            maxWindowSizes[level] = NoveltyScore.maxWindowSize(framesize, level);
+            largest = Math.max(largest, maxWindowSizes[level]);
+        }
+        width = largest;
+        bank = NoveltyScore.kernelBank(width);
+        constants = new double[width + 1];
+        for (int size = 2; size <= width; size += 2) {
+            float[] kernel = bank.get(size);
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += kernel[i];
+            }
+            constants[size] = sum * sum;
+        }
+        sums = new double[levels][FEATURES][];
+    }
+
+    public void enableMFCC(int mfccCoef) {
+        enabled[SimilarityMatrixBuilder.MFCC] = true;
+        this.mfccCoef = mfccCoef;
+    }
+
+    public void enableCQT() {
+        enabled[SimilarityMatrixBuilder.CQT] = true;
+    }
+
+    public void enableAutoCorrelation() {
+        enabled[SimilarityMatrixBuilder.AUTOCORRELATION] = true;
+    }
+
+    public int getFramesize() {
+        return framesize;
+    }
+
+    /**
+     * @return the amount of frames fed so far.
+     */
+    public int getAmountOfFrames() {
+        return amountOfFrames;
+    }
+
+    /**
+     * Feeds the next frame. The feature arrays are kept until they leave the
+     * window, not copied.
+     *
+     * @param mfcc the MFCC coefficients, or null if not enabled.
+     * @param cqt the CQT magnitudes, or null if not enabled.
+     * @param autoCorrelation the autocorrelation values, or null if not
+     * enabled.
+     */
+    public void addFrame(float[] mfcc, float[] cqt, float[] autoCorrelation) {
+        if (finished) {
+            throw new IllegalStateException("No frames can be added after the last one");
+        }
+        if (frames == null) {
+            frames = new float[FEATURES][width + 1][];
+            distances = new float[FEATURES][width + 1][width];
+        }
+        int frameNr = amountOfFrames++;
+        ensureCapacity(amountOfFrames);
+        int slot = frameNr % frames[0].length;
+        float[][] features = {mfcc, cqt, autoCorrelation};
+        for (int f = 0; f < FEATURES; f++) {
+            if (!enabled[f]) {
+                continue;
+            }
+            float[] x = features[f];
+            float[][] ring = frames[f];
+            ring[slot] = x;
+            float[] row = distances[f][slot];
+            for (int lag = 1; lag <= Math.min(frameNr, width - 1); lag++) {
+                float distance = SimilarityMatrixBuilder.distance(f, x, ring[(frameNr - lag) % ring.length], mfccCoef);
+                row[lag] = distance;
+                if (distance > largestDistance[f]) {
+                    largestDistance[f] = distance;
+                }
+            }
+        }
+        if (autoCorrelation != null) {
+            lowestAutoCorrelation = Math.min(lowestAutoCorrelation, autoCorrelation[0]);
+            highestAutoCorrelation = Math.max(highestAutoCorrelation, autoCorrelation[0]);
+        }
+        // the end of the song lies at least half a window further
+        int center = frameNr - width / 2;
+        if (center >= 0) {
+            applyKernels(center, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Applies the kernels to the frames at the end, after the last frame is
+     * fed.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        for (int frameNr = Math.max(0, amountOfFrames - width / 2); frameNr < amountOfFrames; frameNr++) {
+            applyKernels(frameNr, amountOfFrames);
+        }
+    }
+
+    /**
+     * Normalises the kernel sums of a level. Frames near the begin and the end
+     * of the song get 0, like the scores of a matrix.
+     *
+     * @return the unsmoothed novelty scores of all frames of the level.
+     */
+    public float[] getScores(int segmentationLevel) {
+        finish();
+        float[] coefficients = new float[FEATURES];
+        int factor = 0;
+        for (int f = 0; f < FEATURES; f++) {
+            if (enabled[f]) {
+                factor++;
+            }
+        }
+        for (int f = 0; f < FEATURES; f++) {
+            if (enabled[f]) {
+                float largest = largestDistance[f];
+                if (f == SimilarityMatrixBuilder.AUTOCORRELATION) {
+                    largest = (float) Math.sqrt(Math.abs(highestAutoCorrelation - lowestAutoCorrelation));
+                }
+                coefficients[f] = maxScaleValue / factor / Math.max(Float.MIN_VALUE, largest);
+            }
+        }
+        int maxWindowSize = maxWindowSizes[segmentationLevel];
+        int beginEndFrame = NoveltyScore.beginEndFrame(maxWindowSize);
+        float[] scores = new float[amountOfFrames];
+        for (int frameNr = beginEndFrame; frameNr < amountOfFrames - beginEndFrame; frameNr++) {
+            int window = NoveltyScore.window(frameNr, maxWindowSize, amountOfFrames);
+            double score = maxScaleValue * constants[window];
+            for (int f = 0; f < FEATURES; f++) {
+                if (enabled[f]) {
+                    score -= coefficients[f] * sums[segmentationLevel][f][frameNr];
+                }
+            }
+            scores[frameNr] = Math.max((float) score, 0);
+        }
+        return scores;
+    }
+
+    /**
+     * Applies the kernel of every level around a frame to the distances of
+     * every feature. All frames of the kernels must be in the window.
+     *
+     * @param amountOfFrames the amount of frames of the song, or
+     * Integer.MAX_VALUE if the end of the song is more than half a window
+     * away.
+     */
+    private void applyKernels(int frameNr, int amountOfFrames) {
+        for (int level = 0; level < levels; level++) {
+            int window = NoveltyScore.window(frameNr, maxWindowSizes[level], amountOfFrames);
+            if (window < 2) {
+                continue;
+            }
+            float[] kernel = bank.get(window);
+            int first = frameNr - window / 2;
+            for (int f = 0; f < FEATURES; f++) {
+                if (!enabled[f]) {
+                    continue;
+                }
+                float[][] rows = distances[f];
+                // the diagonal is 0, every cell below it counts twice
+                double score = 0;
+                for (int i = 1; i < window; i++) {
+                    float[] row = rows[(first + i) % rows.length];
+                    double dot = 0;
+                    for (int j = 0; j < i; j++) {
+                        dot += row[i - j] * kernel[j];
+                    }
+                    score += kernel[i] * 2 * dot;
+                }
+                sums[level][f][frameNr] = score;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        for (int level = 0; level < levels; level++) {
+            for (int f = 0; f < FEATURES; f++) {
+                if (!enabled[f]) {
+                    continue;
+                }
+                double[] levelSums = sums[level][f];
+                if (levelSums == null) {
+                    sums[level][f] = new double[Math.max(capacity, 1024)];
+                } else if (levelSums.length < capacity) {
+                    sums[level][f] = Arrays.copyOf(levelSums, Math.max(capacity, 2 * levelSums.length));
+                }
+            }
+        }
+    }
+}
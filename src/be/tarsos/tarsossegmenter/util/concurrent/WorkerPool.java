@@ -0,0 +1,46 @@
+package be.tarsos.tarsossegmenter.util.concurrent;
+
+import be.tarsos.tarsossegmenter.util.configuration.ConfKey;
+import be.tarsos.tarsossegmenter.util.configuration.Configuration;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The fork/join pool shared by all parallel analysis steps. The amount of
+ * worker threads is configured with <code>analysis_threads</code>, 0 uses
+ * every available processor.
+ */
+public final class WorkerPool {
+
+    private static ForkJoinPool pool;
+
+    private WorkerPool() {
+    }
+
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            int threads = Configuration.getInt(ConfKey.analysis_threads);
+            if (threads <= 0) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
+    /**
+     * Runs a task and waits for its result. A task started from within a
+     * worker thread runs in that thread's pool, so nested parallel steps do not
+     * block a worker while waiting for another pool.
+     *
+     * @param task the task to run.
+     * @return the result of the task.
+     */
+    public static <T> T invoke(ForkJoinTask<T> task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            return task.invoke();
+        }
+        return getPool().invoke(task);
+    }
+}
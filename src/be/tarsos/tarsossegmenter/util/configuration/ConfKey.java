@@ -33,6 +33,21 @@ public enum ConfKey {
      * skipped for performance reasons.
      */
     transcode_check_format,
+    /**
+     * The amount of threads used by the parallel analysis steps, 0 uses all
+     * available processors.
+     */
+    analysis_threads(ConfKey.GENERAL, ConfKey.INT),
+    /**
+     * Store extracted features next to the transcoded audio and reuse them
+     * when the extraction parameters did not change.
+     */
+    enable_feature_cache(ConfKey.GENERAL, ConfKey.BOOL),
+    /**
+     * Compute all enabled features from one spectrum per frame when more than
+     * one feature is enabled.
+     */
+    enable_fused_frontend(ConfKey.GENERAL, ConfKey.BOOL),
     enable_mfcc(ConfKey.MFCC, ConfKey.BOOL),
     //enable_mfcc,
     enable_cqt(ConfKey.CQT, ConfKey.BOOL),
@@ -52,7 +67,23 @@ public enum ConfKey {
     binary_treshold(ConfKey.GENERAL, ConfKey.FLOAT),
     ignore_first_segment(ConfKey.GENERAL, ConfKey.BOOL),
     ignore_last_segment(ConfKey.GENERAL, ConfKey.BOOL),
-    enable_white_area_reducement(ConfKey.GENERAL, ConfKey.BOOL);
+    enable_white_area_reducement(ConfKey.GENERAL, ConfKey.BOOL),
+    /**
+     * Keep the similarity matrices in memory-mapped files next to the
+     * transcoded audio instead of on the heap.
+     */
+    enable_mapped_matrix(ConfKey.GENERAL, ConfKey.BOOL),
+    /**
+     * Keep the preprocessed matrix diagonal by diagonal for the steps that
+     * walk along the diagonals.
+     */
+    enable_lag_layout(ConfKey.GENERAL, ConfKey.BOOL),
+    /**
+     * The bits per cell of the similarity matrix on the heap: 32 (float), 16
+     * or 8 (fixed-point). The preprocessing copy is always a float matrix.
+     */
+    matrix_bits(ConfKey.GENERAL, ConfKey.INT),
+    structure_beam_width(ConfKey.GENERAL, ConfKey.INT);
     public boolean isRequiredDir;
     public static final String GENERAL = "General";
     public static final String MFCC = "MFCC";
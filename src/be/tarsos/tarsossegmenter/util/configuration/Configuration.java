@@ -10,6 +10,7 @@ package be.tarsos.tarsossegmenter.util.configuration;
 import be.tarsos.tarsossegmenter.util.StringUtils;
 import be.tarsos.tarsossegmenter.util.io.FileUtils;
 
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -394,7 +395,11 @@ public final class Configuration {
                 
                 if (!new File(directory).canWrite()) {
                     String message = "Required directory " + directory + " is not writable!\n Please configure another directory for '" + confKey + "'.";
-                    JOptionPane.showMessageDialog(null, message, "Directory error", JOptionPane.ERROR_MESSAGE);
+                    if (GraphicsEnvironment.isHeadless()) {
+                        System.err.println(message);
+                    } else {
+                        JOptionPane.showMessageDialog(null, message, "Directory error", JOptionPane.ERROR_MESSAGE);
+                    }
                     //System.exit(-1);
                 }
             }
@@ -0,0 +1,150 @@
+package be.tarsos.tarsossegmenter.util.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * <p>
+ * Stores the features of an audio file in a binary file next to the
+ * transcoded audio, so a file that is analysed again with the same extraction
+ * parameters does not need to be decoded again.
+ * </p>
+ * <p>
+ * A cache file starts with a header holding the key, a description of every
+ * parameter that influences the features. A file with another key is treated
+ * as missing and is overwritten with the new features. The frames follow the
+ * header: the amount of values, -1 for a frame without features, and the
+ * values.
+ * </p>
+ */
+public class FeatureCache {
+
+    private static final int MAGIC = 0x54534643;
+    private static final int VERSION = 1;
+
+    private FeatureCache() {
+    }
+
+    /**
+     * Reads cached features.
+     *
+     * @param fileName the cache file.
+     * @param key the key the features were stored with.
+     * @return the features, or null if the file does not exist, was stored
+     * with another key or can not be read.
+     */
+    public static float[][] read(final String fileName, final String key) {
+        File file = new File(fileName);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    return null;
+                }
+                byte[] storedKey = new byte[buffer.getInt()];
+                buffer.get(storedKey);
+                if (!new String(storedKey, "UTF-8").equals(key)) {
+                    return null;
+                }
+                float[][] features = new float[buffer.getInt()][];
+                for (int i = 0; i < features.length; i++) {
+                    int length = buffer.getInt();
+                    if (length >= 0) {
+                        features[i] = new float[length];
+                        buffer.asFloatBuffer().get(features[i]);
+                        buffer.position(buffer.position() + 4 * length);
+                    }
+                }
+                return features;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // a truncated or corrupt file
+            return null;
+        }
+    }
+
+    /**
+     * Stores features. The file is written under a unique temporary name in
+     * the same directory and moved in place when complete, a reader never
+     * sees half a file.
+     *
+     * @param fileName the cache file.
+     * @param key a description of the extraction parameters.
+     * @param features the features, frames can be null.
+     */
+    public static void write(final String fileName, final String key, final float[][] features) {
+        try {
+            byte[] keyBytes = key.getBytes("UTF-8");
+            long length = 16 + keyBytes.length;
+            for (float[] frame : features) {
+                length += 4 + (frame == null ? 0 : 4 * frame.length);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(keyBytes.length);
+            buffer.put(keyBytes);
+            buffer.putInt(features.length);
+            for (float[] frame : features) {
+                if (frame == null) {
+                    buffer.putInt(-1);
+                } else {
+                    buffer.putInt(frame.length);
+                    buffer.asFloatBuffer().put(frame);
+                    buffer.position(buffer.position() + 4 * frame.length);
+                }
+            }
+            buffer.flip();
+
+            // every writer gets a temporary file of its own: sessions that
+            // cache the same file at the same time do not mix their bytes
+            Path file = Paths.get(fileName).toAbsolutePath();
+            Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                FileOutputStream out = new FileOutputStream(temporary.toFile());
+                try {
+                    FileChannel channel = out.getChannel();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } finally {
+                    out.close();
+                }
+                try {
+                    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write feature cache " + fileName + ": " + e.getMessage());
+        }
+    }
+}
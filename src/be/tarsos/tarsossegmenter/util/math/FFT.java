@@ -0,0 +1,81 @@
+package be.tarsos.tarsossegmenter.util.math;
+
+/**
+ * An in-place radix-2 fast Fourier transform for a fixed size. The twiddle
+ * factors and the bit reversal permutation are computed once, so transforming
+ * a frame allocates nothing.
+ */
+public class FFT {
+
+    private final int size;
+    private final int[] reversed;
+    private final float[] cos;
+    private final float[] sin;
+
+    /**
+     * @param size the amount of samples, a power of two.
+     */
+    public FFT(int size) {
+        if (!isPowerOfTwo(size)) {
+            throw new IllegalArgumentException("The size of an FFT must be a power of two, not " + size);
+        }
+        this.size = size;
+        int bits = Integer.numberOfTrailingZeros(size);
+        reversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new float[size / 2];
+        sin = new float[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cos[i] = (float) java.lang.Math.cos(-2 * java.lang.Math.PI * i / size);
+            sin[i] = (float) java.lang.Math.sin(-2 * java.lang.Math.PI * i / size);
+        }
+    }
+
+    public static boolean isPowerOfTwo(int size) {
+        return size > 0 && (size & (size - 1)) == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Transforms the complex signal re + i im in place.
+     *
+     * @param re the real parts, size values.
+     * @param im the imaginary parts, size values.
+     */
+    public void forward(float[] re, float[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                float t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int length = 2; length <= size; length <<= 1) {
+            int half = length >> 1;
+            int stride = size / length;
+            for (int start = 0; start < size; start += length) {
+                for (int k = 0; k < half; k++) {
+                    float wr = cos[k * stride];
+                    float wi = sin[k * stride];
+                    int a = start + k;
+                    int b = a + half;
+                    float tr = re[b] * wr - im[b] * wi;
+                    float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
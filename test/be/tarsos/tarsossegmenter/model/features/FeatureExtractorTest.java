@@ -0,0 +1,117 @@
+package be.tarsos.tarsossegmenter.model.features;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FeatureExtractorTest {
+
+    private static final AudioFormat FORMAT = new AudioFormat(8000, 16, 1, true, false);
+
+    @Test
+    public void rangesCoverAllFramesOnce() {
+        for (int amountOfFrames : new int[]{0, 1, 7, 100, 1001}) {
+            for (int ranges = 1; ranges <= 9; ranges++) {
+                int[] bounds = FeatureExtractor.rangeBounds(amountOfFrames, ranges);
+                assertEquals(ranges + 1, bounds.length);
+                assertEquals(0, bounds[0]);
+                assertEquals(amountOfFrames, bounds[ranges]);
+                for (int r = 0; r < ranges; r++) {
+                    int length = bounds[r + 1] - bounds[r];
+                    assertEquals(amountOfFrames / ranges, length, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Frames a synthetic signal once as a whole and once per range, with
+     * ranges of a few frames, and compares the samples of every frame.
+     */
+    @Test
+    public void rangesGetTheFramesOfOneSerialPass() throws IOException {
+        Random random = new Random(7);
+        int[][] framings = {{64, 32}, {64, 0}, {64, 48}, {100, 75}};
+        for (int[] framing : framings) {
+            int frameSize = framing[0];
+            int overlapping = framing[1];
+            for (int test = 0; test < 10; test++) {
+                short[] signal = new short[frameSize + random.nextInt(3000)];
+                for (int i = 0; i < signal.length; i++) {
+                    signal[i] = (short) random.nextInt();
+                }
+                List<short[]> serial = frames(stream(signal), frameSize, overlapping);
+                int amountOfFrames = serial.size();
+                for (int ranges = 1; ranges <= Math.min(amountOfFrames, 12); ranges++) {
+                    int[] bounds = FeatureExtractor.rangeBounds(amountOfFrames, ranges);
+                    for (int r = 0; r < ranges; r++) {
+                        int from = bounds[r];
+                        int to = bounds[r + 1];
+                        if (from >= to) {
+                            continue;
+                        }
+                        AudioInputStream range = FeatureExtractor.range(stream(signal), frameSize, overlapping, from, to, r == ranges - 1);
+                        List<short[]> frames = frames(range, frameSize, overlapping);
+                        assertEquals(to - from, frames.size());
+                        for (int frame = from; frame < to; frame++) {
+                            String message = frameSize + "/" + overlapping + ", " + ranges + " ranges, frame " + frame;
+                            assertArrayEquals(message, serial.get(frame), frames.get(frame - from));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static AudioInputStream stream(short[] signal) {
+        byte[] bytes = new byte[2 * signal.length];
+        for (int i = 0; i < signal.length; i++) {
+            bytes[2 * i] = (byte) signal[i];
+            bytes[2 * i + 1] = (byte) (signal[i] >> 8);
+        }
+        return new AudioInputStream(new ByteArrayInputStream(bytes), FORMAT, signal.length);
+    }
+
+    /**
+     * Frames a stream like a dispatcher: a first full frame, then every
+     * frame shifted by the step, the last one padded with zeros.
+     */
+    private static List<short[]> frames(AudioInputStream stream, int frameSize, int overlapping) throws IOException {
+        List<short[]> frames = new ArrayList<short[]>();
+        short[] frame = new short[frameSize];
+        int read = read(stream, frame, 0, frameSize);
+        while (read > 0) {
+            frames.add(frame.clone());
+            System.arraycopy(frame, frameSize - overlapping, frame, 0, overlapping);
+            read = read(stream, frame, overlapping, frameSize - overlapping);
+        }
+        return frames;
+    }
+
+    /**
+     * Reads samples until the buffer is full or the stream ends, the rest of
+     * the buffer is set to 0.
+     *
+     * @return the amount of samples read.
+     */
+    private static int read(AudioInputStream stream, short[] buffer, int offset, int length) throws IOException {
+        byte[] bytes = new byte[2 * length];
+        int total = 0;
+        int read;
+        while (total < bytes.length && (read = stream.read(bytes, total, bytes.length - total)) > 0) {
+            total += read;
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[offset + i] = 2 * i + 1 < total ? (short) ((bytes[2 * i] & 0xff) | (bytes[2 * i + 1] << 8)) : 0;
+        }
+        return total / 2;
+    }
+}
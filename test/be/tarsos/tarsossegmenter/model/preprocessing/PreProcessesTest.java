@@ -0,0 +1,146 @@
+package be.tarsos.tarsossegmenter.model.preprocessing;
+
+import be.tarsos.tarsossegmenter.model.similarity.LagSimilarityMatrix;
+import be.tarsos.tarsossegmenter.model.similarity.PackedSimilarityMatrix;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrix;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreProcessesTest {
+
+    private static final float MAX_VALUE = 1000;
+    private static final int[] DIAGONAL_KERNEL = {4, 5, 7, 5, 4};
+    private static final int[][] SHARPEN_KERNEL = {{6, 1, -4, -4, -4}, {1, 10, 1, -4, -4}, {-4, 1, 10, 1, -4}, {-4, -4, 1, 10, 1}, {-4, -4, -4, 1, 6}};
+    /**
+     * Sizes below the reach of the kernels and around the smallest band of
+     * rows.
+     */
+    private static final int[] SIZES = {1, 2, 3, 4, 5, 6, 63, 64, 65, 128, 129, 200};
+
+    @Test
+    public void enhanceDiagonalsMatchesTheTwoPassesOfARowMajorMatrix() {
+        Random random = new Random(3);
+        for (int size : SIZES) {
+            float[][] cells = randomCells(size, random);
+            check(fill(new PackedSimilarityMatrix(size), cells), cells);
+        }
+    }
+
+    @Test
+    public void enhanceLagsMatchesTheTwoPassesOfADiagonalMajorMatrix() {
+        Random random = new Random(4);
+        for (int size : SIZES) {
+            float[][] cells = randomCells(size, random);
+            check(fill(new LagSimilarityMatrix(size), cells), cells);
+        }
+    }
+
+    private static void check(SimilarityMatrix matrix, float[][] cells) {
+        int size = cells.length;
+        diagonalEdgeDetection(cells, MAX_VALUE);
+        float expectedMax = sharpen(cells);
+        float max = PreProcesses.enhanceDiagonals(matrix, MAX_VALUE);
+        assertEquals(size + " frames", expectedMax, max, 0);
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j <= i; j++) {
+                assertEquals(size + " frames, (" + i + ", " + j + ")", cells[i][j], matrix.getLower(i, j), 0);
+            }
+        }
+    }
+
+    /**
+     * The diagonal edge detection as it was, on a full symmetric matrix.
+     *
+     * @return the largest enhanced value, the new diagonal.
+     */
+    private static float diagonalEdgeDetection(float[][] cells, float maxValue) {
+        int size = cells.length;
+        float[][] enhanced = new float[size][size];
+        float newMax = 0;
+        for (int i = 2; i < size - 2; i++) {
+            for (int j = 2; j < i; j++) {
+                float value = cells[i][j];
+                for (int k = -2; k <= 2; k++) {
+                    value += (cells[i + k][j + k] - maxValue / 2) * DIAGONAL_KERNEL[k + 2];
+                }
+                enhanced[i][j] = Math.max(value, 0);
+                newMax = Math.max(newMax, enhanced[i][j]);
+            }
+        }
+        copyInner(enhanced, cells, newMax);
+        return newMax;
+    }
+
+    /**
+     * The sharpening as it was, on a full symmetric matrix.
+     *
+     * @return the largest sharpened value, the new diagonal.
+     */
+    private static float sharpen(float[][] cells) {
+        int size = cells.length;
+        float[][] sharpened = new float[size][size];
+        float newMax = 0;
+        for (int i = 2; i < size - 2; i++) {
+            for (int j = 2; j < i; j++) {
+                float value = 0;
+                for (int k = -2; k <= 2; k++) {
+                    for (int l = -2; l <= 2; l++) {
+                        value += cells[i + k][j + l] * SHARPEN_KERNEL[2 + k][2 + l];
+                    }
+                }
+                sharpened[i][j] = Math.max(value, 0);
+                newMax = Math.max(newMax, sharpened[i][j]);
+            }
+        }
+        copyInner(sharpened, cells, newMax);
+        return newMax;
+    }
+
+    /**
+     * Replaces the cells that are 2 away from the borders and the diagonal,
+     * and sets the diagonal.
+     */
+    private static void copyInner(float[][] from, float[][] cells, float diagonal) {
+        int size = cells.length;
+        for (int i = 2; i < size - 2; i++) {
+            for (int j = 2; j < i; j++) {
+                cells[i][j] = from[i][j];
+                cells[j][i] = from[i][j];
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            cells[i][i] = diagonal;
+        }
+    }
+
+    /**
+     * Random similarities with a few stripes parallel to the diagonal, so
+     * that some cells are enhanced and others clipped to 0.
+     */
+    private static float[][] randomCells(int size, Random random) {
+        float[][] cells = new float[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < i; j++) {
+                float value = MAX_VALUE * random.nextFloat();
+                if ((i - j) % 17 == 0) {
+                    value = MAX_VALUE - 50 * random.nextFloat();
+                }
+                cells[i][j] = value;
+                cells[j][i] = value;
+            }
+            cells[i][i] = MAX_VALUE;
+        }
+        return cells;
+    }
+
+    private static SimilarityMatrix fill(SimilarityMatrix matrix, float[][] cells) {
+        for (int i = 0; i < cells.length; i++) {
+            for (int j = 0; j <= i; j++) {
+                matrix.setLower(i, j, cells[i][j]);
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,121 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BinarySimilarityMatrixTest {
+
+    /**
+     * Sizes around the 64 cells of a word, where the diagonals start a new
+     * word or end in one.
+     */
+    private static final int[] SIZES = {1, 2, 3, 63, 64, 65, 127, 128, 129, 200};
+
+    @Test
+    public void thresholdKeepsTheCellsAboveTheThreshold() {
+        Random random = new Random(1);
+        for (int size : SIZES) {
+            SimilarityMatrix matrix = randomMatrix(size, random);
+            BinarySimilarityMatrix binary = BinarySimilarityMatrix.threshold(matrix, 0.5f);
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j <= i; j++) {
+                    assertEquals("cell (" + i + ", " + j + ") of " + size, matrix.getLower(i, j) > 0.5f ? 1 : 0, binary.getLower(i, j), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dilateSetsTheNeighboursOfEveryOne() {
+        Random random = new Random(2);
+        for (int size : SIZES) {
+            for (float density : new float[]{0.01f, 0.1f, 0.5f}) {
+                BinarySimilarityMatrix binary = randomBinary(size, density, random);
+                float[][] expected = dilate(binary);
+                binary.dilate();
+                for (int i = 0; i < size; i++) {
+                    for (int j = 0; j <= i; j++) {
+                        assertEquals("cell (" + i + ", " + j + ") of " + size, expected[i][j], binary.getLower(i, j), 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dilateOfASingleCell() {
+        BinarySimilarityMatrix binary = new BinarySimilarityMatrix(5);
+        binary.setLower(3, 1, 1);
+        binary.dilate();
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j <= i; j++) {
+                boolean next = i == 3 && j == 1 || i == 2 && j == 1 || i == 4 && j == 1 || i == 3 && j == 0 || i == 3 && j == 2;
+                assertEquals("cell (" + i + ", " + j + ")", next ? 1 : 0, binary.getLower(i, j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void countMatchesTheCellsAlongTheDiagonal() {
+        Random random = new Random(3);
+        for (int size : SIZES) {
+            BinarySimilarityMatrix binary = randomBinary(size, 0.3f, random);
+            for (int test = 0; test < 500; test++) {
+                int row = random.nextInt(size + 2);
+                int column = random.nextInt(size + 2);
+                int length = random.nextInt(size + 2);
+                int expected = 0;
+                for (int k = 0; k < length; k++) {
+                    if (row + k < size && column + k < size && binary.get(row + k, column + k) != 0) {
+                        expected++;
+                    }
+                }
+                assertEquals(expected, binary.count(row, column, length));
+            }
+        }
+    }
+
+    /**
+     * @return the dilation of the matrix, cell by cell.
+     */
+    private static float[][] dilate(SimilarityMatrix matrix) {
+        int size = matrix.size();
+        int[][] neighbours = {{0, 0}, {-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+        float[][] dilated = new float[size][];
+        for (int i = 0; i < size; i++) {
+            dilated[i] = new float[i + 1];
+            for (int j = 0; j <= i; j++) {
+                for (int[] n : neighbours) {
+                    int row = i + n[0];
+                    int column = j + n[1];
+                    if (column >= 0 && row < size && column <= row && matrix.getLower(row, column) != 0) {
+                        dilated[i][j] = 1;
+                    }
+                }
+            }
+        }
+        return dilated;
+    }
+
+    private static SimilarityMatrix randomMatrix(int size, Random random) {
+        SimilarityMatrix matrix = new PackedSimilarityMatrix(size);
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j <= i; j++) {
+                matrix.setLower(i, j, random.nextFloat());
+            }
+        }
+        return matrix;
+    }
+
+    private static BinarySimilarityMatrix randomBinary(int size, float density, Random random) {
+        BinarySimilarityMatrix binary = new BinarySimilarityMatrix(size);
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j <= i; j++) {
+                binary.setLower(i, j, random.nextFloat() < density ? 1 : 0);
+            }
+        }
+        return binary;
+    }
+}
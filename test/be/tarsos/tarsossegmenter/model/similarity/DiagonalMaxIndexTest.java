@@ -0,0 +1,60 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DiagonalMaxIndexTest {
+
+    @Test
+    public void boundsTheSumsOfEveryDiagonalOfAGroup() {
+        Random random = new Random(1);
+        for (int size : new int[]{1, 3, 4, 5, 33, 150}) {
+            check(fill(new PackedSimilarityMatrix(size), random), random);
+            check(fill(new LagSimilarityMatrix(size), random), random);
+        }
+    }
+
+    @Test
+    public void boundOfAnEmptyMatrixIsZero() {
+        DiagonalMaxIndex index = new DiagonalMaxIndex(new PackedSimilarityMatrix(20));
+        // only the slack for the rounding of the sums
+        assertEquals(0, index.bound(3, 0, 20), Float.MIN_VALUE);
+        assertEquals(0, index.getLargestMagnitude(), 0);
+    }
+
+    private static void check(SimilarityMatrix matrix, Random random) {
+        int size = matrix.size();
+        DiagonalMaxIndex index = new DiagonalMaxIndex(matrix);
+        for (int test = 0; test < 2000; test++) {
+            int lag = random.nextInt(size);
+            int from = random.nextInt(size + 2) - 1;
+            int to = random.nextInt(size + 2);
+            double bound = index.bound(lag, from, to);
+            assertTrue(bound >= 0);
+            int first = lag - lag % DiagonalMaxIndex.LAGS_PER_GROUP;
+            for (int other = first; other < Math.min(size, first + DiagonalMaxIndex.LAGS_PER_GROUP); other++) {
+                double sum = 0;
+                for (int k = Math.max(from, 0); k < Math.min(to, size - other); k++) {
+                    sum += matrix.getLower(other + k, k);
+                }
+                assertTrue("lag " + other + ", " + from + " ... " + to + ": " + sum + " > " + bound, sum <= bound);
+            }
+        }
+    }
+
+    /**
+     * Fills the matrix with values from -1 to 1000, the blocks keep at least
+     * 0.
+     */
+    private static SimilarityMatrix fill(SimilarityMatrix matrix, Random random) {
+        for (int i = 0; i < matrix.size(); i++) {
+            for (int j = 0; j <= i; j++) {
+                matrix.setLower(i, j, 1001 * random.nextFloat() - 1);
+            }
+        }
+        return matrix;
+    }
+}
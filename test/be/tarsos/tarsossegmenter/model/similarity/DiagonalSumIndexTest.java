@@ -0,0 +1,57 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DiagonalSumIndexTest {
+
+    @Test
+    public void sumsMatchTheCellsOfARowMajorMatrix() {
+        Random random = new Random(1);
+        for (int size : new int[]{1, 2, 17, 150}) {
+            check(fill(new PackedSimilarityMatrix(size), random), random);
+        }
+    }
+
+    @Test
+    public void sumsMatchTheCellsOfADiagonalMajorMatrix() {
+        Random random = new Random(2);
+        for (int size : new int[]{1, 2, 17, 150}) {
+            check(fill(new LagSimilarityMatrix(size), random), random);
+        }
+    }
+
+    /**
+     * Compares the sums of random pieces of diagonals, also in the upper half
+     * and past the end of the matrix, with the sums of their cells.
+     */
+    private static void check(SimilarityMatrix matrix, Random random) {
+        int size = matrix.size();
+        DiagonalSumIndex index = new DiagonalSumIndex(matrix);
+        assertEquals(size, index.size());
+        for (int test = 0; test < 2000; test++) {
+            int row = random.nextInt(size + 2);
+            int column = random.nextInt(size + 2);
+            int length = random.nextInt(size + 2);
+            double expected = 0;
+            for (int k = 0; k < length; k++) {
+                if (row + k < size && column + k < size) {
+                    expected += matrix.get(row + k, column + k);
+                }
+            }
+            // the stored sums are single precision
+            assertEquals("(" + row + ", " + column + ") x " + length, expected, index.sum(row, column, length), size * 1e-3);
+        }
+    }
+
+    private static SimilarityMatrix fill(SimilarityMatrix matrix, Random random) {
+        for (int i = 0; i < matrix.size(); i++) {
+            for (int j = 0; j <= i; j++) {
+                matrix.setLower(i, j, 1000 * random.nextFloat());
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,88 @@
+package be.tarsos.tarsossegmenter.model.similarity;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuantisedSimilarityMatrixTest {
+
+    private static final float MAX_VALUE = 1000;
+
+    @Test
+    public void cellsAreReadBackWithinTheResolution() {
+        for (int bits : new int[]{16, 8}) {
+            Random random = new Random(bits);
+            int size = 100;
+            QuantisedSimilarityMatrix matrix = new QuantisedSimilarityMatrix(size, bits, MAX_VALUE);
+            float[][] values = new float[size][];
+            for (int i = 0; i < size; i++) {
+                values[i] = new float[i + 1];
+                for (int j = 0; j <= i; j++) {
+                    values[i][j] = MAX_VALUE * random.nextFloat();
+                    matrix.setLower(i, j, values[i][j]);
+                }
+            }
+            float resolution = matrix.getResolution();
+            // the decoded values are floats themselves
+            float tolerance = resolution + Math.ulp(MAX_VALUE);
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j <= i; j++) {
+                    assertEquals(bits + " bits", values[i][j], matrix.getLower(i, j), tolerance);
+                }
+            }
+            assertEquals(MAX_VALUE / ((1 << bits) - 1) / 2, resolution, 1e-6f);
+        }
+    }
+
+    @Test
+    public void limitsAreExactAndOutsideValuesClamped() {
+        for (int bits : new int[]{16, 8}) {
+            QuantisedSimilarityMatrix matrix = new QuantisedSimilarityMatrix(4, bits, MAX_VALUE);
+            matrix.setLower(0, 0, MAX_VALUE);
+            matrix.setLower(1, 0, 0);
+            matrix.setLower(2, 0, -5);
+            matrix.setLower(3, 0, 2 * MAX_VALUE);
+            matrix.setLower(3, 1, Float.NaN);
+            assertEquals(MAX_VALUE, matrix.getLower(0, 0), 0);
+            assertEquals(0, matrix.getLower(1, 0), 0);
+            assertEquals(0, matrix.getLower(2, 0), 0);
+            assertEquals(MAX_VALUE, matrix.getLower(3, 0), 0);
+            assertEquals(0, matrix.getLower(3, 1), 0);
+            assertEquals(MAX_VALUE, matrix.max(), 0);
+        }
+    }
+
+    @Test
+    public void rowsDiagonalsAndCopiesMatchTheCells() {
+        for (int bits : new int[]{16, 8}) {
+            Random random = new Random(bits + 1);
+            int size = 60;
+            QuantisedSimilarityMatrix matrix = new QuantisedSimilarityMatrix(size, bits, MAX_VALUE);
+            float[] row = new float[size];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j <= i; j++) {
+                    row[j] = MAX_VALUE * random.nextFloat();
+                }
+                matrix.setRow(i, 0, i + 1, row, 0);
+            }
+            SimilarityMatrix copy = matrix.copy();
+            PackedSimilarityMatrix packed = matrix.toPacked();
+            float[] cells = new float[size];
+            for (int i = 0; i < size; i++) {
+                matrix.getRow(i, 0, i + 1, cells, 0);
+                for (int j = 0; j <= i; j++) {
+                    assertEquals(matrix.getLower(i, j), cells[j], 0);
+                    assertEquals(matrix.getLower(i, j), copy.getLower(i, j), 0);
+                    assertEquals(matrix.getLower(i, j), packed.getLower(i, j), 0);
+                }
+            }
+            for (int lag = 0; lag < size; lag++) {
+                matrix.getDiagonal(lag, 0, size - lag, cells, 0);
+                for (int k = 0; k < size - lag; k++) {
+                    assertEquals(matrix.getLower(lag + k, k), cells[k], 0);
+                }
+            }
+        }
+    }
+}
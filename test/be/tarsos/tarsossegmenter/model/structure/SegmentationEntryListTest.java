@@ -0,0 +1,167 @@
+package be.tarsos.tarsossegmenter.model.structure;
+
+import be.tarsos.tarsossegmenter.model.structure.StructureDetection.CandidateSegments;
+import be.tarsos.tarsossegmenter.model.structure.StructureDetection.SegmentationEntry;
+import be.tarsos.tarsossegmenter.model.structure.StructureDetection.SegmentationEntryList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentationEntryListTest {
+
+    @Test
+    public void emptySuggestion() {
+        SegmentationEntryList empty = SegmentationEntryList.EMPTY;
+        assertEquals(0, empty.size());
+        assertEquals('A', empty.getLabel());
+        assertNull(empty.getLast());
+        assertNull(empty.overlapping(0, 100));
+        assertTrue(empty.entries().isEmpty());
+        assertEquals(0, empty.getAverageMatch(), 0);
+        assertEquals(0, empty.getAmountOfDifferentSegments());
+    }
+
+    @Test
+    public void addPairTakesANewLabel() {
+        CandidateSegments candidates = new CandidateSegments();
+        candidates.add(0, 10);
+        candidates.add(10, 20);
+        candidates.add(30, 40);
+        SegmentationEntryList list = SegmentationEntryList.EMPTY.addPair(candidates, 1, 0, 0.5f);
+        assertEquals(2, list.size());
+        assertEquals('B', list.getLabel());
+        assertEquals(1, list.getAmountOfDifferentSegments());
+        // the second segment of the pair is added last
+        assertEquals(0, list.getLast().segment);
+        list = list.add('A', 0.8f, candidates, 2);
+        assertEquals('B', list.getLabel());
+        assertEquals(3, list.size());
+        assertEquals(2, list.getLast().segment);
+        assertEquals(30, list.getDuration(), 1e-6);
+        assertEquals(0.6f, list.getAverageMatch(), 1e-6);
+        List<SegmentationEntry> entries = list.entries();
+        assertEquals(0, entries.get(0).segment);
+        assertEquals(1, entries.get(1).segment);
+        assertEquals(2, entries.get(2).segment);
+        assertEquals('A', entries.get(2).label);
+    }
+
+    /**
+     * Builds random suggestions and checks every one of them, also the ones
+     * that later suggestions were derived from, against a plain list of its
+     * entries.
+     */
+    @Test
+    public void suggestionsMatchAListOfTheirEntries() {
+        Random random = new Random(7);
+        CandidateSegments candidates = new CandidateSegments();
+        for (int i = 0; i < 400; i++) {
+            float begin = random.nextInt(3000) / 10f;
+            candidates.add(begin, begin + (1 + random.nextInt(200)) / 10f);
+        }
+        List<SegmentationEntryList> suggestions = new ArrayList<SegmentationEntryList>();
+        List<List<Expected>> contents = new ArrayList<List<Expected>>();
+        SegmentationEntryList list = SegmentationEntryList.EMPTY;
+        List<Expected> expected = new ArrayList<Expected>();
+        for (int step = 0; step < 300; step++) {
+            int segment = random.nextInt(candidates.size());
+            // the times of a candidate are only read through an entry
+            SegmentationEntry candidate = new SegmentationEntry('A', 0, candidates, segment);
+            float begin = candidate.begin;
+            float end = candidate.end;
+            Expected overlapping = overlapping(expected, begin, end);
+            SegmentationEntry found = list.overlapping(begin, end);
+            if (overlapping == null) {
+                assertNull(found);
+                float match = random.nextFloat();
+                char label = (char) ('A' + random.nextInt(5));
+                list = list.add(label, match, candidates, segment);
+                expected.add(new Expected(segment, begin, end, label, match));
+                assertEquals(segment, list.getLast().segment);
+            } else {
+                assertNotNull(found);
+                assertTrue(found.begin < end && found.end > begin);
+                if (random.nextBoolean()) {
+                    // change the match of an existing entry instead
+                    List<SegmentationEntry> entries = list.entries();
+                    SegmentationEntry entry = entries.get(random.nextInt(entries.size()));
+                    float match = random.nextFloat();
+                    list = list.setMatch(entry, match);
+                    for (int i = 0; i < expected.size(); i++) {
+                        if (expected.get(i).segment == entry.segment) {
+                            Expected old = expected.get(i);
+                            expected.set(i, new Expected(old.segment, old.begin, old.end, old.label, match));
+                        }
+                    }
+                }
+            }
+            suggestions.add(list);
+            contents.add(new ArrayList<Expected>(expected));
+        }
+        for (int i = 0; i < suggestions.size(); i++) {
+            check(suggestions.get(i), contents.get(i));
+        }
+    }
+
+    private static void check(SegmentationEntryList list, List<Expected> expected) {
+        List<Expected> sorted = new ArrayList<Expected>(expected);
+        Collections.sort(sorted, new Comparator<Expected>() {
+
+            @Override
+            public int compare(Expected first, Expected second) {
+                return Float.compare(first.begin, second.begin);
+            }
+        });
+        List<SegmentationEntry> entries = list.entries();
+        assertEquals(sorted.size(), list.size());
+        assertEquals(sorted.size(), entries.size());
+        double matchSum = 0;
+        double duration = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            Expected e = sorted.get(i);
+            SegmentationEntry entry = entries.get(i);
+            assertEquals(e.segment, entry.segment);
+            assertEquals(e.label, entry.label);
+            assertEquals(e.match, entry.match, 0);
+            matchSum += e.match;
+            duration += e.end - e.begin;
+        }
+        if (!sorted.isEmpty()) {
+            assertEquals(matchSum / sorted.size(), list.getAverageMatch(), 1e-4);
+        }
+        assertEquals(duration, list.getDuration(), 1e-2);
+    }
+
+    private static Expected overlapping(List<Expected> expected, float begin, float end) {
+        for (Expected e : expected) {
+            if (e.begin < end && e.end > begin) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private static class Expected {
+
+        final int segment;
+        final float begin, end;
+        final char label;
+        final float match;
+
+        Expected(int segment, float begin, float end, char label, float match) {
+            this.segment = segment;
+            this.begin = begin;
+            this.end = end;
+            this.label = label;
+            this.match = match;
+        }
+    }
+}
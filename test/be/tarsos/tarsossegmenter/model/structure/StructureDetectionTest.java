@@ -0,0 +1,115 @@
+package be.tarsos.tarsossegmenter.model.structure;
+
+import be.tarsos.tarsossegmenter.model.AASModel;
+import be.tarsos.tarsossegmenter.model.segmentation.Segmentation;
+import be.tarsos.tarsossegmenter.model.segmentation.SegmentationList;
+import be.tarsos.tarsossegmenter.model.segmentation.SegmentationPart;
+import be.tarsos.tarsossegmenter.model.similarity.PackedSimilarityMatrix;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrix;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StructureDetectionTest {
+
+    /**
+     * Half a second per frame.
+     */
+    private static final float SAMPLE_RATE = 22050;
+    private static final int SAMPLES_PER_FRAME = 11025;
+    private static final int SECTION_FRAMES = 60;
+    /**
+     * The sections of the song, the same letter is the same music. Equal
+     * sections give pairs with equal matches, which are only ordered the
+     * same way if the order of the pairs does not depend on the tasks.
+     */
+    private static final String SECTIONS = "ABACABBADCAB";
+
+    /**
+     * The pairs are matched on the pool the detection runs in: the
+     * suggestions, with their order and labels, and the amount of pairs must
+     * not depend on its amount of threads.
+     */
+    @Test
+    public void matchesDoNotDependOnTheParallelism() {
+        String expected = null;
+        for (int threads : new int[]{1, 2, 4, 7}) {
+            String result = detect(threads);
+            if (expected == null) {
+                expected = result;
+                // some sections are found to repeat
+                assertTrue(result, result.contains(" B,"));
+            } else {
+                assertEquals(threads + " threads", expected, result);
+            }
+        }
+    }
+
+    /**
+     * Runs the detection on a pool of its own.
+     *
+     * @return the pairs and the suggestions.
+     */
+    private static String detect(int threads) {
+        int amountOfFrames = SECTIONS.length() * SECTION_FRAMES;
+        float frameDuration = SAMPLES_PER_FRAME / SAMPLE_RATE;
+        float songDuration = amountOfFrames * frameDuration;
+        Segmentation segmentation = new Segmentation();
+        // a point every 5 seconds, also within the sections
+        float[] points = new float[(int) (songDuration / 5) + 1];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = 5 * i;
+        }
+        segmentation.addSegmentationPoints(points, AASModel.MACRO_LEVEL);
+        final StructureDetection detection = new StructureDetection(segmentation, songDuration, song(amountOfFrames),
+                AASModel.MAX_SCALE_VALUE, SAMPLES_PER_FRAME, SAMPLE_RATE);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveAction() {
+
+                @Override
+                protected void compute() {
+                    detection.preProcessing();
+                    detection.run();
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        StringBuilder result = new StringBuilder();
+        result.append(detection.getAmountOfPairs()).append(" pairs, ");
+        result.append(detection.getAmountOfPrunedPairs()).append(" pruned\n");
+        // enough pairs for many tasks
+        assertTrue(detection.getAmountOfPairs() > 1000);
+        for (SegmentationList suggestion : segmentation.getMacroSuggestions()) {
+            for (SegmentationPart part : suggestion) {
+                result.append(part.getBegin()).append('-').append(part.getEnd()).append(' ').append(part.getLabel()).append(", ");
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Frames of the same section at the same offset are similar, all other
+     * frames are not.
+     */
+    private static SimilarityMatrix song(int amountOfFrames) {
+        Random random = new Random(13);
+        SimilarityMatrix matrix = new PackedSimilarityMatrix(amountOfFrames);
+        float maxValue = AASModel.MAX_SCALE_VALUE;
+        for (int i = 0; i < amountOfFrames; i++) {
+            for (int j = 0; j < i; j++) {
+                boolean same = SECTIONS.charAt(i / SECTION_FRAMES) == SECTIONS.charAt(j / SECTION_FRAMES)
+                        && i % SECTION_FRAMES == j % SECTION_FRAMES;
+                matrix.setLower(i, j, same ? maxValue * (0.9f + 0.1f * random.nextFloat()) : maxValue * 0.4f * random.nextFloat());
+            }
+            matrix.setLower(i, i, maxValue);
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,163 @@
+package be.tarsos.tarsossegmenter.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NoveltyScoreTest {
+
+    /**
+     * The bounds on the amount of points of the macro, meso and micro level.
+     */
+    private static final int[][] BOUNDS = {{2, 120}, {60, 120}, {70, 200}};
+    private static final float[] TRESHHOLDS = {0.23f, 0.2f, 0.1f};
+
+    @Test
+    public void peaksAreTheFramesWhereTheCurveGoesDown() {
+        float[] scores = {0, 1, 3, 2, 2, 5, 4, 0};
+        NoveltyScore.Peaks peaks = new NoveltyScore.Peaks(scores, scores.length);
+        assertEquals(4, peaks.count);
+        assertArrayEquals(new int[]{3, 6, 7, 8}, Arrays.copyOf(peaks.end, peaks.count));
+        assertEquals(4, peaks.countAtLeast(0));
+        assertEquals(3, peaks.countAtLeast(3));
+        assertEquals(0, peaks.countAtLeast(5.5f));
+        assertEquals(Float.NEGATIVE_INFINITY, peaks.lowestMinimum(4), 0);
+        assertEquals(2, peaks.countAtLeast(peaks.lowestMinimum(2)));
+        assertEquals(3, peaks.countAtLeast(peaks.lowestMinimum(3)));
+    }
+
+    @Test
+    public void pickPointsMatchesAScanOfTheCurve() {
+        Random random = new Random(5);
+        int compared = 0;
+        for (int test = 0; test < 300; test++) {
+            int amountOfFrames = 50 + random.nextInt(3000);
+            float[] scores = randomCurve(amountOfFrames, test % 4, random);
+            float songDuration = amountOfFrames * (50 + 200 * random.nextFloat());
+            float maxScore = 0;
+            for (float score : scores) {
+                maxScore = Math.max(maxScore, score);
+            }
+            int level = test % 3;
+            int[] expected = scanForPoints(scores, maxScore, songDuration, TRESHHOLDS[level], BOUNDS[level][0], BOUNDS[level][1]);
+            int[] points = NoveltyScore.pickPoints(scores, amountOfFrames, maxScore, songDuration, TRESHHOLDS[level], BOUNDS[level][0], BOUNDS[level][1]);
+            if (expected != null) {
+                assertArrayEquals("curve " + test, expected, points);
+                compared++;
+            }
+        }
+        assertTrue(compared > 250);
+    }
+
+    /**
+     * One high peak and 130 peaks at 0.3 of it, 3 seconds apart: a threshold
+     * above 0.3 leaves 1 point, below it 131, the meso bounds are 60 and 120.
+     * The threshold swings across 0.3 forever, unless the search is bounded.
+     */
+    @Test(timeout = 10000)
+    public void pickPointsStopsWhenTheThresholdSwings() {
+        int spikes = 131;
+        int amountOfFrames = 30 * spikes + 60;
+        float[] scores = new float[amountOfFrames];
+        for (int k = 0; k < spikes; k++) {
+            int frameNr = 30 + 30 * k;
+            scores[frameNr - 1] = 0.1f;
+            scores[frameNr] = k == 65 ? 1 : 0.3f;
+        }
+        // 0.1 seconds per frame
+        int[] points = NoveltyScore.pickPoints(scores, amountOfFrames, 1, amountOfFrames * 100f, 0.2f, 60, 120);
+        assertArrayEquals(new int[]{30 + 30 * 65 + 1}, points);
+    }
+
+    /**
+     * The search for the segmentation points as it was, with the curve
+     * scanned for every threshold.
+     *
+     * @return the frames of the points, or null if the threshold did not
+     * settle within 50 steps.
+     */
+    private static int[] scanForPoints(float[] scores, float maxScore, float songDuration, float treshhold, int minPoints, int maxPoints) {
+        int amountOfFrames = scores.length;
+        for (int step = 0; step < 50; step++) {
+            List<Integer> points = new ArrayList<Integer>();
+            for (int frameNr = 0; frameNr < amountOfFrames; frameNr++) {
+                if (scores[frameNr] >= treshhold * maxScore) {
+                    float score = scores[frameNr];
+                    frameNr++;
+                    while (frameNr < amountOfFrames && score <= scores[frameNr]) {
+                        score = scores[frameNr];
+                        frameNr++;
+                    }
+                    int last = points.isEmpty() ? -1 : points.get(points.size() - 1);
+                    if (last >= 0 && time(frameNr, amountOfFrames, songDuration) - time(last, amountOfFrames, songDuration) < 2f) {
+                        if (frameNr < amountOfFrames && scores[last] < scores[frameNr]) {
+                            points.set(points.size() - 1, frameNr);
+                        }
+                    } else {
+                        points.add(frameNr);
+                    }
+                    while (frameNr < amountOfFrames && score >= scores[frameNr]) {
+                        score = scores[frameNr];
+                        frameNr++;
+                    }
+                }
+            }
+            if (points.size() < minPoints && treshhold > 0.05f) {
+                treshhold *= 0.7;
+            } else if (points.size() > maxPoints && treshhold < 0.7) {
+                treshhold *= 1.3;
+            } else {
+                int[] frames = new int[points.size()];
+                for (int i = 0; i < frames.length; i++) {
+                    frames[i] = points.get(i);
+                }
+                return frames;
+            }
+        }
+        return null;
+    }
+
+    private static float time(int frameNr, int amountOfFrames, float songDuration) {
+        return (float) ((double) frameNr / amountOfFrames * songDuration) / 1000f;
+    }
+
+    /**
+     * @param kind a random walk, a sine, a staircase with plateaus or a noisy
+     * walk with drops to 0.
+     */
+    private static float[] randomCurve(int amountOfFrames, int kind, Random random) {
+        float[] scores = new float[amountOfFrames];
+        double walk = 0;
+        int period = 3 + random.nextInt(20);
+        for (int frameNr = 0; frameNr < amountOfFrames; frameNr++) {
+            walk += random.nextGaussian() * (kind == 0 ? 1 : 0.2);
+            double score;
+            switch (kind) {
+                case 1:
+                    score = Math.abs(Math.sin((double) frameNr / period));
+                    break;
+                case 2:
+                    score = Math.round(Math.abs(walk)) % 5;
+                    break;
+                case 3:
+                    score = random.nextInt(10) == 0 ? 0 : Math.abs(walk) + random.nextDouble() * 0.1;
+                    break;
+                default:
+                    score = Math.abs(walk);
+            }
+            scores[frameNr] = (float) score;
+        }
+        // like the scores near the begin and the end of a song
+        for (int frameNr = 0; frameNr < Math.min(10, amountOfFrames); frameNr++) {
+            scores[frameNr] = 0;
+            scores[amountOfFrames - 1 - frameNr] = 0;
+        }
+        return scores;
+    }
+}
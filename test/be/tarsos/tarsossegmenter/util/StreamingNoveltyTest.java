@@ -0,0 +1,95 @@
+package be.tarsos.tarsossegmenter.util;
+
+import be.tarsos.tarsossegmenter.model.segmentation.Segmentation;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrix;
+import be.tarsos.tarsossegmenter.model.similarity.SimilarityMatrixBuilder;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamingNoveltyTest {
+
+    private static final float MAX_SCALE_VALUE = 1000;
+    private static final int MFCC_COEF = 13;
+    /**
+     * The frames of the tests take 46.4 ms each.
+     */
+    private static final float FRAME_DURATION = 46.4f;
+
+    /**
+     * The largest window at 1024 samples per frame is 200 frames: all frames
+     * of the songs are compared by the streamed distances too, so both are
+     * normalised with the same largest distance.
+     */
+    @Test
+    public void songShorterThanTheWindowMatchesTheMatrix() {
+        for (int amountOfFrames : new int[]{30, 120, 199}) {
+            for (int features = 0; features < 3; features++) {
+                compare(1024, amountOfFrames, features == 0 || features == 2, features == 2, features != 0, 1e-3f);
+            }
+        }
+    }
+
+    /**
+     * The largest autocorrelation distance follows from the first values
+     * alone, also for songs much longer than the window.
+     */
+    @Test
+    public void autoCorrelationIsNormalisedExactly() {
+        for (int framesize : new int[]{1024, 4096, 16384}) {
+            for (int amountOfFrames : new int[]{400, 3000}) {
+                compare(framesize, amountOfFrames, false, false, true, 1e-3f);
+            }
+        }
+    }
+
+    private static void compare(int framesize, int amountOfFrames, boolean mfcc, boolean cqt, boolean autoCorrelation, float tolerance) {
+        Random random = new Random(amountOfFrames + framesize);
+        float[][] mfccs = new float[amountOfFrames][MFCC_COEF];
+        float[][] cqts = new float[amountOfFrames][12];
+        float[][] autoCorrelations = new float[amountOfFrames][1];
+        for (int i = 0; i < amountOfFrames; i++) {
+            // a song of three parts that come back
+            float part = (i / 40) % 3;
+            for (int k = 0; k < MFCC_COEF; k++) {
+                mfccs[i][k] = part + random.nextFloat();
+            }
+            for (int k = 0; k < cqts[i].length; k++) {
+                cqts[i][k] = part + random.nextFloat();
+            }
+            autoCorrelations[i][0] = part + random.nextFloat();
+        }
+        float songDuration = amountOfFrames * FRAME_DURATION;
+        SimilarityMatrix matrix = new SimilarityMatrixBuilder(amountOfFrames, mfcc ? mfccs : null, MFCC_COEF, cqt ? cqts : null,
+                autoCorrelation ? autoCorrelations : null, null, 32).build(MAX_SCALE_VALUE);
+        Segmentation expectedSegmentation = new Segmentation();
+        float[][] expected = new NoveltyScore(expectedSegmentation, framesize, true, true, true).calculateScore(matrix, songDuration);
+
+        StreamingNovelty novelty = new StreamingNovelty(framesize, true, true, true, MAX_SCALE_VALUE);
+        if (mfcc) {
+            novelty.enableMFCC(MFCC_COEF);
+        }
+        if (cqt) {
+            novelty.enableCQT();
+        }
+        if (autoCorrelation) {
+            novelty.enableAutoCorrelation();
+        }
+        for (int i = 0; i < amountOfFrames; i++) {
+            novelty.addFrame(mfcc ? mfccs[i] : null, cqt ? cqts[i] : null, autoCorrelation ? autoCorrelations[i] : null);
+        }
+        novelty.finish();
+        Segmentation segmentation = new Segmentation();
+        float[][] scores = new NoveltyScore(segmentation, framesize, true, true, true).calculateScore(novelty, songDuration);
+
+        String test = framesize + " samples, " + amountOfFrames + " frames";
+        for (int level = 0; level < 3; level++) {
+            assertEquals(test, expected[level].length, scores[level].length);
+            for (int frameNr = 0; frameNr < amountOfFrames; frameNr++) {
+                assertEquals(test + ", level " + level + ", frame " + frameNr, expected[level][frameNr], scores[level][frameNr], tolerance);
+            }
+            assertEquals(test + ", level " + level, expectedSegmentation.getSegmentationPoints(level), segmentation.getSegmentationPoints(level));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package be.tarsos.tarsossegmenter.util.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FeatureCacheTest {
+
+    private static final String KEY = "framesize=2048;overlapping=1024;samplerate=22050.0;mfcc_coef=40";
+
+    @Test
+    public void featuresAreReadBackAsTheyWereWritten() throws IOException {
+        File directory = Files.createTempDirectory("features").toFile();
+        String fileName = new File(directory, "mfcc.features").getPath();
+        try {
+            Random random = new Random(6);
+            float[][] features = new float[50][];
+            for (int i = 0; i < features.length; i++) {
+                // frames without features and empty frames are kept too
+                if (i % 7 != 3) {
+                    features[i] = new float[i % 11 == 5 ? 0 : 13];
+                    for (int k = 0; k < features[i].length; k++) {
+                        features[i][k] = (float) random.nextGaussian();
+                    }
+                }
+            }
+            FeatureCache.write(fileName, KEY, features);
+            float[][] read = FeatureCache.read(fileName, KEY);
+            assertEquals(features.length, read.length);
+            for (int i = 0; i < features.length; i++) {
+                if (features[i] == null) {
+                    assertNull(read[i]);
+                } else {
+                    assertArrayEquals("frame " + i, features[i], read[i], 0);
+                }
+            }
+            // no temporary files are left behind
+            assertEquals(1, directory.list().length);
+
+            // a second write replaces the features
+            FeatureCache.write(fileName, KEY, new float[0][]);
+            assertEquals(0, FeatureCache.read(fileName, KEY).length);
+            assertEquals(1, directory.list().length);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void otherKeysAndBrokenFilesAreMisses() throws IOException {
+        File directory = Files.createTempDirectory("features").toFile();
+        String fileName = new File(directory, "cqt.features").getPath();
+        try {
+            assertNull(FeatureCache.read(fileName, KEY));
+            float[][] features = {{1, 2, 3}, {4, 5, 6}};
+            FeatureCache.write(fileName, KEY, features);
+            assertNull(FeatureCache.read(fileName, KEY.replace("2048", "4096")));
+            assertNull(FeatureCache.read(fileName, KEY + ";cqt_bins=12"));
+            assertNull(FeatureCache.read(fileName, ""));
+            assertNotNull(FeatureCache.read(fileName, KEY));
+
+            // cut off in the middle of the last frame
+            RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+            try {
+                file.setLength(file.length() - 2);
+            } finally {
+                file.close();
+            }
+            assertNull(FeatureCache.read(fileName, KEY));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}